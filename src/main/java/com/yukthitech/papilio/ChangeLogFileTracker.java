@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.common.ChecksumEvaluator;
+import com.yukthitech.papilio.data.ChangeSet;
+import com.yukthitech.papilio.data.ColumnValue;
+import com.yukthitech.papilio.data.CreateIndexChange;
+import com.yukthitech.papilio.data.CreateTableChange;
+import com.yukthitech.papilio.data.DatabaseChangeLog;
+import com.yukthitech.papilio.data.DeleteChange;
+import com.yukthitech.papilio.data.IIncludeResolver;
+import com.yukthitech.papilio.data.InsertChange;
+
+/**
+ * Maintains aggregate digests of fully applied changelog files (which do not have includes). Digest
+ * of a file covers its content digest, digests of the external files (like value files and script files)
+ * referred by it and the ordered checksums of its changesets. When digest of an included file still matches
+ * with its content, its external files and the checksums in db-log, the file is not parsed.
+ *
+ * @author akiran
+ */
+public class ChangeLogFileTracker
+{
+	private static Logger logger = LogManager.getLogger(ChangeLogFileTracker.class);
+
+	/**
+	 * File (path relative to root changelog folder) column of files table.
+	 */
+	private static final String FLD_FILE = "FILE";
+
+	/**
+	 * Changeset ids column of files table.
+	 */
+	private static final String FLD_CHANGE_SET_IDS = "CHANGE_SET_IDS";
+
+	/**
+	 * Aggregate digest column of files table.
+	 */
+	private static final String FLD_DIGEST = "DIGEST";
+
+	/**
+	 * External files (paths relative to root changelog folder) column of files table.
+	 */
+	private static final String FLD_EXTERNAL_FILES = "EXTERNAL_FILES";
+
+	/**
+	 * Versioner to be used for db operations.
+	 */
+	private IDbSchemaVersioner dbSchemaVersioner;
+
+	/**
+	 * Table in which file digests are maintained.
+	 */
+	private String filesTable;
+
+	/**
+	 * Folder of root changelog file.
+	 */
+	private Path rootFolder;
+
+	/**
+	 * Algorithm to be used for digests.
+	 */
+	private String algorithm;
+
+	/**
+	 * Files which are resolved from their digests (and are not parsed).
+	 */
+	private Set<File> resolvedFiles = new HashSet<>();
+
+	/**
+	 * Instantiates a new change log file tracker.
+	 *
+	 * @param dbSchemaVersioner versioner to be used for db operations
+	 * @param filesTable table in which file digests are maintained
+	 * @param rootFile root changelog file
+	 * @param algorithm algorithm to be used for digests
+	 */
+	public ChangeLogFileTracker(IDbSchemaVersioner dbSchemaVersioner, String filesTable, File rootFile, String algorithm)
+	{
+		this.dbSchemaVersioner = dbSchemaVersioner;
+		this.filesTable = filesTable;
+		this.rootFolder = rootFile.getAbsoluteFile().toPath().normalize().getParent();
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Creates files table, if not present already.
+	 */
+	public void init()
+	{
+		if(dbSchemaVersioner.isTablePresent(filesTable))
+		{
+			return;
+		}
+
+		logger.debug("As changelog files table not found, creating new table: {}", filesTable);
+		dbSchemaVersioner.createTable(new CreateTableChange(filesTable));
+		dbSchemaVersioner.createIndex(new CreateIndexChange(filesTable + "_FILE", filesTable, true, FLD_FILE));
+	}
+
+	/**
+	 * Creates include resolver, which resolves the files whose digests match with current content
+	 * and specified executed changesets.
+	 * @param curChangesetMap already executed changesets
+	 * @return include resolver
+	 */
+	@SuppressWarnings("unchecked")
+	public IIncludeResolver newIncludeResolver(Map<String, String> curChangesetMap)
+	{
+		Map<String, Map<String, Object>> records = new HashMap<>();
+
+		for(Map<String, Object> record : dbSchemaVersioner.fetchRecords(filesTable, null))
+		{
+			records.put((String) record.get(FLD_FILE), record);
+		}
+
+		return file -> 
+		{
+			Map<String, Object> record = records.get(toRelativePath(file));
+
+			//records without external files are recorded by older versions, so such files are parsed
+			if(record == null || record.get(FLD_EXTERNAL_FILES) == null || !file.exists())
+			{
+				return null;
+			}
+			
+			List<File> externalFiles = new ArrayList<>();
+			
+			for(String path : (List<String>) record.get(FLD_EXTERNAL_FILES))
+			{
+				File externalFile = toFile(path);
+				
+				if(!externalFile.exists())
+				{
+					return null;
+				}
+				
+				externalFiles.add(externalFile);
+			}
+
+			Map<String, String> changeSets = new LinkedHashMap<>();
+
+			for(String id : (List<String>) record.get(FLD_CHANGE_SET_IDS))
+			{
+				String checksum = curChangesetMap.get(id);
+
+				//file is parsed, if any of its changesets is not found in db-log
+				if(checksum == null)
+				{
+					return null;
+				}
+
+				changeSets.put(id, checksum);
+			}
+
+			if(!evaluateDigest(file, externalFiles, new ArrayList<>(changeSets.values())).equals(record.get(FLD_DIGEST)))
+			{
+				return null;
+			}
+
+			logger.trace("Skipping parsing of changelog file as its digest is not changed: {}", file.getPath());
+			
+			synchronized(resolvedFiles)
+			{
+				resolvedFiles.add(file);
+			}
+			
+			return changeSets;
+		};
+	}
+
+	/**
+	 * Records digests of the leaf files of specified changelog, which are parsed and whose digests are changed.
+	 * Changesets of the changelog are expected to be applied already.
+	 * @param changeLog changelog whose files needs to be recorded
+	 */
+	public void recordFiles(DatabaseChangeLog changeLog)
+	{
+		Map<String, Object> recordedDigests = new HashMap<>();
+		
+		for(Map<String, Object> record : dbSchemaVersioner.fetchRecords(filesTable, null))
+		{
+			//records of older versions (without external files) are rewritten
+			if(record.get(FLD_EXTERNAL_FILES) != null)
+			{
+				recordedDigests.put((String) record.get(FLD_FILE), record.get(FLD_DIGEST));
+			}
+		}
+		
+		Map<File, List<ChangeSet>> fileChangeSets = new HashMap<>();
+
+		for(ChangeSet changeSet : changeLog.getChangeSets())
+		{
+			fileChangeSets.computeIfAbsent(changeSet.getSourceFile(), key -> new ArrayList<>()).add(changeSet);
+		}
+
+		for(File file : changeLog.getLeafFiles())
+		{
+			List<ChangeSet> changeSets = fileChangeSets.get(file);
+			Set<File> externalFiles = changeLog.getExternalFiles(file);
+
+			//root file is always parsed, so its digest is not needed. And files whose external files 
+			//  are not known (which are not parsed in this run) are not recorded
+			if(file.equals(changeLog.getFile()) || resolvedFiles.contains(file) || changeSets == null || externalFiles == null)
+			{
+				continue;
+			}
+
+			List<String> ids = new ArrayList<>();
+			List<String> checksums = new ArrayList<>();
+
+			for(ChangeSet changeSet : changeSets)
+			{
+				ids.add(changeSet.getId());
+				checksums.add(changeSet.getChecksum());
+			}
+
+			List<String> externalPaths = new ArrayList<>();
+			
+			for(File externalFile : externalFiles)
+			{
+				externalPaths.add(toRelativePath(externalFile));
+			}
+
+			String relativePath = toRelativePath(file);
+			String digest = evaluateDigest(file, externalFiles, checksums);
+			
+			if(digest.equals(recordedDigests.get(relativePath)))
+			{
+				continue;
+			}
+
+			InsertChange insertChange = new InsertChange();
+			insertChange.setTableName(filesTable);
+			insertChange.addColumnValue(new ColumnValue(FLD_FILE, relativePath))
+				.addColumnValue(new ColumnValue(FLD_CHANGE_SET_IDS, ids))
+				.addColumnValue(new ColumnValue(FLD_EXTERNAL_FILES, externalPaths))
+				.addColumnValue(new ColumnValue(FLD_DIGEST, digest));
+
+			try
+			{
+				dbSchemaVersioner.delete(new DeleteChange(filesTable, FLD_FILE, relativePath));
+				dbSchemaVersioner.insert(insertChange);
+			}catch(Exception ex)
+			{
+				//digests are used only to avoid parsing, so failures (like concurrent recording) are ignored
+				logger.warn("Failed to record digest of changelog file: {}", relativePath, ex);
+				continue;
+			}
+
+			logger.debug("Recorded digest of changelog file: {}", relativePath);
+		}
+	}
+
+	/**
+	 * Evaluates aggregate digest of specified file, covering its content digest, digests of its external files
+	 * and specified changeset checksums.
+	 * @param file file whose digest needs to be evaluated
+	 * @param externalFiles external files referred by the file
+	 * @param checksums ordered checksums of changesets of the file
+	 * @return aggregate digest
+	 */
+	private String evaluateDigest(File file, Collection<File> externalFiles, List<String> checksums)
+	{
+		List<String> values = new ArrayList<>();
+		values.add(ChecksumEvaluator.evaluateFileChecksum(file, algorithm));
+		
+		for(File externalFile : externalFiles)
+		{
+			values.add(toRelativePath(externalFile));
+			values.add(ChecksumEvaluator.evaluateFileChecksum(externalFile, algorithm));
+		}
+		
+		values.addAll(checksums);
+
+		return ChecksumEvaluator.evaluateChecksum(values, algorithm);
+	}
+
+	private String toRelativePath(File file)
+	{
+		return rootFolder.relativize(file.getAbsoluteFile().toPath().normalize()).toString().replace(File.separatorChar, '/');
+	}
+
+	private File toFile(String path)
+	{
+		return rootFolder.resolve(path.replace('/', File.separatorChar)).normalize().toFile();
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.data.InsertChange;
+import com.yukthitech.papilio.data.UpdateChange;
+
+/**
+ * Write-behind buffer for db-log entries. Buffered entries are written in bulk, when
+ * configured batch size is reached or when {@link #flush()} is called explicitly.
+ *
+ * With batch size N, in case of abrupt termination, at most N - 1 executed changesets
+ * may be left unrecorded (and hence would get re-executed on next run).
+ *
+ * @author akiran
+ */
+public class ChangeLogRecorder
+{
+	private static Logger logger = LogManager.getLogger(ChangeLogRecorder.class);
+
+	/**
+	 * Versioner to be used to write the entries.
+	 */
+	private IDbSchemaVersioner dbSchemaVersioner;
+
+	/**
+	 * Number of entries to be buffered before writing them.
+	 */
+	private int batchSize;
+
+	/**
+	 * Buffered db-log inserts.
+	 */
+	private List<InsertChange> pendingInserts = new ArrayList<>();
+
+	/**
+	 * Buffered db-log updates.
+	 */
+	private List<UpdateChange> pendingUpdates = new ArrayList<>();
+
+	/**
+	 * Instantiates a new change log recorder.
+	 *
+	 * @param dbSchemaVersioner versioner to be used to write entries
+	 * @param batchSize number of entries to be buffered before writing
+	 */
+	public ChangeLogRecorder(IDbSchemaVersioner dbSchemaVersioner, int batchSize)
+	{
+		this.dbSchemaVersioner = dbSchemaVersioner;
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	/**
+	 * Buffers specified db-log insert.
+	 * @param insertChange insert to be buffered
+	 */
+	public synchronized void insert(InsertChange insertChange)
+	{
+		pendingInserts.add(insertChange);
+		flushIfNeeded();
+	}
+
+	/**
+	 * Buffers specified db-log update.
+	 * @param updateChange update to be buffered
+	 */
+	public synchronized void update(UpdateChange updateChange)
+	{
+		pendingUpdates.add(updateChange);
+		flushIfNeeded();
+	}
+
+	private void flushIfNeeded()
+	{
+		if(pendingInserts.size() + pendingUpdates.size() >= batchSize)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all the buffered entries to db. Buffers are cleared only after successful write, so
+	 * that failed entries are retried on next flush.
+	 */
+	public synchronized void flush()
+	{
+		if(pendingInserts.isEmpty() && pendingUpdates.isEmpty())
+		{
+			return;
+		}
+
+		logger.debug("Flushing db-log entries [Inserts: {}, Updates: {}]", pendingInserts.size(), pendingUpdates.size());
+
+		if(pendingInserts.size() == 1)
+		{
+			dbSchemaVersioner.insert(pendingInserts.get(0));
+		}
+		else if(!pendingInserts.isEmpty())
+		{
+			dbSchemaVersioner.insertAll(pendingInserts);
+		}
+
+		//inserts are cleared before writing updates, so that written inserts are not repeated when updates fail
+		pendingInserts = new ArrayList<>();
+
+		if(pendingUpdates.size() == 1)
+		{
+			dbSchemaVersioner.update(pendingUpdates.get(0));
+		}
+		else if(!pendingUpdates.isEmpty())
+		{
+			dbSchemaVersioner.updateAll(pendingUpdates);
+		}
+
+		pendingUpdates = new ArrayList<>();
+	}
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Execution metrics of a single change. While a change is being executed, its metrics are
+ * available to the versioner (and other components) on executing thread via {@link #getCurrent()}.
+ *
+ * @author akiran
+ */
+public class ChangeMetrics
+{
+	/**
+	 * Metrics of the change being executed on current thread.
+	 */
+	private static ThreadLocal<ChangeMetrics> current = new ThreadLocal<>();
+
+	/**
+	 * Index of the change within changeset.
+	 */
+	private int index;
+
+	/**
+	 * Type of the change.
+	 */
+	private String type;
+
+	/**
+	 * Wall time taken by the change in nanos.
+	 */
+	private long durationNanos;
+
+	/**
+	 * Time spent in template processing in nanos.
+	 */
+	private long templateNanos;
+
+	/**
+	 * Time spent in value query execution in nanos.
+	 */
+	private long valueQueryNanos;
+
+	/**
+	 * Number of documents matched by the change.
+	 */
+	private long matchedCount;
+
+	/**
+	 * Number of documents modified by the change.
+	 */
+	private long modifiedCount;
+
+	/**
+	 * Number of documents deleted by the change.
+	 */
+	private long deletedCount;
+
+	/**
+	 * Number of documents inserted by the change.
+	 */
+	private long insertedCount;
+
+	/**
+	 * Number of documents read and processed by the change (like finder results of find-and-update).
+	 */
+	private long processedCount;
+
+	/**
+	 * Number of bytes sent to the db. Measured only when run report is requested.
+	 */
+	private long bytesSent;
+
+	/**
+	 * Instantiates a new change metrics.
+	 *
+	 * @param index index of the change within changeset
+	 * @param type type of the change
+	 */
+	public ChangeMetrics(int index, String type)
+	{
+		this.index = index;
+		this.type = type;
+	}
+
+	/**
+	 * Fetches the metrics of the change being executed on current thread.
+	 * @return current change metrics, null if no change is being executed
+	 */
+	public static ChangeMetrics getCurrent()
+	{
+		return current.get();
+	}
+
+	/**
+	 * Sets the metrics of the change being executed on current thread.
+	 * @param metrics metrics to set, null to clear
+	 */
+	static void setCurrent(ChangeMetrics metrics)
+	{
+		if(metrics == null)
+		{
+			current.remove();
+			return;
+		}
+
+		current.set(metrics);
+	}
+
+	/**
+	 * Executes specified action with specified metrics as current metrics of executing thread. Useful
+	 * when part of a change is executed on other threads.
+	 * @param metrics metrics to be used, if null action is executed as is
+	 * @param action action to execute
+	 * @return result of the action
+	 */
+	public static <T> T callWith(ChangeMetrics metrics, Supplier<T> action)
+	{
+		if(metrics == null)
+		{
+			return action.get();
+		}
+
+		ChangeMetrics prevMetrics = current.get();
+		setCurrent(metrics);
+
+		try
+		{
+			return action.get();
+		}finally
+		{
+			setCurrent(prevMetrics);
+		}
+	}
+
+	/**
+	 * Adds the counts and times (except wall time) of specified metrics to this metrics.
+	 * @param metrics metrics to be merged
+	 */
+	public void merge(ChangeMetrics metrics)
+	{
+		this.templateNanos += metrics.templateNanos;
+		this.valueQueryNanos += metrics.valueQueryNanos;
+		this.matchedCount += metrics.matchedCount;
+		this.modifiedCount += metrics.modifiedCount;
+		this.deletedCount += metrics.deletedCount;
+		this.insertedCount += metrics.insertedCount;
+		this.processedCount += metrics.processedCount;
+		this.bytesSent += metrics.bytesSent;
+	}
+
+	static double toMillis(long nanos)
+	{
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Gets the index of the change within changeset.
+	 *
+	 * @return the index of the change
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Gets the type of the change.
+	 *
+	 * @return the type of the change
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Gets the wall time taken by the change in millis.
+	 *
+	 * @return the wall time taken by the change
+	 */
+	public double getDurationMillis()
+	{
+		return toMillis(durationNanos);
+	}
+
+	void setDurationNanos(long durationNanos)
+	{
+		this.durationNanos = durationNanos;
+	}
+
+	/**
+	 * Gets the time spent in template processing in millis.
+	 *
+	 * @return the time spent in template processing
+	 */
+	public double getTemplateMillis()
+	{
+		return toMillis(templateNanos);
+	}
+
+	/**
+	 * Adds the time spent in template processing.
+	 *
+	 * @param nanos time in nanos
+	 */
+	public void addTemplateNanos(long nanos)
+	{
+		this.templateNanos += nanos;
+	}
+
+	/**
+	 * Gets the time spent in value query execution in millis.
+	 *
+	 * @return the time spent in value query execution
+	 */
+	public double getValueQueryMillis()
+	{
+		return toMillis(valueQueryNanos);
+	}
+
+	/**
+	 * Adds the time spent in value query execution.
+	 *
+	 * @param nanos time in nanos
+	 */
+	public void addValueQueryNanos(long nanos)
+	{
+		this.valueQueryNanos += nanos;
+	}
+
+	/**
+	 * Gets the number of documents matched by the change.
+	 *
+	 * @return the number of documents matched
+	 */
+	public long getMatchedCount()
+	{
+		return matchedCount;
+	}
+
+	/**
+	 * Gets the number of documents modified by the change.
+	 *
+	 * @return the number of documents modified
+	 */
+	public long getModifiedCount()
+	{
+		return modifiedCount;
+	}
+
+	/**
+	 * Adds the number of matched and modified documents.
+	 *
+	 * @param matched number of matched documents
+	 * @param modified number of modified documents
+	 */
+	public void addUpdateCounts(long matched, long modified)
+	{
+		this.matchedCount += matched;
+		this.modifiedCount += modified;
+	}
+
+	/**
+	 * Gets the number of documents deleted by the change.
+	 *
+	 * @return the number of documents deleted
+	 */
+	public long getDeletedCount()
+	{
+		return deletedCount;
+	}
+
+	/**
+	 * Adds the number of deleted documents.
+	 *
+	 * @param deleted number of deleted documents
+	 */
+	public void addDeletedCount(long deleted)
+	{
+		this.deletedCount += deleted;
+	}
+
+	/**
+	 * Gets the number of documents inserted by the change.
+	 *
+	 * @return the number of documents inserted
+	 */
+	public long getInsertedCount()
+	{
+		return insertedCount;
+	}
+
+	/**
+	 * Adds the number of inserted documents.
+	 *
+	 * @param inserted number of inserted documents
+	 */
+	public void addInsertedCount(long inserted)
+	{
+		this.insertedCount += inserted;
+	}
+
+	/**
+	 * Gets the number of documents read and processed by the change.
+	 *
+	 * @return the number of documents processed
+	 */
+	public long getProcessedCount()
+	{
+		return processedCount;
+	}
+
+	/**
+	 * Adds the number of processed documents.
+	 *
+	 * @param processed number of processed documents
+	 */
+	public void addProcessedCount(long processed)
+	{
+		this.processedCount += processed;
+	}
+
+	/**
+	 * Gets the number of bytes sent to the db.
+	 *
+	 * @return the number of bytes sent
+	 */
+	public long getBytesSent()
+	{
+		return bytesSent;
+	}
+
+	/**
+	 * Adds the number of bytes sent to the db.
+	 *
+	 * @param bytes number of bytes sent
+	 */
+	public void addBytesSent(long bytes)
+	{
+		this.bytesSent += bytes;
+	}
+}
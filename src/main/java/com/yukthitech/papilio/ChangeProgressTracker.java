@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.common.Md5Evaluator;
+import com.yukthitech.papilio.data.ChangeSet;
+import com.yukthitech.papilio.data.ColumnValue;
+import com.yukthitech.papilio.data.CreateIndexChange;
+import com.yukthitech.papilio.data.CreateTableChange;
+import com.yukthitech.papilio.data.DeleteChange;
+import com.yukthitech.papilio.data.FindAndUpdateChange;
+import com.yukthitech.papilio.data.IChange;
+import com.yukthitech.papilio.data.InsertChange;
+import com.yukthitech.papilio.data.UpdateChange;
+
+/**
+ * Maintains per-change progress markers of changesets with multiple changes. On restart after
+ * a failure, changes which are already completed under the same changeset checksum are skipped.
+ * Checkpoints of resumable find-and-update changes are also maintained as markers. Once changeset
+ * is recorded in db-log, its markers are removed.
+ *
+ * @author akiran
+ */
+public class ChangeProgressTracker
+{
+	private static Logger logger = LogManager.getLogger(ChangeProgressTracker.class);
+
+	/**
+	 * Changeset id column of progress table.
+	 */
+	private static final String FLD_CHANGE_SET_ID = "CHANGE_SET_ID";
+
+	/**
+	 * Changeset checksum column of progress table.
+	 */
+	private static final String FLD_CHECKSUM = "CHECKSUM";
+
+	/**
+	 * Change index (within the changeset) column of progress table.
+	 */
+	private static final String FLD_CHANGE_INDEX = "CHANGE_INDEX";
+
+	/**
+	 * Change checksum column of progress table.
+	 */
+	private static final String FLD_CHANGE_CHECKSUM = "CHANGE_CHECKSUM";
+
+	/**
+	 * Status column of progress table.
+	 */
+	private static final String FLD_STATUS = "STATUS";
+
+	/**
+	 * Status value of completed changes.
+	 */
+	private static final String STATUS_COMPLETED = "COMPLETED";
+
+	/**
+	 * Status value of find-and-update checkpoints.
+	 */
+	private static final String STATUS_CHECKPOINT = "CHECKPOINT";
+
+	/**
+	 * Last processed _id column of checkpoint markers.
+	 */
+	private static final String FLD_LAST_ID = "LAST_ID";
+
+	/**
+	 * Processed document count column of checkpoint markers.
+	 */
+	private static final String FLD_PROCESSED_COUNT = "PROCESSED_COUNT";
+
+	/**
+	 * Versioner to be used for db operations.
+	 */
+	private IDbSchemaVersioner dbSchemaVersioner;
+
+	/**
+	 * Table in which progress markers are maintained.
+	 */
+	private String progressTable;
+
+	/**
+	 * Ids of the recorded changesets whose markers are yet to be removed.
+	 */
+	private List<String> recordedChangeSets = new ArrayList<>();
+
+	/**
+	 * Instantiates a new change progress tracker.
+	 *
+	 * @param dbSchemaVersioner versioner to be used for db operations
+	 * @param progressTable table in which progress markers are maintained
+	 */
+	public ChangeProgressTracker(IDbSchemaVersioner dbSchemaVersioner, String progressTable)
+	{
+		this.dbSchemaVersioner = dbSchemaVersioner;
+		this.progressTable = progressTable;
+	}
+
+	/**
+	 * Creates progress table, if not present already.
+	 */
+	public void init()
+	{
+		if(dbSchemaVersioner.isTablePresent(progressTable))
+		{
+			return;
+		}
+
+		logger.debug("As progress table not found, creating new table: {}", progressTable);
+		dbSchemaVersioner.createTable(new CreateTableChange(progressTable));
+		dbSchemaVersioner.createIndex(new CreateIndexChange(progressTable + "_CSET_ID", progressTable, false, FLD_CHANGE_SET_ID));
+	}
+
+	/**
+	 * Checks if progress needs to be tracked for specified changeset. Progress is tracked only
+	 * for non-transactional changesets with multiple changes or with resumable changes.
+	 * @param changeSet changeset to check
+	 * @return true if progress should be tracked
+	 */
+	public boolean isTrackingNeeded(ChangeSet changeSet)
+	{
+		if(Boolean.TRUE.equals(changeSet.getTransactional()))
+		{
+			return false;
+		}
+		
+		return changeSet.getChanges().size() > 1 || changeSet.getChanges().stream().anyMatch(ChangeProgressTracker::isResumable);
+	}
+
+	/**
+	 * Checks if specified change can be resumed from a checkpoint.
+	 * @param change change to check
+	 * @return true if change is resumable
+	 */
+	public static boolean isResumable(IChange change)
+	{
+		return (change instanceof FindAndUpdateChange) && Boolean.TRUE.equals(((FindAndUpdateChange) change).getResumable());
+	}
+
+	/**
+	 * Fetches the changes of specified changeset completed by earlier (failed) executions. Markers
+	 * created for different version (checksum) of changeset are removed and ignored.
+	 * @param changeSet changeset whose progress needs to be fetched
+	 * @return change index to change checksum mapping of completed changes
+	 */
+	public Map<Integer, String> fetchCompletedChanges(ChangeSet changeSet)
+	{
+		List<Map<String, Object>> markers = dbSchemaVersioner.fetchRecords(progressTable, 
+				Arrays.asList(new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId())));
+
+		Map<Integer, String> completedChanges = new HashMap<>();
+
+		for(Map<String, Object> marker : markers)
+		{
+			if(!changeSet.getChecksum().equals(marker.get(FLD_CHECKSUM)))
+			{
+				logger.info("Changeset '{}' is modified after its earlier partial execution. Ignoring its progress markers", changeSet.getId());
+				
+				clearMarkers(changeSet.getId());
+				return new HashMap<>();
+			}
+
+			if(STATUS_COMPLETED.equals(marker.get(FLD_STATUS)))
+			{
+				completedChanges.put(((Number) marker.get(FLD_CHANGE_INDEX)).intValue(), (String) marker.get(FLD_CHANGE_CHECKSUM));
+			}
+		}
+
+		return completedChanges;
+	}
+
+	/**
+	 * Evaluates the checksum of specified change.
+	 * @param change change whose checksum needs to be evaluated
+	 * @return checksum of change
+	 */
+	public String getChangeChecksum(IChange change)
+	{
+		return Md5Evaluator.evaluateChecksum(change);
+	}
+
+	/**
+	 * Persists marker indicating specified change of the changeset is completed. Marker is written
+	 * immediately (without buffering), so that it survives abrupt termination.
+	 * @param changeSet changeset of the change
+	 * @param index index of change within changeset
+	 * @param changeChecksum checksum of the change
+	 */
+	public void markCompleted(ChangeSet changeSet, int index, String changeChecksum)
+	{
+		InsertChange insertChange = new InsertChange();
+		insertChange.setTableName(progressTable);
+		insertChange.addColumnValue(new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId()))
+			.addColumnValue(new ColumnValue(FLD_CHECKSUM, changeSet.getChecksum()))
+			.addColumnValue(new ColumnValue(FLD_CHANGE_INDEX, index))
+			.addColumnValue(new ColumnValue(FLD_CHANGE_CHECKSUM, changeChecksum))
+			.addColumnValue(new ColumnValue(FLD_STATUS, STATUS_COMPLETED));
+
+		dbSchemaVersioner.insert(insertChange);
+	}
+
+	/**
+	 * Fetches the checkpoint of specified change, persisted by earlier (failed) execution. If
+	 * not present, new checkpoint is returned.
+	 * @param changeSet changeset of the change
+	 * @param index index of change within changeset
+	 * @param changeChecksum checksum of the change
+	 * @return checkpoint of the change
+	 */
+	public FindAndUpdateCheckpoint fetchCheckpoint(ChangeSet changeSet, int index, String changeChecksum)
+	{
+		FindAndUpdateCheckpoint checkpoint = new FindAndUpdateCheckpoint(this, changeSet.getId(), changeSet.getChecksum(), index, changeChecksum);
+		
+		List<Map<String, Object>> markers = dbSchemaVersioner.fetchRecords(progressTable, Arrays.asList(
+				new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId()),
+				new ColumnValue(FLD_CHANGE_INDEX, index),
+				new ColumnValue(FLD_STATUS, STATUS_CHECKPOINT)
+			));
+
+		for(Map<String, Object> marker : markers)
+		{
+			if(changeChecksum.equals(marker.get(FLD_CHANGE_CHECKSUM)))
+			{
+				checkpoint.setPersistedState(marker.get(FLD_LAST_ID), ((Number) marker.get(FLD_PROCESSED_COUNT)).longValue());
+				
+				logger.info("Resuming change #{} of changeset '{}' from checkpoint [Last Id: {}, Processed Count: {}]", 
+						index, changeSet.getId(), checkpoint.getLastId(), checkpoint.getProcessedCount());
+			}
+		}
+
+		return checkpoint;
+	}
+
+	/**
+	 * Persists specified checkpoint immediately (without buffering).
+	 * @param checkpoint checkpoint to persist
+	 */
+	void saveCheckpoint(FindAndUpdateCheckpoint checkpoint)
+	{
+		logger.trace("Saving checkpoint of change #{} of changeset '{}' [Last Id: {}, Processed Count: {}]", 
+				checkpoint.getChangeIndex(), checkpoint.getChangeSetId(), checkpoint.getLastId(), checkpoint.getProcessedCount());
+		
+		if(checkpoint.isPersisted())
+		{
+			UpdateChange updateChange = new UpdateChange();
+			updateChange.setTableName(progressTable);
+			updateChange.addColumnValue(new ColumnValue(FLD_LAST_ID, checkpoint.getLastId()));
+			updateChange.addColumnValue(new ColumnValue(FLD_PROCESSED_COUNT, checkpoint.getProcessedCount()));
+			updateChange.addCondition(new ColumnValue(FLD_CHANGE_SET_ID, checkpoint.getChangeSetId()));
+			updateChange.addCondition(new ColumnValue(FLD_CHANGE_INDEX, checkpoint.getChangeIndex()));
+			updateChange.addCondition(new ColumnValue(FLD_STATUS, STATUS_CHECKPOINT));
+			
+			dbSchemaVersioner.update(updateChange);
+			return;
+		}
+		
+		InsertChange insertChange = new InsertChange();
+		insertChange.setTableName(progressTable);
+		insertChange.addColumnValue(new ColumnValue(FLD_CHANGE_SET_ID, checkpoint.getChangeSetId()))
+			.addColumnValue(new ColumnValue(FLD_CHECKSUM, checkpoint.getChecksum()))
+			.addColumnValue(new ColumnValue(FLD_CHANGE_INDEX, checkpoint.getChangeIndex()))
+			.addColumnValue(new ColumnValue(FLD_CHANGE_CHECKSUM, checkpoint.getChangeChecksum()))
+			.addColumnValue(new ColumnValue(FLD_STATUS, STATUS_CHECKPOINT))
+			.addColumnValue(new ColumnValue(FLD_LAST_ID, checkpoint.getLastId()))
+			.addColumnValue(new ColumnValue(FLD_PROCESSED_COUNT, checkpoint.getProcessedCount()));
+
+		dbSchemaVersioner.insert(insertChange);
+	}
+
+	/**
+	 * Marks specified changeset as recorded. Its markers will be removed on next {@link #clearRecorded()}.
+	 * @param changeSet changeset recorded in db-log
+	 */
+	public synchronized void recorded(ChangeSet changeSet)
+	{
+		if(isTrackingNeeded(changeSet))
+		{
+			recordedChangeSets.add(changeSet.getId());
+		}
+	}
+
+	/**
+	 * Removes the markers of recorded changesets. Should be called only after the db-log entries
+	 * of the recorded changesets are written.
+	 */
+	public synchronized void clearRecorded()
+	{
+		for(String changeSetId : recordedChangeSets)
+		{
+			clearMarkers(changeSetId);
+		}
+
+		recordedChangeSets.clear();
+	}
+
+	private void clearMarkers(String changeSetId)
+	{
+		logger.trace("Removing progress markers of changeset: {}", changeSetId);
+		dbSchemaVersioner.delete(new DeleteChange(progressTable, FLD_CHANGE_SET_ID, changeSetId));
+	}
+}
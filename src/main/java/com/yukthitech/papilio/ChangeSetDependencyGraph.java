@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.yukthitech.papilio.data.ChangeSet;
+import com.yukthitech.papilio.data.ColumnValue;
+import com.yukthitech.papilio.data.CreateIndexChange;
+import com.yukthitech.papilio.data.CreateTableChange;
+import com.yukthitech.papilio.data.DeleteChange;
+import com.yukthitech.papilio.data.IChange;
+import com.yukthitech.papilio.data.InsertChange;
+import com.yukthitech.papilio.data.UpdateChange;
+
+/**
+ * Dependency graph of changesets, built from the tables/collections touched by each changeset
+ * and the order in which changesets are specified in the file(s).
+ *
+ * A changeset depends on the latest previous changeset touching any of its tables. Changesets
+ * whose tables cannot be determined (like query, script, find-and-update or value-query based
+ * changes) act as a barrier: they depend on all previous changesets and all the later changesets
+ * depend on them.
+ *
+ * @author akiran
+ */
+public class ChangeSetDependencyGraph
+{
+	/**
+	 * Changesets (in file order) for which graph is built.
+	 */
+	private List<ChangeSet> changeSets;
+
+	/**
+	 * Number of dependencies (by changeset index) of each changeset.
+	 */
+	private int dependencyCounts[];
+
+	/**
+	 * Indexes of changesets which are dependent on changeset at respective index.
+	 */
+	private List<List<Integer>> dependents = new ArrayList<>();
+
+	/**
+	 * Instantiates a new dependency graph for specified changesets.
+	 *
+	 * @param changeSets changesets in the order of execution.
+	 */
+	public ChangeSetDependencyGraph(List<ChangeSet> changeSets)
+	{
+		this.changeSets = changeSets;
+		this.dependencyCounts = new int[changeSets.size()];
+
+		Map<String, Integer> lastTableChanges = new HashMap<>();
+		List<Integer> changesSinceBarrier = new ArrayList<>();
+		int lastBarrier = -1;
+
+		for(int i = 0; i < changeSets.size(); i++)
+		{
+			dependents.add(new ArrayList<>());
+
+			Set<String> tables = getAffectedTables(changeSets.get(i));
+			Set<Integer> dependencies = new TreeSet<>();
+
+			if(lastBarrier >= 0)
+			{
+				dependencies.add(lastBarrier);
+			}
+
+			if(tables == null)
+			{
+				dependencies.addAll(changesSinceBarrier);
+
+				lastBarrier = i;
+				changesSinceBarrier.clear();
+				lastTableChanges.clear();
+			}
+			else
+			{
+				for(String table : tables)
+				{
+					Integer prevIndex = lastTableChanges.put(table, i);
+
+					if(prevIndex != null)
+					{
+						dependencies.add(prevIndex);
+					}
+				}
+
+				changesSinceBarrier.add(i);
+			}
+
+			for(Integer depIndex : dependencies)
+			{
+				dependents.get(depIndex).add(i);
+			}
+
+			dependencyCounts[i] = dependencies.size();
+		}
+	}
+
+	/**
+	 * Fetches the tables/collections touched by specified changeset. If the tables cannot
+	 * be determined for any of the changes, null will be returned.
+	 * @param changeSet changeset to be checked
+	 * @return tables touched by changeset or null if cannot be determined.
+	 */
+	public static Set<String> getAffectedTables(ChangeSet changeSet)
+	{
+		Set<String> tables = new TreeSet<>();
+
+		for(IChange change : changeSet.getChanges())
+		{
+			String tableName = null;
+
+			if(change instanceof CreateTableChange)
+			{
+				tableName = ((CreateTableChange) change).getTableName();
+			}
+			else if(change instanceof CreateIndexChange)
+			{
+				tableName = ((CreateIndexChange) change).getTableName();
+			}
+			else if(change instanceof InsertChange)
+			{
+				InsertChange insertChange = (InsertChange) change;
+				tableName = hasValueQuery(insertChange.getColumnValues()) ? null : insertChange.getTableName();
+			}
+			else if(change instanceof UpdateChange)
+			{
+				UpdateChange updateChange = (UpdateChange) change;
+
+				tableName = (hasValueQuery(updateChange.getColumnValues()) || hasValueQuery(updateChange.getConditions())) ?
+						null : updateChange.getTableName();
+			}
+			else if(change instanceof DeleteChange)
+			{
+				DeleteChange deleteChange = (DeleteChange) change;
+				tableName = hasValueQuery(deleteChange.getConditions()) ? null : deleteChange.getTableName();
+			}
+
+			//query, script, find-and-update and value-query based changes can touch any table
+			if(StringUtils.isBlank(tableName))
+			{
+				return null;
+			}
+
+			tables.add(tableName);
+		}
+
+		return tables;
+	}
+
+	/**
+	 * Checks if any of the column-value depends on value query (which can read any table).
+	 * @param columnValues column values to check
+	 * @return true if value query is used
+	 */
+	private static boolean hasValueQuery(List<ColumnValue> columnValues)
+	{
+		if(columnValues == null)
+		{
+			return false;
+		}
+
+		for(ColumnValue colValue : columnValues)
+		{
+			if(colValue.getValueQuery() != null)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the changesets (in file order) for which graph is built.
+	 *
+	 * @return the changesets for which graph is built
+	 */
+	public List<ChangeSet> getChangeSets()
+	{
+		return changeSets;
+	}
+
+	/**
+	 * Fetches the number of changesets on which changeset at specified index depends.
+	 * @param index index of changeset
+	 * @return number of dependencies
+	 */
+	public int getDependencyCount(int index)
+	{
+		return dependencyCounts[index];
+	}
+
+	/**
+	 * Fetches indexes of the changesets which depend on changeset at specified index.
+	 * @param index index of changeset
+	 * @return dependent changeset indexes
+	 */
+	public List<Integer> getDependents(int index)
+	{
+		return dependents.get(index);
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execution metrics of a changeset.
+ *
+ * @author akiran
+ */
+public class ChangeSetMetrics
+{
+	/**
+	 * Final status of the changeset.
+	 */
+	public static enum Status
+	{
+		EXECUTED, SKIPPED, CHECKSUM_UPDATED, ERRORED
+	}
+
+	/**
+	 * Id of the changeset.
+	 */
+	private String id;
+
+	/**
+	 * Status of the changeset.
+	 */
+	private Status status;
+
+	/**
+	 * Time taken for checksum evaluation in nanos.
+	 */
+	private long checksumNanos;
+
+	/**
+	 * Wall time taken for execution of changes in nanos.
+	 */
+	private long durationNanos;
+
+	/**
+	 * Metrics of the executed changes.
+	 */
+	private List<ChangeMetrics> changes = new ArrayList<>();
+
+	/**
+	 * Instantiates a new change set metrics.
+	 *
+	 * @param id id of the changeset
+	 */
+	public ChangeSetMetrics(String id)
+	{
+		this.id = id;
+	}
+
+	/**
+	 * Gets the id of the changeset.
+	 *
+	 * @return the id of the changeset
+	 */
+	public String getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Gets the status of the changeset.
+	 *
+	 * @return the status of the changeset
+	 */
+	public Status getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Sets the status of the changeset.
+	 *
+	 * @param status the new status of the changeset
+	 */
+	public void setStatus(Status status)
+	{
+		this.status = status;
+	}
+
+	/**
+	 * Gets the time taken for checksum evaluation in millis.
+	 *
+	 * @return the time taken for checksum evaluation
+	 */
+	public double getChecksumMillis()
+	{
+		return ChangeMetrics.toMillis(checksumNanos);
+	}
+
+	void setChecksumNanos(long checksumNanos)
+	{
+		this.checksumNanos = checksumNanos;
+	}
+
+	/**
+	 * Gets the wall time taken for execution of changes in millis.
+	 *
+	 * @return the wall time taken for execution
+	 */
+	public double getDurationMillis()
+	{
+		return ChangeMetrics.toMillis(durationNanos);
+	}
+
+	void setDurationNanos(long durationNanos)
+	{
+		this.durationNanos = durationNanos;
+	}
+
+	/**
+	 * Gets the metrics of the executed changes.
+	 *
+	 * @return the metrics of the executed changes
+	 */
+	public List<ChangeMetrics> getChanges()
+	{
+		return changes;
+	}
+
+	void addChange(ChangeMetrics changeMetrics)
+	{
+		this.changes.add(changeMetrics);
+	}
+
+	/**
+	 * Discards the execution metrics (status, duration and changes) recorded so far. Used when
+	 * changeset is executed again, like on retry of its transaction.
+	 */
+	void resetExecution()
+	{
+		this.status = null;
+		this.durationNanos = 0;
+		this.changes.clear();
+	}
+}
@@ -15,6 +15,13 @@
  */
 package com.yukthitech.papilio;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yukthitech.papilio.ChangeSetMetrics.Status;
+
 /**
  * Tracker to track changes going on.
  * 
@@ -56,6 +63,36 @@ public class ChangeTracker
 	 * Exit code to be used.
 	 */
 	private int exitCode = 0;
+	
+	/**
+	 * Trackers of individual target databases, in multi-target execution.
+	 */
+	private Map<String, ChangeTracker> targetTrackers = new LinkedHashMap<>();
+	
+	/**
+	 * Metrics of the processed changesets, by changeset id.
+	 */
+	private Map<String, ChangeSetMetrics> changeSetMetrics = new LinkedHashMap<>();
+	
+	/**
+	 * Total time taken for the run in millis.
+	 */
+	private long durationMillis;
+	
+	/**
+	 * Time taken to evaluate the checksums of all changesets in nanos.
+	 */
+	private long checksumNanos;
+	
+	/**
+	 * Number of external file loads served from cache.
+	 */
+	private long externalFileCacheHits;
+	
+	/**
+	 * Number of external file loads which needed file reading.
+	 */
+	private long externalFileCacheMisses;
 
 	/**
 	 * Gets the total number of changeset loaded.
@@ -94,6 +131,7 @@ public class ChangeTracker
 	public void skippingChangeset(String changesetId)
 	{
 		this.skipCount++;
+		getChangeSetMetrics(changesetId).setStatus(Status.SKIPPED);
 	}
 
 	/**
@@ -113,6 +151,7 @@ public class ChangeTracker
 	public void executedChangeset(String changesetId)
 	{
 		this.executedCount++;
+		getChangeSetMetrics(changesetId).setStatus(Status.EXECUTED);
 	}
 
 	/**
@@ -175,5 +214,146 @@ public class ChangeTracker
 	{
 		this.erroredChangesetId = changesetId;
 		this.errorMessage = errorMssg;
+		
+		if(changesetId != null)
+		{
+			getChangeSetMetrics(changesetId).setStatus(Status.ERRORED);
+		}
+	}
+	
+	/**
+	 * Fetches the metrics of specified changeset. If not present, new metrics will be created.
+	 * 
+	 * @param changesetId id of changeset
+	 * @return metrics of changeset
+	 */
+	public synchronized ChangeSetMetrics getChangeSetMetrics(String changesetId)
+	{
+		return changeSetMetrics.computeIfAbsent(changesetId, ChangeSetMetrics::new);
+	}
+	
+	/**
+	 * Gets the metrics of the processed changesets.
+	 *
+	 * @return the metrics of the processed changesets
+	 */
+	public synchronized List<ChangeSetMetrics> getChangeSets()
+	{
+		return new ArrayList<>(changeSetMetrics.values());
+	}
+	
+	/**
+	 * Gets the total time taken for the run in millis.
+	 *
+	 * @return the total time taken for the run
+	 */
+	public long getDurationMillis()
+	{
+		return durationMillis;
+	}
+
+	/**
+	 * Sets the total time taken for the run in millis.
+	 *
+	 * @param durationMillis the new total time taken for the run
+	 */
+	public void setDurationMillis(long durationMillis)
+	{
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Gets the time taken to evaluate the checksums of all changesets in millis.
+	 *
+	 * @return the time taken to evaluate the checksums
+	 */
+	public double getChecksumMillis()
+	{
+		return ChangeMetrics.toMillis(checksumNanos);
+	}
+
+	/**
+	 * Adds the specified time to the time taken to evaluate the checksums.
+	 *
+	 * @param nanos time taken in nanos
+	 */
+	public synchronized void addChecksumNanos(long nanos)
+	{
+		this.checksumNanos += nanos;
+	}
+
+	/**
+	 * Gets the number of external file loads served from cache.
+	 *
+	 * @return the number of external file loads served from cache
+	 */
+	public long getExternalFileCacheHits()
+	{
+		return externalFileCacheHits;
+	}
+
+	/**
+	 * Gets the number of external file loads which needed file reading.
+	 *
+	 * @return the number of external file loads which needed file reading
+	 */
+	public long getExternalFileCacheMisses()
+	{
+		return externalFileCacheMisses;
+	}
+
+	/**
+	 * Sets the external file cache usage counts.
+	 *
+	 * @param hits number of loads served from cache
+	 * @param misses number of loads which needed file reading
+	 */
+	public void setExternalFileCacheUsage(long hits, long misses)
+	{
+		this.externalFileCacheHits = hits;
+		this.externalFileCacheMisses = misses;
+	}
+
+	/**
+	 * Adds the tracker of specified target database, in multi-target execution.
+	 * 
+	 * @param target name of the target database
+	 * @param tracker tracker of the target
+	 */
+	public synchronized void addTargetTracker(String target, ChangeTracker tracker)
+	{
+		this.targetTrackers.put(target, tracker);
+	}
+	
+	/**
+	 * Gets the trackers of individual target databases, in multi-target execution.
+	 *
+	 * @return the trackers of target databases
+	 */
+	public Map<String, ChangeTracker> getTargetTrackers()
+	{
+		return targetTrackers;
+	}
+	
+	/**
+	 * Aggregates the counts of target trackers into this tracker. In case of errors, first failed
+	 * target error details will be used.
+	 */
+	public synchronized void aggregateTargetTrackers()
+	{
+		for(Map.Entry<String, ChangeTracker> entry : targetTrackers.entrySet())
+		{
+			ChangeTracker tracker = entry.getValue();
+			
+			this.totalCount += tracker.totalCount;
+			this.skipCount += tracker.skipCount;
+			this.executedCount += tracker.executedCount;
+			
+			if(tracker.errorMessage != null && this.errorMessage == null)
+			{
+				this.erroredChangesetId = tracker.erroredChangesetId;
+				this.errorMessage = "[Target: " + entry.getKey() + "] " + tracker.errorMessage;
+			}
+		}
 	}
 }
@@ -15,15 +15,31 @@
  */
 package com.yukthitech.papilio;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.yukthitech.papilio.common.Md5Evaluator;
+import com.yukthitech.papilio.common.ChecksumEvaluator;
 import com.yukthitech.papilio.common.PapilioArguments;
 import com.yukthitech.papilio.data.ChangeSet;
 import com.yukthitech.papilio.data.ColumnValue;
@@ -33,13 +49,43 @@ import com.yukthitech.papilio.data.DatabaseChangeLog;
 import com.yukthitech.papilio.data.DeleteChange;
 import com.yukthitech.papilio.data.FindAndUpdateChange;
 import com.yukthitech.papilio.data.IChange;
+import com.yukthitech.papilio.data.IIncludeResolver;
 import com.yukthitech.papilio.data.InsertChange;
 import com.yukthitech.papilio.data.QueryChange;
 import com.yukthitech.papilio.data.ScriptChange;
+import com.yukthitech.papilio.data.StreamingChangeLogReader;
 import com.yukthitech.papilio.data.UpdateChange;
+import com.yukthitech.utils.exceptions.InvalidArgumentException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
 
 public class DbChangeLogExecutor
 {
+	/**
+	 * Status of changeset, after checksum verification.
+	 */
+	private static enum ChangeSetStatus
+	{
+		/**
+		 * Changeset needs to be executed.
+		 */
+		PENDING,
+		
+		/**
+		 * Changeset is already executed.
+		 */
+		SKIPPED,
+		
+		/**
+		 * Changeset is already executed, but with different checksum which got updated.
+		 */
+		CHECKSUM_UPDATED,
+		
+		/**
+		 * Changeset is modified after last execution.
+		 */
+		ERRORED
+	}
+	
 	private static Logger logger = LogManager.getLogger(DbChangeLogExecutor.class);
 	
 	/**
@@ -58,6 +104,48 @@ public class DbChangeLogExecutor
 	private static final String FLD_CHANGE_SET_ID = "CHANGE_SET_ID";
 	
 	private static final String FLD_CHECKSUM = "CHECKSUM";
+	
+	/**
+	 * Checksum column of DBLOG_COLLECTION, used when sha-256 algorithm is used.
+	 */
+	private static final String FLD_CHECKSUM_SHA256 = "CHECKSUM_SHA256";
+	
+	/**
+	 * Prefix used in current-changeset map for entries which have only md5 checksum, when
+	 * sha-256 algorithm is used.
+	 */
+	private static final String LEGACY_CHECKSUM_PREFIX = "MD5:";
+	
+	/**
+	 * Expiry time column of DBLOG_LOCK_COLLECTION.
+	 */
+	private static final String FLD_LOCK_EXPIRES_AT = "EXPIRES_AT";
+	
+	/**
+	 * Collection to maintain progress of partially executed changesets.
+	 */
+	private static final String DBLOG_PROGRESS_COLLECTION = "DATABASE_CHANGE_LOG_PROGRESS";
+	
+	/**
+	 * Collection to maintain digests of fully applied changelog files.
+	 */
+	private static final String DBLOG_FILES_COLLECTION = "DATABASE_CHANGE_LOG_FILES";
+	
+	/**
+	 * Name of the global lock used to avoid concurrent executions. When lock scope is specified,
+	 * this is used as prefix of lock name.
+	 */
+	private static final String LOCK_NAME = "LOCK";
+	
+	/**
+	 * Lock scope value, which indicates the scope has to be derived from root changelog file name.
+	 */
+	private static final String AUTO_LOCK_SCOPE = "auto";
+	
+	/**
+	 * Prefix used for collection level locks.
+	 */
+	private static final String COLLECTION_LOCK_PREFIX = "COLLECTION:";
 
 	private DatabaseChangeLog databaseChangeLog;
 	
@@ -68,6 +156,41 @@ public class DbChangeLogExecutor
 	private Map<Class<?>, Consumer<Object>> changeTypeToExecutors = new HashMap<>();
 	
 	private ChangeTracker changeTracker;
+	
+	/**
+	 * Buffer used to write db-log entries in bulk.
+	 */
+	private ChangeLogRecorder changeLogRecorder;
+	
+	/**
+	 * Tracker of per-change progress of changesets.
+	 */
+	private ChangeProgressTracker progressTracker;
+	
+	/**
+	 * Tracker of digests of fully applied changelog files.
+	 */
+	private ChangeLogFileTracker fileTracker;
+	
+	/**
+	 * Loader used to load the changelog after init, when changelog is not provided.
+	 */
+	private Function<IIncludeResolver, DatabaseChangeLog> changeLogLoader;
+	
+	/**
+	 * Manager of lease based locks.
+	 */
+	private LockManager lockManager;
+	
+	/**
+	 * Name of the lock (based on lock scope) used to avoid concurrent executions.
+	 */
+	private String lockName;
+	
+	/**
+	 * Algorithm used for changeset checksums.
+	 */
+	private String checksumAlgorithm;
 
 	public DbChangeLogExecutor(DatabaseChangeLog databaseChangeLog, IDbSchemaVersioner dbSchemaVersioner, PapilioArguments args, ChangeTracker changeTracker)
 	{
@@ -75,6 +198,10 @@ public class DbChangeLogExecutor
 		this.dbSchemaVersioner = dbSchemaVersioner;
 		this.args = args;
 		this.changeTracker = changeTracker;
+		this.changeLogRecorder = new ChangeLogRecorder(dbSchemaVersioner, args.getLogBatchSize());
+		this.progressTracker = new ChangeProgressTracker(dbSchemaVersioner, DBLOG_PROGRESS_COLLECTION);
+		this.checksumAlgorithm = getChecksumAlgorithm(args);
+		this.fileTracker = new ChangeLogFileTracker(dbSchemaVersioner, DBLOG_FILES_COLLECTION, new File(args.getChangeLogFile()), checksumAlgorithm);
 		
 		addExecutor(CreateIndexChange.class, dbSchemaVersioner::createIndex);
 		addExecutor(CreateTableChange.class, dbSchemaVersioner::createTable);
@@ -86,6 +213,21 @@ public class DbChangeLogExecutor
 		addExecutor(FindAndUpdateChange.class, dbSchemaVersioner::findAndUpdate);
 	}
 	
+	/**
+	 * Instantiates a new executor, which loads the changelog using specified loader after connecting to db. Included
+	 * files which are already applied (as per their digests) are not parsed.
+	 *
+	 * @param changeLogLoader loader to load changelog using specified include resolver
+	 * @param dbSchemaVersioner versioner to use
+	 * @param args arguments to use
+	 * @param changeTracker tracker to track changes
+	 */
+	public DbChangeLogExecutor(Function<IIncludeResolver, DatabaseChangeLog> changeLogLoader, IDbSchemaVersioner dbSchemaVersioner, PapilioArguments args, ChangeTracker changeTracker)
+	{
+		this((DatabaseChangeLog) null, dbSchemaVersioner, args, changeTracker);
+		this.changeLogLoader = changeLogLoader;
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private <T extends IChange> void addExecutor(Class<T> changeType, Consumer<T> executor)
 	{
@@ -94,34 +236,563 @@ public class DbChangeLogExecutor
 	
 	public boolean execute()
 	{
-		logger.debug("Initalizing db versioner..");
-		init();
+		try
+		{
+			logger.debug("Initalizing db versioner..");
+			init();
+			
+			//in streaming mode, changesets are read lazily during execution
+			if(databaseChangeLog == null && args.isStreamingParse())
+			{
+				return executeStreaming();
+			}
+			
+			Map<String, String> curChangesetMap = null;
+			
+			if(databaseChangeLog == null)
+			{
+				curChangesetMap = fetchCurrentChangeSets();
+				databaseChangeLog = changeLogLoader.apply(fileTracker.newIncludeResolver(curChangesetMap));
+				
+				changeTracker.setTotalCount(databaseChangeLog.getChangeSets().size());
+			}
+			
+			return executeChangeSets(curChangesetMap);
+		}finally
+		{
+			dbSchemaVersioner.close();
+		}
+	}
+	
+	/**
+	 * Executes the pending changesets of the changelog.
+	 * @param executedChangeSets already executed changesets, if fetched already
+	 * @return true if execution is successful
+	 */
+	private boolean executeChangeSets(Map<String, String> executedChangeSets)
+	{
+		List<ChangeSet> loadedChangeSets = databaseChangeLog.getChangeSets(); 
+		
+		//checksums are evaluated on fork-join pool, while executed changesets are being fetched
+		CompletableFuture<Void> checksumsFuture = CompletableFuture.runAsync(() -> evaluateChecksums(loadedChangeSets));
+		Map<String, String> curChangesetMap = (executedChangeSets != null) ? executedChangeSets : fetchCurrentChangeSets();
+		
+		awaitChecksums(checksumsFuture);
+		
+		List<ChangeSet> changeSetLst = loadPendingChangeSets(curChangesetMap);
 		
-		Map<String, String> curChangesetMap = dbSchemaVersioner.fetchCurrentChangeSet(DBLOG_COLLECTION, FLD_CHANGE_SET_ID, FLD_CHECKSUM);
-		List<ChangeSet> changeSetLst = databaseChangeLog.getChangeSets(); 
+		//when there is nothing to execute, avoid taking the lock
+		if(!hasPendingWork(changeSetLst, curChangesetMap))
+		{
+			logger.info("All {} changesets are already executed. Skipping the execution without obtaining lock.", changeSetLst.size());
+			
+			for(ChangeSet changeSet : changeSetLst)
+			{
+				changeTracker.skippingChangeset(changeSet.getId());
+			}
+			
+			return true;
+		}
 
+		return executeWithLock(lockedChangesetMap -> 
+		{
+			boolean success = (args.getParallelThreads() > 1) ? 
+					executeParallel(changeSetLst, lockedChangesetMap) : executeSequential(changeSetLst, lockedChangesetMap);
+			
+			//digests of fully applied files are recorded under lock, so that they are not parsed in next runs
+			if(success)
+			{
+				changeLogRecorder.flush();
+				fileTracker.recordFiles(databaseChangeLog);
+			}
+			
+			return success;
+		});
+	}
+	
+	/**
+	 * Obtains the lock and invokes specified execution with executed changesets fetched under lock. Tables
+	 * needed for execution are created under the lock. Before releasing the lock, buffered db-log entries are written.
+	 * @param execution execution to invoke
+	 * @return result of execution, false if lock could not be obtained
+	 */
+	private boolean executeWithLock(Function<Map<String, String>, Boolean> execution)
+	{
 		if(!lock())
 		{
 			changeTracker.erroredChangeset(null, ChangeTracker.LOCK_FAILED);
 			return false;
 		}
 		
+		Throwable failure = null;
+		
 		try
 		{
-			for(ChangeSet changeSet : changeSetLst)
+			initExecutionTables();
+			
+			//refetch the changesets, as other instance might have executed them before this instance got the lock
+			return execution.apply(fetchCurrentChangeSets());
+		}catch(RuntimeException | Error ex)
+		{
+			failure = ex;
+			throw ex;
+		}finally
+		{
+			try
+			{
+				//flush db-log entries, even on failure, before releasing the lock
+				changeLogRecorder.flush();
+				
+				//progress markers are removed only after db-log entries are written
+				progressTracker.clearRecorded();
+			}catch(RuntimeException ex)
 			{
-				if(!executeChangeSet(changeSet, curChangesetMap))
+				//flush failure should not mask the execution failure
+				if(failure == null)
 				{
-					return false;
+					throw ex;
 				}
+				
+				failure.addSuppressed(ex);
+			}finally
+			{
+				unlock();
 			}
+		}
+	}
+	
+	/**
+	 * Executes specified changesets one after the other, grouping consecutive transactional changesets.
+	 * @param changeSets changesets to execute
+	 * @param curChangesetMap already executed changesets
+	 * @return true if execution is successful
+	 */
+	private boolean executeSequential(Iterable<ChangeSet> changeSets, Map<String, String> curChangesetMap)
+	{
+		List<ChangeSet> transactionBatch = new ArrayList<>();
+		
+		for(ChangeSet changeSet : changeSets)
+		{
+			//consecutive transactional changesets are grouped and committed together
+			if(isTransactional(changeSet))
+			{
+				transactionBatch.add(changeSet);
+				
+				if(transactionBatch.size() < args.getTransactionBatchSize())
+				{
+					continue;
+				}
+			}
+			
+			if(!executeTransactionBatch(transactionBatch, curChangesetMap))
+			{
+				return false;
+			}
+			
+			if(!isTransactional(changeSet) && !executeChangeSet(changeSet, curChangesetMap))
+			{
+				return false;
+			}
+		}
+		
+		return executeTransactionBatch(transactionBatch, curChangesetMap);
+	}
+	
+	/**
+	 * Executes the changelog by reading the changesets lazily, so that only the current changeset (and transaction
+	 * batch) is held in memory. When changes are pending, changelog is read twice: once without lock to check for
+	 * pending work and then under lock to execute.
+	 * @return true if execution is successful
+	 */
+	private boolean executeStreaming()
+	{
+		File changeLogFile = new File(args.getChangeLogFile());
+		
+		if(args.getParallelThreads() > 1)
+		{
+			logger.warn("Parallel execution is not supported with streaming parse. Changesets will be executed sequentially.");
+		}
+		
+		Map<String, String> curChangesetMap = fetchCurrentChangeSets();
+		List<String> skippedIds = new ArrayList<>();
+		
+		try(StreamingChangeLogReader reader = new StreamingChangeLogReader(changeLogFile))
+		{
+			while(reader.hasNext())
+			{
+				ChangeSet changeSet = reader.next();
+				
+				if(!getChecksum(changeSet).equals(curChangesetMap.get(changeSet.getId())))
+				{
+					logger.debug("Found changeset '{}' as pending or modified", changeSet.getId());
+					skippedIds = null;
+					break;
+				}
+				
+				skippedIds.add(changeSet.getId());
+			}
+		}
+		
+		//when there is nothing to execute, avoid taking the lock
+		if(skippedIds != null)
+		{
+			logger.info("All {} changesets are already executed. Skipping the execution without obtaining lock.", skippedIds.size());
+			
+			for(String id : skippedIds)
+			{
+				changeTracker.skippingChangeset(id);
+			}
+			
+			changeTracker.setTotalCount(skippedIds.size());
+			return true;
+		}
+		
+		return executeWithLock(lockedChangesetMap -> 
+		{
+			try(StreamingChangeLogReader reader = new StreamingChangeLogReader(changeLogFile))
+			{
+				try
+				{
+					return executeSequential(() -> reader, lockedChangesetMap);
+				}finally
+				{
+					changeTracker.setTotalCount(reader.getReadCount());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Read-only check to find if any changeset is pending for execution or is modified
+	 * after its last execution.
+	 * @param changeSetLst changesets to check
+	 * @param curChangesetMap already executed changesets
+	 * @return true if changesets needs to be executed or checksums needs to be verified under lock
+	 */
+	private boolean hasPendingWork(List<ChangeSet> changeSetLst, Map<String, String> curChangesetMap)
+	{
+		for(ChangeSet changeSet : changeSetLst)
+		{
+			String oldChecksum = curChangesetMap.get(changeSet.getId());
+			
+			if(oldChecksum == null || !oldChecksum.equals(getChecksum(changeSet)))
+			{
+				logger.debug("Found changeset '{}' as pending or modified", changeSet.getId());
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Fetches the executed changesets with their checksums. When sha-256 algorithm is used, entries
+	 * having only md5 checksum are returned with {@link #LEGACY_CHECKSUM_PREFIX}, so that they
+	 * get verified and migrated under lock.
+	 * @return executed changeset ids mapped to checksums
+	 */
+	private Map<String, String> fetchCurrentChangeSets()
+	{
+		if(ChecksumEvaluator.MD5.equals(checksumAlgorithm))
+		{
+			return dbSchemaVersioner.fetchCurrentChangeSet(DBLOG_COLLECTION, FLD_CHANGE_SET_ID, FLD_CHECKSUM);
+		}
+		
+		Map<String, String> curChangesetMap = new HashMap<>();
+		
+		for(Map<String, Object> record : dbSchemaVersioner.fetchRecords(DBLOG_COLLECTION, null))
+		{
+			Object checksum = record.get(FLD_CHECKSUM_SHA256);
+			
+			curChangesetMap.put((String) record.get(FLD_CHANGE_SET_ID), 
+					checksum != null ? (String) checksum : LEGACY_CHECKSUM_PREFIX + record.get(FLD_CHECKSUM));
+		}
+		
+		return curChangesetMap;
+	}
+	
+	/**
+	 * Evaluates the checksums of specified changesets concurrently, using common fork-join pool.
+	 * @param changeSetLst changesets whose checksums needs to be evaluated
+	 */
+	private void evaluateChecksums(List<ChangeSet> changeSetLst)
+	{
+		long startTime = System.nanoTime();
+		
+		//metrics are created upfront, to retain the changeset order in report
+		for(ChangeSet changeSet : changeSetLst)
+		{
+			changeTracker.getChangeSetMetrics(changeSet.getId());
+		}
+		
+		changeSetLst.parallelStream().forEach(this::getChecksum);
+		
+		changeTracker.addChecksumNanos(System.nanoTime() - startTime);
+		logger.debug("Evaluated checksums of {} changesets in {} ms", changeSetLst.size(), changeTracker.getChecksumMillis());
+	}
+	
+	/**
+	 * When changelog is loaded from manifest, parses the changesets which are pending or modified (as per
+	 * manifest checksums) from their files and evaluates their checksums.
+	 * @param curChangesetMap already executed changesets
+	 * @return changesets to be processed
+	 */
+	private List<ChangeSet> loadPendingChangeSets(Map<String, String> curChangesetMap)
+	{
+		if(databaseChangeLog.loadPendingChangeSets(changeSet -> !changeSet.getChecksum().equals(curChangesetMap.get(changeSet.getId()))))
+		{
+			evaluateChecksums(databaseChangeLog.getChangeSets());
+		}
+		
+		return databaseChangeLog.getChangeSets();
+	}
+	
+	/**
+	 * Waits for checksum evaluation to complete.
+	 * @param checksumsFuture future of checksum evaluation
+	 */
+	private void awaitChecksums(CompletableFuture<Void> checksumsFuture)
+	{
+		try
+		{
+			checksumsFuture.join();
+		}catch(CompletionException ex)
+		{
+			throw (ex.getCause() instanceof RuntimeException) ? 
+					(RuntimeException) ex.getCause() : new InvalidStateException("An error occurred while evaluating checksums", ex.getCause());
+		}
+	}
+	
+	/**
+	 * Fetches the checksum of specified changeset, evaluating it if not evaluated already.
+	 * @param changeSet changeset whose checksum is needed
+	 * @return checksum of the changeset
+	 */
+	private String getChecksum(ChangeSet changeSet)
+	{
+		if(changeSet.getChecksum() == null)
+		{
+			long startTime = System.nanoTime();
+			evaluateChecksum(changeSet, checksumAlgorithm);
+			
+			changeTracker.getChangeSetMetrics(changeSet.getId()).setChecksumNanos(System.nanoTime() - startTime);
+		}
+		
+		return changeSet.getChecksum();
+	}
+	
+	/**
+	 * Fetches the checksum algorithm specified in arguments, after validation.
+	 * @param args arguments to use
+	 * @return checksum algorithm to be used
+	 */
+	static String getChecksumAlgorithm(PapilioArguments args)
+	{
+		String algorithm = StringUtils.isBlank(args.getChecksumAlgorithm()) ? ChecksumEvaluator.MD5 : args.getChecksumAlgorithm().trim().toUpperCase();
+		
+		if(!ChecksumEvaluator.MD5.equals(algorithm) && !ChecksumEvaluator.SHA_256.equals(algorithm))
+		{
+			throw new InvalidArgumentException("Unsupported checksum algorithm specified: {}. Supported algorithms: {}, {}", 
+					args.getChecksumAlgorithm(), ChecksumEvaluator.MD5, ChecksumEvaluator.SHA_256);
+		}
+		
+		return algorithm;
+	}
+	
+	/**
+	 * Evaluates and sets the checksum of specified changeset. For non-md5 algorithms, md5 checksum
+	 * is also evaluated (in the same pass) and set as legacy checksum.
+	 * @param changeSet changeset whose checksum needs to be evaluated
+	 * @param algorithm algorithm to use
+	 */
+	static void evaluateChecksum(ChangeSet changeSet, String algorithm)
+	{
+		changeSet.evaluateChecksum(algorithm);
+	}
+	
+	/**
+	 * Executes the pending changesets concurrently, by executing independent changesets
+	 * on worker threads. Recording of executed changesets is done in file order.
+	 * @param changeSetLst changesets to execute
+	 * @param curChangesetMap already executed changesets
+	 * @return true if all changesets are executed successfully
+	 */
+	private boolean executeParallel(List<ChangeSet> changeSetLst, Map<String, String> curChangesetMap)
+	{
+		List<ChangeSet> pendingLst = new ArrayList<>();
+		boolean checksumFailed = false;
+		
+		//verify checksums upfront and collect the changesets till first failure
+		for(ChangeSet changeSet : changeSetLst)
+		{
+			ChangeSetStatus status = checkChangeSet(changeSet, curChangesetMap);
+			
+			if(status == ChangeSetStatus.ERRORED)
+			{
+				checksumFailed = true;
+				break;
+			}
+			
+			if(status == ChangeSetStatus.PENDING)
+			{
+				pendingLst.add(changeSet);
+			}
+		}
+		
+		if(!pendingLst.isEmpty())
+		{
+			ChangeSetDependencyGraph dependencyGraph = new ChangeSetDependencyGraph(pendingLst);
+			executeGraph(dependencyGraph);
+		}
+		
+		return !checksumFailed;
+	}
+	
+	/**
+	 * Executes the changesets of specified graph on a bounded worker pool. Executed changesets
+	 * are recorded in file order, so that db-log entries and tracker counts are deterministic.
+	 * @param dependencyGraph graph to execute
+	 */
+	private void executeGraph(ChangeSetDependencyGraph dependencyGraph)
+	{
+		List<ChangeSet> changeSets = dependencyGraph.getChangeSets();
+		int count = changeSets.size();
+		int threadCount = Math.min(args.getParallelThreads(), count);
+		
+		logger.info("Executing {} changesets using {} threads", count, threadCount);
+		
+		AtomicInteger threadIndex = new AtomicInteger(0);
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount, runnable -> 
+		{
+			Thread thread = new Thread(runnable, "papilio-worker-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		CompletionService<Integer> completionService = new ExecutorCompletionService<>(executorService);
+		
+		int pendingDependencies[] = new int[count];
+		boolean completed[] = new boolean[count];
+		int running = 0;
+		int nextToRecord = 0;
+		RuntimeException failure = null;
+		
+		try
+		{
+			for(int i = 0; i < count; i++)
+			{
+				pendingDependencies[i] = dependencyGraph.getDependencyCount(i);
+				
+				if(pendingDependencies[i] == 0)
+				{
+					submitChangeSet(completionService, changeSets.get(i), i);
+					running++;
+				}
+			}
+			
+			while(running > 0)
+			{
+				Future<Integer> future = completionService.take();
+				running--;
+				
+				int index = 0;
+				
+				try
+				{
+					index = future.get();
+				}catch(ExecutionException ex)
+				{
+					if(failure == null)
+					{
+						failure = (ex.getCause() instanceof RuntimeException) ? 
+								(RuntimeException) ex.getCause() : new InvalidStateException("An error occurred while executing changeset", ex.getCause());
+					}
+					
+					continue;
+				}
+				
+				completed[index] = true;
+				
+				//once failed, wait for running changesets to complete without submitting new ones
+				if(failure == null)
+				{
+					for(int depIndex : dependencyGraph.getDependents(index))
+					{
+						pendingDependencies[depIndex]--;
+						
+						if(pendingDependencies[depIndex] == 0)
+						{
+							submitChangeSet(completionService, changeSets.get(depIndex), depIndex);
+							running++;
+						}
+					}
+				}
+				
+				while(nextToRecord < count && completed[nextToRecord])
+				{
+					recordChangeSet(changeSets.get(nextToRecord));
+					nextToRecord++;
+				}
+			}
+		}catch(InterruptedException ex)
+		{
+			throw new InvalidStateException("Thread got interrupted while waiting for changesets to complete", ex);
 		}finally
 		{
-			unlock();
-			dbSchemaVersioner.close();
+			executorService.shutdownNow();
 		}
 		
-		return true;
+		if(failure != null)
+		{
+			//record the changesets which got completed after the failed one, so that they are not re-executed
+			for(int i = nextToRecord; i < count; i++)
+			{
+				if(completed[i])
+				{
+					recordChangeSet(changeSets.get(i));
+				}
+			}
+			
+			throw failure;
+		}
+	}
+	
+	private void submitChangeSet(CompletionService<Integer> completionService, ChangeSet changeSet, int index)
+	{
+		completionService.submit(() -> 
+		{
+			//db-log entry of transactional changeset is written as part of its transaction
+			if(isTransactional(changeSet))
+			{
+				dbSchemaVersioner.executeInTransaction(() -> 
+				{
+					applyChangeSet(changeSet);
+					dbSchemaVersioner.insert(newChangeLogEntry(changeSet));
+				});
+			}
+			else
+			{
+				applyChangeSet(changeSet);
+			}
+			
+			return index;
+		});
+	}
+	
+	/**
+	 * Creates the tables and indexes which are needed only while executing changes. This is done
+	 * under lock, so that runs with nothing to execute do not perform any ddl.
+	 */
+	private void initExecutionTables()
+	{
+		//ttl index, so that locks of dead instances are removed by db. Index creation is
+		// done under lock, so that lock tables created by older versions also get this index
+		CreateIndexChange expiryIndex = new CreateIndexChange(DBLOG_LOCK_COLLECTION + "_EXPIRES_AT", DBLOG_LOCK_COLLECTION, false, FLD_LOCK_EXPIRES_AT);
+		expiryIndex.addLongOption("expireAfterSeconds", 0);
+		dbSchemaVersioner.createIndex(expiryIndex);
+		
+		progressTracker.init();
+		fileTracker.init();
 	}
 	
 	private void init()
@@ -145,40 +816,171 @@ public class DbChangeLogExecutor
 			dbSchemaVersioner.createTable(new CreateTableChange(DBLOG_LOCK_COLLECTION));
 			dbSchemaVersioner.createIndex(new CreateIndexChange(DBLOG_LOCK_COLLECTION + "_NAME", DBLOG_LOCK_COLLECTION, true, "NAME"));
 		}
+		
+		lockManager = new LockManager(dbSchemaVersioner, DBLOG_LOCK_COLLECTION, args.getLockLeaseSeconds(), args.getLockHeartbeatSeconds());
+		lockName = getLockName();
 	}
 	
-	private boolean lock()
+	/**
+	 * Fetches the lock name to be used based on lock scope. When scope is not specified
+	 * global lock name is used.
+	 * @return lock name to use
+	 */
+	private String getLockName()
 	{
-		InsertChange insert = new InsertChange(DBLOG_LOCK_COLLECTION, "NAME", "LOCK");
+		String scope = args.getLockScope();
 		
-		try
+		if(StringUtils.isBlank(scope))
 		{
-			dbSchemaVersioner.insert(insert);
-			logger.info("Obtained db lock successfully..");
-		}catch(Exception ex)
+			return LOCK_NAME;
+		}
+		
+		if(AUTO_LOCK_SCOPE.equalsIgnoreCase(scope.trim()))
 		{
-			logger.error("Failed to obtained lock on the db. Please clean the entries from {} manually in case abrupt close last time.", DBLOG_LOCK_COLLECTION, ex);
+			scope = FilenameUtils.getBaseName(args.getChangeLogFile());
+		}
+		
+		return LOCK_NAME + ":" + scope.trim();
+	}
+	
+	private boolean lock()
+	{
+		if(!lockManager.lock(lockName, TimeUnit.SECONDS.toMillis(args.getLockWaitSeconds())))
+		{
+			logger.error("Failed to obtain lock '{}' on the db, as it is held by other instance. "
+					+ "Lock held by dead instance will be released after its lease expiry.", lockName);
 			return false;
 		}
 		
+		logger.info("Obtained db lock '{}' successfully..", lockName);
 		return true;
 	}
 	
 	private void unlock()
 	{
-		dbSchemaVersioner.delete(new DeleteChange(DBLOG_LOCK_COLLECTION, "NAME", "LOCK"));
-		logger.info("Released the db lock successfully.");
+		try
+		{
+			lockManager.unlock(lockName);
+			logger.info("Released the db lock '{}' successfully.", lockName);
+		}finally
+		{
+			lockManager.close();
+		}
+	}
+	
+	private boolean isTransactional(ChangeSet changeSet)
+	{
+		return Boolean.TRUE.equals(changeSet.getTransactional());
+	}
+	
+	/**
+	 * Executes pending changesets of specified batch, along with their db-log entries, in single
+	 * transaction. The batch will be cleared after execution.
+	 * @param transactionBatch transactional changesets to execute
+	 * @param curChangesetMap already executed changesets
+	 * @return true if changesets are executed successfully
+	 */
+	private boolean executeTransactionBatch(List<ChangeSet> transactionBatch, Map<String, String> curChangesetMap)
+	{
+		List<ChangeSet> pendingLst = new ArrayList<>();
+		boolean checksumFailed = false;
+		
+		//collect the pending changesets till first checksum failure
+		for(ChangeSet changeSet : transactionBatch)
+		{
+			ChangeSetStatus status = checkChangeSet(changeSet, curChangesetMap);
+			
+			if(status == ChangeSetStatus.ERRORED)
+			{
+				checksumFailed = true;
+				break;
+			}
+			
+			if(status == ChangeSetStatus.PENDING)
+			{
+				pendingLst.add(changeSet);
+			}
+		}
+		
+		transactionBatch.clear();
+		
+		if(pendingLst.isEmpty())
+		{
+			return !checksumFailed;
+		}
+		
+		//write buffered entries, so that they do not become part of the transaction
+		changeLogRecorder.flush();
+		
+		logger.debug("Executing {} changeset(s) in single transaction", pendingLst.size());
+		
+		dbSchemaVersioner.executeInTransaction(() -> 
+		{
+			for(ChangeSet changeSet : pendingLst)
+			{
+				applyChangeSet(changeSet);
+				dbSchemaVersioner.insert(newChangeLogEntry(changeSet));
+			}
+		});
+		
+		for(ChangeSet changeSet : pendingLst)
+		{
+			changeTracker.executedChangeset(changeSet.getId());
+		}
+		
+		return !checksumFailed;
 	}
 	
 	private boolean executeChangeSet(ChangeSet changeSet, Map<String, String> curChangesetMap)
+	{
+		ChangeSetStatus status = checkChangeSet(changeSet, curChangesetMap);
+		
+		if(status != ChangeSetStatus.PENDING)
+		{
+			return (status != ChangeSetStatus.ERRORED);
+		}
+		
+		applyChangeSet(changeSet);
+		recordChangeSet(changeSet);
+		return true;
+	}
+	
+	/**
+	 * Evaluates checksum of specified changeset and checks whether it needs to be executed.
+	 * @param changeSet changeset to check
+	 * @param curChangesetMap already executed changesets
+	 * @return status of the changeset
+	 */
+	private ChangeSetStatus checkChangeSet(ChangeSet changeSet, Map<String, String> curChangesetMap)
 	{
 		boolean updateChecksum = "true".equalsIgnoreCase(System.getProperty("papilio.updateChecksum"));
 		
-		String newChecksum = Md5Evaluator.evaluateChecksum(changeSet);
-		changeSet.setChecksum(newChecksum);
+		String newChecksum = getChecksum(changeSet);
 		
 		String oldChecksum = curChangesetMap.get(changeSet.getId());
 		
+		//entries having only md5 checksum are verified with md5 and migrated to current algorithm
+		if(oldChecksum != null && oldChecksum.startsWith(LEGACY_CHECKSUM_PREFIX))
+		{
+			oldChecksum = oldChecksum.substring(LEGACY_CHECKSUM_PREFIX.length());
+			
+			if(oldChecksum.equals(changeSet.getLegacyChecksum()) || isContentChecksum(changeSet, oldChecksum, ChecksumEvaluator.MD5))
+			{
+				logger.debug("Migrating checksum of changeset '{}' to {}", changeSet.getId(), checksumAlgorithm);
+				changeLogRecorder.update(newChecksumUpdate(changeSet));
+				
+				oldChecksum = newChecksum;
+			}
+		}
+		//entries recorded when external files were loaded during parsing, are verified with content and migrated
+		else if(oldChecksum != null && !oldChecksum.equals(newChecksum) && isContentChecksum(changeSet, oldChecksum, checksumAlgorithm))
+		{
+			logger.debug("Migrating checksum of changeset '{}' to file digest based checksum", changeSet.getId());
+			changeLogRecorder.update(newChecksumUpdate(changeSet));
+			
+			oldChecksum = newChecksum;
+		}
+		
 		if(oldChecksum != null)
 		{
 			if(!oldChecksum.equals(newChecksum))
@@ -192,55 +994,243 @@ public class DbChangeLogExecutor
 					logger.debug(errMssg);
 					logger.debug("Updating checksum for id: {}", changeSet.getId());
 					
-					UpdateChange updateChange = new UpdateChange();
-					updateChange.setTableName(DBLOG_COLLECTION);
-					updateChange.addCondition(new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId()));
-					updateChange.addColumnValue(new ColumnValue(FLD_CHECKSUM, changeSet.getChecksum()));
-		
-					dbSchemaVersioner.update(updateChange);
-					return true;
+					changeLogRecorder.update(newChecksumUpdate(changeSet));
+					changeTracker.getChangeSetMetrics(changeSet.getId()).setStatus(ChangeSetMetrics.Status.CHECKSUM_UPDATED);
+					return ChangeSetStatus.CHECKSUM_UPDATED;
 				}
 
 				logger.error(errMssg);
 				changeTracker.erroredChangeset(changeSet.getId(), errMssg);
-				return false;
+				return ChangeSetStatus.ERRORED;
 			}
 			
 			logger.trace("Skipping changeset as it was already executed: {}", changeSet.getId());
 			changeTracker.skippingChangeset(changeSet.getId());
-			return true;
+			return ChangeSetStatus.SKIPPED;
 		}
 		
-		logger.info("*****  Executing changeset: {}  *****", changeSet.getId());
-		List<IChange> changes = changeSet.getChanges();
+		return ChangeSetStatus.PENDING;
+	}
+	
+	/**
+	 * Checks if specified checksum matches with content based checksum of specified changeset, which
+	 * was used before external files were loaded lazily.
+	 * @param changeSet changeset to check
+	 * @param checksum checksum to compare
+	 * @param algorithm algorithm of the checksum
+	 * @return true if checksum matches
+	 */
+	private boolean isContentChecksum(ChangeSet changeSet, String checksum, String algorithm)
+	{
+		return checksum.equals(changeSet.evaluateContentChecksum(algorithm));
+	}
+	
+	/**
+	 * Executes the changes of specified changeset.
+	 * @param changeSet changeset to execute
+	 */
+	private void applyChangeSet(ChangeSet changeSet)
+	{
+		//ensure lock is still held, before executing the changeset
+		lockManager.checkLease();
+		
+		List<String> collectionLocks = lockCollections(changeSet);
 		
-		for(IChange change : changes)
+		try
 		{
-			Consumer<Object> executor = changeTypeToExecutors.get(change.getClass());
+			logger.info("*****  Executing changeset: {}  *****", changeSet.getId());
+			List<IChange> changes = changeSet.getChanges();
 			
-			try
+			ChangeSetMetrics changeSetMetrics = changeTracker.getChangeSetMetrics(changeSet.getId());
+			long changeSetStartTime = System.nanoTime();
+			
+			//on transaction retry, metrics of the earlier attempt should not be retained
+			changeSetMetrics.resetExecution();
+			
+			boolean trackProgress = progressTracker.isTrackingNeeded(changeSet);
+			Map<Integer, String> completedChanges = trackProgress ? progressTracker.fetchCompletedChanges(changeSet) : null;
+			
+			for(int i = 0; i < changes.size(); i++)
 			{
-				executor.accept(change);
-			}catch(RuntimeException ex)
+				IChange change = changes.get(i);
+				String changeChecksum = trackProgress ? progressTracker.getChangeChecksum(change) : null;
+				
+				if(trackProgress && changeChecksum.equals(completedChanges.get(i)))
+				{
+					logger.info("Skipping change #{} of changeset '{}' as it was completed by earlier execution", i, changeSet.getId());
+					continue;
+				}
+				
+				Consumer<Object> executor = changeTypeToExecutors.get(change.getClass());
+				
+				ChangeMetrics changeMetrics = new ChangeMetrics(i, change.getClass().getSimpleName());
+				ChangeMetrics.setCurrent(changeMetrics);
+				long startTime = System.nanoTime();
+				
+				try
+				{
+					if(trackProgress && ChangeProgressTracker.isResumable(change))
+					{
+						FindAndUpdateCheckpoint checkpoint = progressTracker.fetchCheckpoint(changeSet, i, changeChecksum);
+						dbSchemaVersioner.findAndUpdate((FindAndUpdateChange) change, checkpoint);
+					}
+					else
+					{
+						executor.accept(change);
+					}
+				}catch(RuntimeException ex)
+				{
+					logger.error("An error occurred while executing changeset '{}'. Error: {}", changeSet.getId(), "" + ex);
+					changeSetMetrics.setStatus(ChangeSetMetrics.Status.ERRORED);
+					throw ex;
+				}finally
+				{
+					changeMetrics.setDurationNanos(System.nanoTime() - startTime);
+					ChangeMetrics.setCurrent(null);
+					
+					changeSetMetrics.addChange(changeMetrics);
+					changeSetMetrics.setDurationNanos(System.nanoTime() - changeSetStartTime);
+				}
+				
+				if(trackProgress)
+				{
+					progressTracker.markCompleted(changeSet, i, changeChecksum);
+				}
+			}
+			
+			logger.info("#####  End of changeset: {}  #####", changeSet.getId());
+		}finally
+		{
+			unlockCollections(collectionLocks);
+		}
+	}
+	
+	/**
+	 * Obtains locks on the collections touched by specified changeset, when collection locks are enabled.
+	 * Locks are obtained in sorted order of collection names, to avoid deadlocks between instances.
+	 * @param changeSet changeset whose collections needs to be locked
+	 * @return names of the obtained locks
+	 */
+	private List<String> lockCollections(ChangeSet changeSet)
+	{
+		List<String> obtainedLocks = new ArrayList<>();
+		
+		if(!args.isCollectionLocks())
+		{
+			return obtainedLocks;
+		}
+		
+		Set<String> tables = ChangeSetDependencyGraph.getAffectedTables(changeSet);
+		
+		//when collections cannot be determined, changeset is protected only by scoped lock
+		if(tables == null)
+		{
+			logger.debug("As affected collections cannot be determined, collection locks are not obtained for changeset: {}", changeSet.getId());
+			return obtainedLocks;
+		}
+		
+		long maxWaitMillis = TimeUnit.SECONDS.toMillis(args.getLockWaitSeconds());
+		
+		for(String table : tables)
+		{
+			String name = COLLECTION_LOCK_PREFIX + table;
+			
+			if(!lockManager.lock(name, maxWaitMillis))
 			{
-				logger.error("An error occurred while executing changeset '{}'. Error: {}", changeSet.getId(), "" + ex);
-				throw ex;
+				unlockCollections(obtainedLocks);
+				throw new InvalidStateException("Failed to obtain lock on collection '{}' for changeset '{}', as it is held by other instance", 
+						table, changeSet.getId());
 			}
+			
+			obtainedLocks.add(name);
+		}
+		
+		return obtainedLocks;
+	}
+	
+	private void unlockCollections(List<String> collectionLocks)
+	{
+		for(String name : collectionLocks)
+		{
+			lockManager.unlock(name);
+		}
+	}
+	
+	/**
+	 * Records specified executed changeset in db-log and tracker. For transactional changesets, db-log
+	 * entry is expected to be written as part of the transaction, hence only tracker is updated.
+	 * @param changeSet changeset to record
+	 */
+	private void recordChangeSet(ChangeSet changeSet)
+	{
+		if(!isTransactional(changeSet))
+		{
+			changeLogRecorder.insert(newChangeLogEntry(changeSet));
 		}
 		
-		logger.info("#####  End of changeset: {}  #####", changeSet.getId());
+		progressTracker.recorded(changeSet);
 		
+		changeTracker.executedChangeset(changeSet.getId());
+	}
+	
+	/**
+	 * Creates db-log entry for specified changeset.
+	 * @param changeSet changeset for which entry needs to be created
+	 * @return db-log insert change
+	 */
+	private InsertChange newChangeLogEntry(ChangeSet changeSet)
+	{
 		InsertChange insertChange = new InsertChange();
 		insertChange.setTableName(DBLOG_COLLECTION);
 		insertChange.addColumnValue(new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId()))
 			.addColumnValue(new ColumnValue("AUTHOR", changeSet.getAuthor()))
-			.addColumnValue(new ColumnValue(FLD_CHECKSUM, changeSet.getChecksum()))
 			.addColumnValue(new ColumnValue("FILE_NAME", changeSet.getFileName()));
 		
-		dbSchemaVersioner.insert(insertChange);
+		for(ColumnValue checksumValue : getChecksumValues(changeSet))
+		{
+			insertChange.addColumnValue(checksumValue);
+		}
 		
-		changeTracker.executedChangeset(changeSet.getId());
+		return insertChange;
+	}
+	
+	/**
+	 * Creates db-log update, to update the checksum of specified changeset.
+	 * @param changeSet changeset whose checksum needs to be updated
+	 * @return db-log update change
+	 */
+	private UpdateChange newChecksumUpdate(ChangeSet changeSet)
+	{
+		UpdateChange updateChange = new UpdateChange();
+		updateChange.setTableName(DBLOG_COLLECTION);
+		updateChange.addCondition(new ColumnValue(FLD_CHANGE_SET_ID, changeSet.getId()));
 		
-		return true;
+		for(ColumnValue checksumValue : getChecksumValues(changeSet))
+		{
+			updateChange.addColumnValue(checksumValue);
+		}
+		
+		return updateChange;
+	}
+	
+	/**
+	 * Fetches the checksum column values of specified changeset for db-log. When non-md5 algorithm
+	 * is used, md5 checksum is also maintained, so that entries can still be verified by older versions.
+	 * @param changeSet changeset whose checksum values are needed
+	 * @return checksum column values
+	 */
+	private List<ColumnValue> getChecksumValues(ChangeSet changeSet)
+	{
+		List<ColumnValue> values = new ArrayList<>();
+		
+		if(changeSet.getLegacyChecksum() == null)
+		{
+			values.add(new ColumnValue(FLD_CHECKSUM, changeSet.getChecksum()));
+			return values;
+		}
+		
+		values.add(new ColumnValue(FLD_CHECKSUM, changeSet.getLegacyChecksum()));
+		values.add(new ColumnValue(FLD_CHECKSUM_SHA256, changeSet.getChecksum()));
+		return values;
 	}
 }
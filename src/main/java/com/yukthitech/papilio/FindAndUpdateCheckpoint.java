@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+/**
+ * Checkpoint of a resumable find-and-update change, holding the _id of the last processed document
+ * and number of documents processed so far. Checkpoints are persisted in progress table, so that
+ * a restarted execution can resume after the last processed document.
+ *
+ * @author akiran
+ */
+public class FindAndUpdateCheckpoint
+{
+	/**
+	 * Tracker used to persist the checkpoint.
+	 */
+	private ChangeProgressTracker progressTracker;
+
+	/**
+	 * Id of the changeset of the change.
+	 */
+	private String changeSetId;
+
+	/**
+	 * Checksum of the changeset of the change.
+	 */
+	private String checksum;
+
+	/**
+	 * Index of the change within changeset.
+	 */
+	private int changeIndex;
+
+	/**
+	 * Checksum of the change.
+	 */
+	private String changeChecksum;
+
+	/**
+	 * _id of the last processed document, null if no document is processed yet.
+	 */
+	private Object lastId;
+
+	/**
+	 * Number of documents processed till last processed document.
+	 */
+	private long processedCount;
+
+	/**
+	 * Flag indicating if checkpoint is already persisted.
+	 */
+	private boolean persisted;
+
+	FindAndUpdateCheckpoint(ChangeProgressTracker progressTracker, String changeSetId, String checksum, int changeIndex, String changeChecksum)
+	{
+		this.progressTracker = progressTracker;
+		this.changeSetId = changeSetId;
+		this.checksum = checksum;
+		this.changeIndex = changeIndex;
+		this.changeChecksum = changeChecksum;
+	}
+
+	void setPersistedState(Object lastId, long processedCount)
+	{
+		this.lastId = lastId;
+		this.processedCount = processedCount;
+		this.persisted = true;
+	}
+
+	/**
+	 * Gets the _id of the last processed document.
+	 *
+	 * @return the _id of the last processed document, null if none
+	 */
+	public Object getLastId()
+	{
+		return lastId;
+	}
+
+	/**
+	 * Gets the number of documents processed till last processed document.
+	 *
+	 * @return the number of documents processed
+	 */
+	public long getProcessedCount()
+	{
+		return processedCount;
+	}
+
+	/**
+	 * Persists the checkpoint. Should be called only after the updates of all the documents
+	 * till specified document are applied.
+	 * @param lastId _id of the last processed document
+	 * @param processedCount number of documents processed till last processed document
+	 */
+	public void save(Object lastId, long processedCount)
+	{
+		this.lastId = lastId;
+		this.processedCount = processedCount;
+
+		//checkpoint writes should not be accounted in metrics of the change
+		ChangeMetrics metrics = ChangeMetrics.getCurrent();
+		ChangeMetrics.setCurrent(null);
+
+		try
+		{
+			progressTracker.saveCheckpoint(this);
+			persisted = true;
+		}finally
+		{
+			ChangeMetrics.setCurrent(metrics);
+		}
+	}
+
+	String getChangeSetId()
+	{
+		return changeSetId;
+	}
+
+	String getChecksum()
+	{
+		return checksum;
+	}
+
+	int getChangeIndex()
+	{
+		return changeIndex;
+	}
+
+	String getChangeChecksum()
+	{
+		return changeChecksum;
+	}
+
+	boolean isPersisted()
+	{
+		return persisted;
+	}
+}
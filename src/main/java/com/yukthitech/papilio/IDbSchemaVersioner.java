@@ -15,9 +15,11 @@
  */
 package com.yukthitech.papilio;
 
+import java.util.List;
 import java.util.Map;
 
 import com.yukthitech.papilio.common.PapilioArguments;
+import com.yukthitech.papilio.data.ColumnValue;
 import com.yukthitech.papilio.data.CreateIndexChange;
 import com.yukthitech.papilio.data.CreateTableChange;
 import com.yukthitech.papilio.data.DeleteChange;
@@ -41,12 +43,26 @@ public interface IDbSchemaVersioner
 	 */
 	public void init(PapilioArguments args);
 	
+	/**
+	 * Fetches the names of the databases available on the connected server/cluster.
+	 * @return database names
+	 */
+	public List<String> fetchDatabaseNames();
+	
 	/**
 	 * Fetches already executed changeset details from db. changest id as key and checksum as value.
 	 * @return
 	 */
 	public Map<String, String> fetchCurrentChangeSet(String dbLogTableName, String idCol, String checkSumCol);
 	
+	/**
+	 * Fetches the records of specified table matching with specified conditions.
+	 * @param tableName table from which records needs to be fetched
+	 * @param conditions conditions to be matched
+	 * @return matching records as maps
+	 */
+	public List<Map<String, Object>> fetchRecords(String tableName, List<ColumnValue> conditions);
+	
 	/**
 	 * Checks wether specified table is present in target db.
 	 * @param tableName
@@ -73,12 +89,24 @@ public interface IDbSchemaVersioner
 	 */
 	public void insert(InsertChange change);
 	
+	/**
+	 * Inserts specified records in bulk, preserving the order of the changes.
+	 * @param changes insert changes to be executed
+	 */
+	public void insertAll(List<InsertChange> changes);
+	
 	/**
 	 * Updates record / collection with specified details.
 	 * @param change
 	 */
 	public void update(UpdateChange change);
 	
+	/**
+	 * Executes specified updates in bulk, preserving the order of the changes.
+	 * @param changes update changes to be executed
+	 */
+	public void updateAll(List<UpdateChange> changes);
+	
 	/**
 	 * Deletes record / collection based on specified details.
 	 * @param change
@@ -103,6 +131,62 @@ public interface IDbSchemaVersioner
 	 */
 	public void findAndUpdate(FindAndUpdateChange change);
 	
+	/**
+	 * Executes find and update operation, resuming from specified checkpoint. Finder results should be
+	 * processed in _id order and checkpoint should be saved periodically, after the updates of processed
+	 * documents are applied.
+	 * @param change change to execute
+	 * @param checkpoint checkpoint to resume from and to be updated
+	 */
+	public void findAndUpdate(FindAndUpdateChange change, FindAndUpdateCheckpoint checkpoint);
+	
+	/**
+	 * Executes specified action in a single transaction. Data changes (insert, update and delete) executed
+	 * by the action on current thread should become part of the transaction. Transaction should be committed
+	 * if action completes successfully, else should be rolled back and the error should be rethrown.
+	 * @param action action to be executed
+	 */
+	public void executeInTransaction(Runnable action);
+	
+	/**
+	 * Tries to obtain the lease lock with specified name. Lock should be obtained only if it is not held by anyone,
+	 * or held by same owner or if lease of the current holder is expired. This should be an atomic operation.
+	 * @param lockTable table in which locks are maintained
+	 * @param lockName name of the lock
+	 * @param ownerId unique id of the owner requesting the lock
+	 * @param host host of the owner
+	 * @param leaseMillis lease duration of lock
+	 * @return true if lock is obtained
+	 */
+	public boolean acquireLock(String lockTable, String lockName, String ownerId, String host, long leaseMillis);
+	
+	/**
+	 * Extends the lease of specified lock, if it is still held by specified owner.
+	 * @param lockTable table in which locks are maintained
+	 * @param lockName name of the lock
+	 * @param ownerId owner of the lock
+	 * @param leaseMillis lease duration from current time
+	 * @return true if lease is extended, false if lock is not held by specified owner anymore
+	 */
+	public boolean renewLock(String lockTable, String lockName, String ownerId, long leaseMillis);
+	
+	/**
+	 * Waits till the locks in specified table are modified/released or till specified time elapses. Implementations
+	 * may return early, callers are expected to retry for the lock on return.
+	 * @param lockTable table in which locks are maintained
+	 * @param lockName name of the lock being waited for
+	 * @param maxWaitMillis maximum time to wait
+	 */
+	public void awaitLockRelease(String lockTable, String lockName, long maxWaitMillis);
+	
+	/**
+	 * Releases the specified lock, if it is held by specified owner.
+	 * @param lockTable table in which locks are maintained
+	 * @param lockName name of the lock
+	 * @param ownerId owner of the lock
+	 */
+	public void releaseLock(String lockTable, String lockName, String ownerId);
+	
 	/**
 	 * Should close all the open resources.
 	 */
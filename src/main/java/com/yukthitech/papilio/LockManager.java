@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.utils.exceptions.InvalidArgumentException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Manages lease based locks. Every lock carries owner, host and expiry time. While locks are held,
+ * a background heartbeat keeps renewing them. If the process dies, the lease expires and the lock
+ * can be taken over by other instances (or gets removed by the db).
+ *
+ * @author akiran
+ */
+public class LockManager
+{
+	private static Logger logger = LogManager.getLogger(LockManager.class);
+
+	/**
+	 * Maximum time for which lock release is awaited, before retrying for the lock. This
+	 * takes care of locks getting released just before the wait starts and expired leases.
+	 */
+	private static final long MAX_AWAIT_MILLIS = 5000;
+
+	/**
+	 * Versioner to be used for lock operations.
+	 */
+	private IDbSchemaVersioner dbSchemaVersioner;
+
+	/**
+	 * Table in which locks are maintained.
+	 */
+	private String lockTable;
+
+	/**
+	 * Unique id of current owner (process).
+	 */
+	private String ownerId = UUID.randomUUID().toString();
+
+	/**
+	 * Host name of current process.
+	 */
+	private String host;
+
+	/**
+	 * Lease duration of locks in millis.
+	 */
+	private long leaseMillis;
+
+	/**
+	 * Interval at which held locks are renewed.
+	 */
+	private long heartbeatMillis;
+
+	/**
+	 * Locks currently held by this manager.
+	 */
+	private Set<String> heldLocks = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Service used to renew the held locks.
+	 */
+	private ScheduledExecutorService heartbeatService;
+
+	/**
+	 * Name of the lock whose lease got lost, if any.
+	 */
+	private volatile String lostLock;
+
+	/**
+	 * Instantiates a new lock manager.
+	 *
+	 * @param dbSchemaVersioner versioner to be used for lock operations
+	 * @param lockTable table in which locks are maintained
+	 * @param leaseSeconds lease duration of locks
+	 * @param heartbeatSeconds interval at which held locks are renewed
+	 */
+	public LockManager(IDbSchemaVersioner dbSchemaVersioner, String lockTable, int leaseSeconds, int heartbeatSeconds)
+	{
+		if(leaseSeconds <= 0 || heartbeatSeconds <= 0 || heartbeatSeconds >= leaseSeconds)
+		{
+			throw new InvalidArgumentException("Lock heartbeat interval should be positive and less than lease duration. [Lease: {}, Heartbeat: {}]",
+					leaseSeconds, heartbeatSeconds);
+		}
+
+		this.dbSchemaVersioner = dbSchemaVersioner;
+		this.lockTable = lockTable;
+		this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+		this.heartbeatMillis = TimeUnit.SECONDS.toMillis(heartbeatSeconds);
+
+		try
+		{
+			this.host = InetAddress.getLocalHost().getHostName();
+		}catch(Exception ex)
+		{
+			this.host = "unknown";
+		}
+	}
+
+	/**
+	 * Tries to obtain the lock with specified name. Lock held by other owner
+	 * can be obtained only when its lease is expired.
+	 * @param name name of lock
+	 * @return true if lock is obtained
+	 */
+	public synchronized boolean tryLock(String name)
+	{
+		if(!dbSchemaVersioner.acquireLock(lockTable, name, ownerId, host, leaseMillis))
+		{
+			return false;
+		}
+
+		heldLocks.add(name);
+		startHeartbeat();
+
+		logger.debug("Obtained lock '{}' [Owner: {}, Host: {}]", name, ownerId, host);
+		return true;
+	}
+
+	/**
+	 * Tries to obtain the lock with specified name. If lock is held by other owner, waits
+	 * for its release till specified max time.
+	 * @param name name of lock
+	 * @param maxWaitMillis maximum time to wait for the lock
+	 * @return true if lock is obtained
+	 */
+	public boolean lock(String name, long maxWaitMillis)
+	{
+		long endTime = System.currentTimeMillis() + maxWaitMillis;
+
+		while(true)
+		{
+			if(tryLock(name))
+			{
+				return true;
+			}
+
+			long remainingMillis = endTime - System.currentTimeMillis();
+
+			if(remainingMillis <= 0)
+			{
+				return false;
+			}
+
+			logger.info("Lock '{}' is held by other instance. Waiting for its release [Remaining wait time: {} ms]", name, remainingMillis);
+			dbSchemaVersioner.awaitLockRelease(lockTable, name, Math.min(remainingMillis, MAX_AWAIT_MILLIS));
+		}
+	}
+
+	/**
+	 * Releases the lock with specified name.
+	 * @param name name of lock
+	 */
+	public synchronized void unlock(String name)
+	{
+		heldLocks.remove(name);
+
+		if(heldLocks.isEmpty())
+		{
+			stopHeartbeat();
+		}
+
+		dbSchemaVersioner.releaseLock(lockTable, name, ownerId);
+		logger.debug("Released lock '{}' [Owner: {}]", name, ownerId);
+	}
+
+	/**
+	 * Ensures the leases of held locks are not lost.
+	 */
+	public void checkLease()
+	{
+		if(lostLock != null)
+		{
+			throw new InvalidStateException("Lease of lock '{}' got lost. Other instance might have taken over the lock.", lostLock);
+		}
+	}
+
+	private void startHeartbeat()
+	{
+		if(heartbeatService != null)
+		{
+			return;
+		}
+
+		heartbeatService = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "papilio-lock-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		heartbeatService.scheduleWithFixedDelay(this::renewLocks, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void stopHeartbeat()
+	{
+		if(heartbeatService == null)
+		{
+			return;
+		}
+
+		heartbeatService.shutdownNow();
+		heartbeatService = null;
+	}
+
+	private void renewLocks()
+	{
+		for(String name : heldLocks)
+		{
+			try
+			{
+				//ignore the locks which got released in parallel
+				if(!dbSchemaVersioner.renewLock(lockTable, name, ownerId, leaseMillis) && heldLocks.contains(name))
+				{
+					logger.error("Failed to renew the lease of lock '{}' as it is no longer owned by current instance", name);
+					lostLock = name;
+				}
+			}catch(Exception ex)
+			{
+				//on temporary failures, renewal will be retried on next heartbeat
+				logger.warn("An error occurred while renewing the lease of lock: {}", name, ex);
+			}
+		}
+	}
+
+	/**
+	 * Stops the heartbeat. Should be called after all locks are released.
+	 */
+	public synchronized void close()
+	{
+		stopHeartbeat();
+	}
+
+	/**
+	 * Gets the unique id of current owner (process).
+	 *
+	 * @return the unique id of current owner
+	 */
+	public String getOwnerId()
+	{
+		return ownerId;
+	}
+}
@@ -20,13 +20,20 @@ import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Properties;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.yukthitech.papilio.common.PapilioArguments;
+import com.yukthitech.papilio.common.PapilioUtils;
+import com.yukthitech.papilio.data.ChangeLogManifest;
+import com.yukthitech.papilio.data.ChangeLogSnapshotCache;
 import com.yukthitech.papilio.data.DatabaseChangeLog;
 import com.yukthitech.papilio.data.DatabaseChangeLogFactory;
+import com.yukthitech.papilio.data.ExternalFileCache;
+import com.yukthitech.papilio.data.IIncludeResolver;
 import com.yukthitech.utils.cli.CommandLineOptions;
 import com.yukthitech.utils.cli.MissingArgumentException;
 import com.yukthitech.utils.cli.OptionsFactory;
@@ -96,7 +103,12 @@ public class Main
 		return null;
 	}
 	
-	private static boolean executeChangeLog(String verClsName, String verFilePath, PapilioArguments args, ChangeTracker changeTracker)
+	/**
+	 * Creates versioner instance of specified type.
+	 * @param verClsName versioner class name
+	 * @return versioner instance
+	 */
+	private static IDbSchemaVersioner newVersioner(String verClsName)
 	{
 		IDbSchemaVersioner dbSchemaVersioner = null;
 		
@@ -110,6 +122,38 @@ public class Main
 			System.exit(-1);
 		}
 		
+		return dbSchemaVersioner;
+	}
+	
+	/**
+	 * Creates snapshot cache, if cache directory is specified.
+	 * @param args arguments to use
+	 * @return snapshot cache or null
+	 */
+	private static ChangeLogSnapshotCache newSnapshotCache(PapilioArguments args)
+	{
+		if(StringUtils.isBlank(args.getSnapshotCacheDir()))
+		{
+			return null;
+		}
+		
+		try
+		{
+			return new ChangeLogSnapshotCache(new File(args.getSnapshotCacheDir()), DbChangeLogExecutor.getChecksumAlgorithm(args), 
+					args.getSnapshotCacheMode());
+		}catch(Exception ex)
+		{
+			System.err.println("An error occurred while creating snapshot cache: " + args.getSnapshotCacheDir() + "\nError: " + ex);
+			System.exit(-1);
+		}
+		
+		return null;
+	}
+	
+	private static boolean executeChangeLog(String verClsName, String verFilePath, PapilioArguments args, ChangeTracker changeTracker)
+	{
+		IDbSchemaVersioner dbSchemaVersioner = newVersioner(verClsName);
+		
 		File changeFile = new File(verFilePath);
 		
 		if(!changeFile.exists())
@@ -119,11 +163,16 @@ public class Main
 		}
 		
 		DatabaseChangeLog databaseChangeLog = null;
+		ChangeLogSnapshotCache snapshotCache = newSnapshotCache(args);
 		
 		try
 		{
-			databaseChangeLog = DatabaseChangeLogFactory.load(changeFile);
-			changeTracker.setTotalCount(databaseChangeLog.getChangeSets().size());
+			//when manifest is specified and is up to date, changesets are loaded from manifest
+			if(StringUtils.isNotBlank(args.getManifest()))
+			{
+				databaseChangeLog = DatabaseChangeLogFactory.loadFromManifest(changeFile, new File(args.getManifest()), 
+						DbChangeLogExecutor.getChecksumAlgorithm(args));
+			}
 		}catch(Exception ex)
 		{
 			System.err.println("An error occurred while loading change file: " + changeFile);
@@ -131,12 +180,117 @@ public class Main
 			System.exit(-1);
 		}
 		
-		DbChangeLogExecutor dbChangeLogExecutor = new DbChangeLogExecutor(databaseChangeLog, dbSchemaVersioner, args, changeTracker);
+		if(StringUtils.isNotBlank(args.getGenerateManifest()))
+		{
+			generateManifest(loadChangeLog(changeFile, null, snapshotCache), args);
+			return true;
+		}
+		
+		//when multiple targets are specified, loaded changelog is executed on all targets
+		if(StringUtils.isNotBlank(args.getTargetDatabases()))
+		{
+			if(databaseChangeLog == null)
+			{
+				databaseChangeLog = loadChangeLog(changeFile, null, snapshotCache);
+			}
+			
+			MultiTargetExecutor multiTargetExecutor = new MultiTargetExecutor(databaseChangeLog, () -> newVersioner(verClsName), args, changeTracker);
+			return multiTargetExecutor.execute();
+		}
+		
+		DbChangeLogExecutor dbChangeLogExecutor = null;
+		
+		if(databaseChangeLog != null)
+		{
+			changeTracker.setTotalCount(databaseChangeLog.getChangeSets().size());
+			dbChangeLogExecutor = new DbChangeLogExecutor(databaseChangeLog, dbSchemaVersioner, args, changeTracker);
+		}
+		else
+		{
+			//changelog is loaded by executor after connecting to db, so that already applied included files are not parsed
+			dbChangeLogExecutor = new DbChangeLogExecutor(includeResolver -> loadChangeLog(changeFile, includeResolver, snapshotCache), 
+					dbSchemaVersioner, args, changeTracker);
+		}
+		
 		boolean res = dbChangeLogExecutor.execute();
 		
 		return res;
 	}
 	
+	/**
+	 * Loads the changelog from specified file.
+	 * @param changeFile file to load
+	 * @param includeResolver resolver to resolve included files without parsing, can be null
+	 * @param snapshotCache cache of parsed file snapshots, can be null
+	 * @return loaded changelog
+	 */
+	private static DatabaseChangeLog loadChangeLog(File changeFile, IIncludeResolver includeResolver, ChangeLogSnapshotCache snapshotCache)
+	{
+		try
+		{
+			DatabaseChangeLog databaseChangeLog = DatabaseChangeLogFactory.load(changeFile, includeResolver, snapshotCache);
+			
+			if(snapshotCache != null)
+			{
+				logger.info("Snapshot cache usage [Restored files: {}, Written snapshots: {}]", snapshotCache.getRestoredCount(), snapshotCache.getStoredCount());
+			}
+			
+			return databaseChangeLog;
+		}catch(Exception ex)
+		{
+			System.err.println("An error occurred while loading change file: " + changeFile);
+			ex.printStackTrace();
+			System.exit(-1);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Generates the manifest of specified changelog, into the file specified in arguments.
+	 * @param databaseChangeLog changelog for which manifest needs to be generated
+	 * @param args arguments to use
+	 */
+	private static void generateManifest(DatabaseChangeLog databaseChangeLog, PapilioArguments args)
+	{
+		String checksumAlgorithm = DbChangeLogExecutor.getChecksumAlgorithm(args);
+		
+		//checksums of changesets restored from snapshots are already evaluated
+		databaseChangeLog.getChangeSets().parallelStream()
+			.filter(changeSet -> changeSet.getChecksum() == null)
+			.forEach(changeSet -> DbChangeLogExecutor.evaluateChecksum(changeSet, checksumAlgorithm));
+		
+		File manifestFile = new File(args.getGenerateManifest());
+		ChangeLogManifest.build(databaseChangeLog, checksumAlgorithm).write(manifestFile);
+		
+		logger.info("Generated manifest of {} changesets to file: {}", databaseChangeLog.getChangeSets().size(), manifestFile.getPath());
+	}
+	
+	/**
+	 * Writes the run report in json format, if report file is specified.
+	 * @param args arguments having report file
+	 * @param changeTracker tracker to be written
+	 */
+	private static void writeReport(PapilioArguments args, ChangeTracker changeTracker)
+	{
+		if(StringUtils.isBlank(args.getReportFile()))
+		{
+			return;
+		}
+		
+		File reportFile = new File(args.getReportFile());
+		
+		try
+		{
+			FileUtils.write(reportFile, PapilioUtils.toJson(changeTracker), Charset.forName("utf8"));
+			logger.info("Written run report to file: {}", reportFile.getPath());
+		}catch(Exception ex)
+		{
+			//failure in report generation should not fail the run
+			logger.error("An error occurred while writing run report to file: {}", reportFile.getPath(), ex);
+		}
+	}
+	
 	public static ChangeTracker execute(String[] args)
 	{
 		PapilioArguments argumentBean = loadArguments(args);
@@ -165,8 +319,19 @@ public class Main
 			//ignore
 		}
 
+		long startTime = System.currentTimeMillis();
+		
+		ExternalFileCache externalFileCache = ExternalFileCache.getInstance();
+		externalFileCache.setMaxBytes(argumentBean.getExternalFileCacheMb() * 1024L * 1024L);
+		
 		boolean res = executeChangeLog(versionCls, argumentBean.getChangeLogFile(), argumentBean, changeTracker);
 		changeTracker.setExitCode(res ? 0 : -1);
+		changeTracker.setDurationMillis(System.currentTimeMillis() - startTime);
+		changeTracker.setExternalFileCacheUsage(externalFileCache.getHitCount(), externalFileCache.getMissCount());
+		
+		logger.debug("External file cache usage [Hits: {}, Misses: {}]", externalFileCache.getHitCount(), externalFileCache.getMissCount());
+		
+		writeReport(argumentBean, changeTracker);
 		return changeTracker;
 	}
 
@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.common.PapilioArguments;
+import com.yukthitech.papilio.data.ChangeSet;
+import com.yukthitech.papilio.data.DatabaseChangeLog;
+import com.yukthitech.utils.exceptions.InvalidArgumentException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Executes single (already loaded) changelog on multiple target databases, with bounded
+ * parallelism. Changelog is parsed and checksums are evaluated only once. Every target is
+ * executed with its own versioner and tracker, and the results are aggregated into the main tracker.
+ *
+ * @author akiran
+ */
+public class MultiTargetExecutor
+{
+	private static Logger logger = LogManager.getLogger(MultiTargetExecutor.class);
+
+	/**
+	 * Separator of target entries.
+	 */
+	private static final String TARGET_SEPARATOR = ";";
+
+	/**
+	 * Prefix used to specify database name pattern.
+	 */
+	private static final String REGEX_PREFIX = "regex:";
+
+	/**
+	 * Target database on which changelog needs to be executed.
+	 */
+	private static class Target
+	{
+		/**
+		 * Replicas of the cluster, null if default cluster should be used.
+		 */
+		private String replicas;
+
+		/**
+		 * Name of the database.
+		 */
+		private String database;
+
+		private Target(String replicas, String database)
+		{
+			this.replicas = replicas;
+			this.database = database;
+		}
+
+		private String getName()
+		{
+			return (replicas == null) ? database : replicas + "/" + database;
+		}
+	}
+
+	/**
+	 * Changelog to be executed.
+	 */
+	private DatabaseChangeLog databaseChangeLog;
+
+	/**
+	 * Factory to create versioner for each target.
+	 */
+	private Supplier<IDbSchemaVersioner> versionerFactory;
+
+	/**
+	 * Base arguments, which will be customized for each target.
+	 */
+	private PapilioArguments args;
+
+	/**
+	 * Tracker in which target results are aggregated.
+	 */
+	private ChangeTracker changeTracker;
+
+	/**
+	 * Instantiates a new multi target executor.
+	 *
+	 * @param databaseChangeLog changelog to be executed
+	 * @param versionerFactory factory to create versioner for each target
+	 * @param args base arguments
+	 * @param changeTracker tracker in which target results are aggregated
+	 */
+	public MultiTargetExecutor(DatabaseChangeLog databaseChangeLog, Supplier<IDbSchemaVersioner> versionerFactory, PapilioArguments args, ChangeTracker changeTracker)
+	{
+		this.databaseChangeLog = databaseChangeLog;
+		this.versionerFactory = versionerFactory;
+		this.args = args;
+		this.changeTracker = changeTracker;
+	}
+
+	/**
+	 * Executes the changelog on all the targets.
+	 * @return true if execution is successful on all targets
+	 */
+	public boolean execute()
+	{
+		List<Target> targets = resolveTargets();
+
+		if(targets.isEmpty())
+		{
+			logger.error("No target databases found for specified target-databases: {}", args.getTargetDatabases());
+			changeTracker.erroredChangeset(null, "No target databases found");
+			return false;
+		}
+
+		//checksums are evaluated once (concurrently) and shared by all targets
+		String checksumAlgorithm = DbChangeLogExecutor.getChecksumAlgorithm(args);
+		long startTime = System.nanoTime();
+		
+		databaseChangeLog.getChangeSets().parallelStream()
+			.filter(changeSet -> changeSet.getChecksum() == null)
+			.forEach(changeSet -> DbChangeLogExecutor.evaluateChecksum(changeSet, checksumAlgorithm));
+		
+		changeTracker.addChecksumNanos(System.nanoTime() - startTime);
+
+		int threadCount = Math.max(1, Math.min(args.getMaxParallelTargets(), targets.size()));
+		logger.info("Executing changelog on {} target database(s) using {} thread(s)", targets.size(), threadCount);
+
+		AtomicInteger threadIndex = new AtomicInteger();
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount, runnable ->
+		{
+			Thread thread = new Thread(runnable, "papilio-target-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Map<String, Future<Boolean>> results = new LinkedHashMap<>();
+
+		for(Target target : targets)
+		{
+			ChangeTracker targetTracker = new ChangeTracker();
+			targetTracker.setTotalCount(databaseChangeLog.getChangeSets().size());
+
+			changeTracker.addTargetTracker(target.getName(), targetTracker);
+			results.put(target.getName(), executorService.submit(() -> executeTarget(target, targetTracker)));
+		}
+
+		List<String> failedTargets = new ArrayList<>();
+
+		try
+		{
+			for(Map.Entry<String, Future<Boolean>> entry : results.entrySet())
+			{
+				if(!entry.getValue().get())
+				{
+					failedTargets.add(entry.getKey());
+				}
+			}
+		}catch(InterruptedException | ExecutionException ex)
+		{
+			throw new InvalidStateException("An error occurred while waiting for target executions", ex);
+		}finally
+		{
+			executorService.shutdownNow();
+		}
+
+		changeTracker.aggregateTargetTrackers();
+
+		if(!failedTargets.isEmpty())
+		{
+			logger.error("Execution failed on {} of {} target database(s): {}", failedTargets.size(), targets.size(), failedTargets);
+			return false;
+		}
+
+		logger.info("Execution completed successfully on all {} target database(s)", targets.size());
+		return true;
+	}
+
+	/**
+	 * Executes the changelog on specified target.
+	 * @param target target to execute
+	 * @param targetTracker tracker of the target
+	 * @return true if execution is successful
+	 */
+	private boolean executeTarget(Target target, ChangeTracker targetTracker)
+	{
+		logger.info("Executing changelog on target database: {}", target.getName());
+
+		try
+		{
+			DbChangeLogExecutor executor = new DbChangeLogExecutor(databaseChangeLog, versionerFactory.get(), toTargetArguments(target.replicas, target.database), targetTracker);
+			boolean res = executor.execute();
+
+			logger.info("Completed execution on target database '{}' [Executed: {}, Skipped: {}, Success: {}]", 
+					target.getName(), targetTracker.getExecutedCount(), targetTracker.getSkipCount(), res);
+			return res;
+		}catch(RuntimeException ex)
+		{
+			logger.error("An error occurred while executing changelog on target database: {}", target.getName(), ex);
+
+			targetTracker.erroredChangeset(targetTracker.getErroredChangesetId(), "" + ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Creates arguments for specified target from base arguments. Base database is used
+	 * as authentication database, when not specified explicitly.
+	 * @param replicas replicas of target cluster, null for default cluster
+	 * @param database target database
+	 * @return arguments for target
+	 */
+	private PapilioArguments toTargetArguments(String replicas, String database)
+	{
+		PapilioArguments targetArgs = args.copy();
+
+		if(StringUtils.isBlank(targetArgs.getAuthDatabase()))
+		{
+			targetArgs.setAuthDatabase(args.getDbname());
+		}
+
+		if(replicas != null)
+		{
+			targetArgs.setReplicas(replicas);
+		}
+
+		targetArgs.setDbname(database);
+		targetArgs.setTargetDatabases(null);
+		return targetArgs;
+	}
+
+	/**
+	 * Parses the target entries and resolves the database name patterns.
+	 * @return resolved unique targets
+	 */
+	private List<Target> resolveTargets()
+	{
+		Map<String, Target> targets = new LinkedHashMap<>();
+
+		for(String entry : args.getTargetDatabases().split(TARGET_SEPARATOR))
+		{
+			entry = entry.trim();
+
+			if(entry.isEmpty())
+			{
+				continue;
+			}
+
+			String replicas = null;
+			String database = entry;
+			int sepIdx = entry.startsWith(REGEX_PREFIX) ? -1 : entry.indexOf('/');
+
+			if(sepIdx >= 0)
+			{
+				replicas = entry.substring(0, sepIdx).trim();
+				database = entry.substring(sepIdx + 1).trim();
+			}
+
+			if(StringUtils.isBlank(database))
+			{
+				throw new InvalidArgumentException("Invalid target database specified: {}", entry);
+			}
+
+			if(!database.startsWith(REGEX_PREFIX))
+			{
+				Target target = new Target(replicas, database);
+				targets.put(target.getName(), target);
+				continue;
+			}
+
+			Pattern pattern = Pattern.compile(database.substring(REGEX_PREFIX.length()).trim());
+
+			for(String name : fetchDatabaseNames(replicas))
+			{
+				if(pattern.matcher(name).matches())
+				{
+					Target target = new Target(replicas, name);
+					targets.put(target.getName(), target);
+				}
+			}
+		}
+
+		return new ArrayList<>(targets.values());
+	}
+
+	private List<String> fetchDatabaseNames(String replicas)
+	{
+		IDbSchemaVersioner versioner = versionerFactory.get();
+
+		try
+		{
+			versioner.init(toTargetArguments(replicas, StringUtils.defaultIfBlank(args.getDbname(), "admin")));
+			return versioner.fetchDatabaseNames();
+		}finally
+		{
+			versioner.close();
+		}
+	}
+}
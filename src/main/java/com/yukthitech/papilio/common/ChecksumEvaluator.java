@@ -0,0 +1,343 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Evaluates checksums of objects in single pass. Object is serialized as json directly into the
+ * message digest(s), with whitespaces of string values normalized on the fly.
+ * 
+ * The canonical form is same as the one used by earlier versions (json serialization, followed by
+ * json round trip with whitespace normalization of string values), so that checksums remain same.
+ * 
+ * @author akiran
+ */
+public class ChecksumEvaluator
+{
+	/**
+	 * MD5 algorithm, used by default.
+	 */
+	public static final String MD5 = "MD5";
+	
+	/**
+	 * SHA-256 algorithm.
+	 */
+	public static final String SHA_256 = "SHA-256";
+	
+	/**
+	 * Size of file chunks mapped into memory, during file checksum evaluation.
+	 */
+	private static final long FILE_MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+	
+	/**
+	 * Evaluated file checksums, by algorithm, path, size and modified time of files.
+	 */
+	private static Map<String, String> fileChecksums = new ConcurrentHashMap<>();
+	
+	/**
+	 * Object mapper used for serialization.
+	 */
+	private static ObjectMapper objectMapper = new ObjectMapper();
+	
+	/**
+	 * Output stream which feeds the written bytes into digests.
+	 */
+	private static class DigestsOutputStream extends OutputStream
+	{
+		private MessageDigest digests[];
+		
+		private DigestsOutputStream(MessageDigest digests[])
+		{
+			this.digests = digests;
+		}
+		
+		@Override
+		public void write(int b)
+		{
+			for(MessageDigest digest : digests)
+			{
+				digest.update((byte) b);
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			for(MessageDigest digest : digests)
+			{
+				digest.update(b, off, len);
+			}
+		}
+	}
+	
+	/**
+	 * Generator which normalizes the string values and numbers, the way earlier json
+	 * round trip used to.
+	 */
+	private static class CanonicalGenerator extends JsonGeneratorDelegate
+	{
+		private CanonicalGenerator(JsonGenerator delegate)
+		{
+			super(delegate);
+		}
+		
+		@Override
+		public void writeString(String text) throws IOException
+		{
+			super.writeString(text != null ? normalizeWhitespaces(text) : null);
+		}
+		
+		@Override
+		public void writeString(char[] text, int offset, int len) throws IOException
+		{
+			super.writeString(normalizeWhitespaces(new String(text, offset, len)));
+		}
+		
+		@Override
+		public void writeString(SerializableString text) throws IOException
+		{
+			super.writeString(normalizeWhitespaces(text.getValue()));
+		}
+		
+		@Override
+		public void writeNumber(float value) throws IOException
+		{
+			//floats used to be parsed back as doubles
+			if(Float.isNaN(value) || Float.isInfinite(value))
+			{
+				super.writeNumber(value);
+				return;
+			}
+			
+			super.writeNumber(Double.parseDouble(Float.toString(value)));
+		}
+		
+		@Override
+		public void writeNumber(BigDecimal value) throws IOException
+		{
+			if(value == null)
+			{
+				super.writeNumber(value);
+				return;
+			}
+			
+			//decimals in floating point notation used to be parsed back as doubles
+			String text = value.toString();
+			
+			if(text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0)
+			{
+				super.writeNumber(Double.parseDouble(text));
+				return;
+			}
+			
+			super.writeNumber(new BigInteger(text));
+		}
+	}
+	
+	/**
+	 * Replaces every sequence of whitespaces with single space. Same as <code>str.replaceAll("\\s+", " ")</code>,
+	 * but avoids creating new string when not needed.
+	 * @param str string to normalize
+	 * @return normalized string
+	 */
+	static String normalizeWhitespaces(String str)
+	{
+		int len = str.length();
+		StringBuilder builder = null;
+		int idx = 0;
+		
+		while(idx < len)
+		{
+			char ch = str.charAt(idx);
+			
+			if(!isWhitespace(ch))
+			{
+				if(builder != null)
+				{
+					builder.append(ch);
+				}
+				
+				idx++;
+				continue;
+			}
+			
+			int end = idx + 1;
+			
+			while(end < len && isWhitespace(str.charAt(end)))
+			{
+				end++;
+			}
+			
+			//on first whitespace sequence needing replacement, start building new string
+			if(builder == null && (ch != ' ' || end - idx > 1))
+			{
+				builder = new StringBuilder(len);
+				builder.append(str, 0, idx);
+			}
+			
+			if(builder != null)
+			{
+				builder.append(' ');
+			}
+			
+			idx = end;
+		}
+		
+		return (builder != null) ? builder.toString() : str;
+	}
+	
+	/**
+	 * Checks if specified character is whitespace, as per regex <code>\s</code>.
+	 */
+	private static boolean isWhitespace(char ch)
+	{
+		return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+	}
+	
+	/**
+	 * Evaluates checksum of specified object using specified algorithm.
+	 * @param object object whose checksum needs to be evaluated
+	 * @param algorithm algorithm to use
+	 * @return checksum in hex format
+	 */
+	public static String evaluateChecksum(Object object, String algorithm)
+	{
+		return evaluateChecksums(object, algorithm)[0];
+	}
+	
+	/**
+	 * Evaluates checksums of specified object using specified algorithms, by serializing the object only once.
+	 * @param object object whose checksums needs to be evaluated
+	 * @param algorithms algorithms to use
+	 * @return checksums in hex format, in the order of algorithms
+	 */
+	public static String[] evaluateChecksums(Object object, String... algorithms)
+	{
+		try
+		{
+			MessageDigest digests[] = new MessageDigest[algorithms.length];
+			
+			for(int i = 0; i < algorithms.length; i++)
+			{
+				digests[i] = MessageDigest.getInstance(algorithms[i]);
+			}
+			
+			//default charset is used, as earlier checksums were evaluated on bytes of json string
+			OutputStreamWriter writer = new OutputStreamWriter(new DigestsOutputStream(digests), Charset.defaultCharset());
+			JsonGenerator generator = new CanonicalGenerator(objectMapper.getFactory().createGenerator(writer));
+			
+			objectMapper.writeValue(generator, object);
+			generator.close();
+			
+			String checksums[] = new String[algorithms.length];
+			
+			for(int i = 0; i < digests.length; i++)
+			{
+				checksums[i] = toHex(digests[i].digest());
+			}
+			
+			return checksums;
+		} catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while evaluating checksum of object: {}", object, ex);
+		}
+	}
+	
+	/**
+	 * Evaluates checksum of specified file content using specified algorithm. Checksums are reused (within the run)
+	 * for the files whose size and modified time are not changed, as same files are referred multiple times.
+	 * @param file file whose checksum needs to be evaluated
+	 * @param algorithm algorithm to use
+	 * @return checksum in hex format
+	 */
+	public static String evaluateFileChecksum(File file, String algorithm)
+	{
+		String key = null;
+		
+		try
+		{
+			key = algorithm + ":" + file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+		}catch(IOException ex)
+		{
+			throw new InvalidStateException("An error occurred while evaluating checksum of file: {}", file.getPath(), ex);
+		}
+		
+		String checksum = fileChecksums.get(key);
+		
+		//evaluated outside of map lock, as large files may take time
+		if(checksum == null)
+		{
+			checksum = evaluateFileContentChecksum(file, algorithm);
+			fileChecksums.put(key, checksum);
+		}
+		
+		return checksum;
+	}
+	
+	private static String evaluateFileContentChecksum(File file, String algorithm)
+	{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MessageDigest digest = MessageDigest.getInstance(algorithm);
+			long size = channel.size();
+			
+			//file is mapped in chunks and fed to digest, so that file content is not copied into heap
+			for(long position = 0; position < size; position += FILE_MAP_CHUNK_SIZE)
+			{
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(FILE_MAP_CHUNK_SIZE, size - position));
+				digest.update(buffer);
+			}
+			
+			return toHex(digest.digest());
+		} catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while evaluating checksum of file: {}", file.getPath(), ex);
+		}
+	}
+	
+	private static String toHex(byte digest[])
+	{
+		String hashtext = new BigInteger(1, digest).toString(16);
+		
+		StringBuilder builder = new StringBuilder(digest.length * 2);
+		
+		for(int i = hashtext.length(); i < digest.length * 2; i++)
+		{
+			builder.append('0');
+		}
+		
+		return builder.append(hashtext).toString();
+	}
+}
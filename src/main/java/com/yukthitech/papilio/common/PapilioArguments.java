@@ -22,7 +22,7 @@ import com.yukthitech.utils.cli.CliArgument;
  * 
  * @author akiran
  */
-public class PapilioArguments
+public class PapilioArguments implements Cloneable
 {
 	/**
 	 * Db type. Default: mongo.
@@ -66,6 +66,12 @@ public class PapilioArguments
 	@CliArgument(name = "pwd", longName = "password", description = "Password to be used for authentication", required = false)
 	private String password;
 
+	/**
+	 * Database to be used for authentication. Default: target database.
+	 */
+	@CliArgument(name = "adb", longName = "auth-database", description = "Database to be used for authentication. Default: target database", required = false)
+	private String authDatabase;
+
 	/**
 	 * If true, then it will indicate the db connectivity should happen via SSL. Default: false.
 	 */
@@ -79,6 +85,172 @@ public class PapilioArguments
 	@CliArgument(name = "cl", longName = "changelog", description = "Change log file to be processed.", required = true)
 	private String changeLogFile;
 
+	/**
+	 * Number of threads to be used to execute independent changesets concurrently. Default: 1 (sequential execution).
+	 */
+	@CliArgument(name = "pt", longName = "parallel-threads", 
+			description = "Number of threads to be used to execute independent changesets concurrently. Default: 1 (sequential execution)", required = false)
+	private int parallelThreads = 1;
+
+	/**
+	 * Number of db-log entries to be buffered before writing them in bulk. With batch size N, on abrupt termination
+	 * at most N - 1 executed changesets may be left unrecorded. Default: 1 (every entry is written immediately).
+	 */
+	@CliArgument(name = "lbs", longName = "log-batch-size", 
+			description = "Number of db-log entries to be buffered before writing them in bulk. With batch size N, "
+					+ "on abrupt termination at most N - 1 executed changesets may be left unrecorded. Default: 1", required = false)
+	private int logBatchSize = 1;
+
+	/**
+	 * Lease duration of migration lock in seconds. Lock held by a dead instance gets released after this duration. Default: 300.
+	 */
+	@CliArgument(name = "lls", longName = "lock-lease-seconds", 
+			description = "Lease duration of migration lock in seconds. Lock held by a dead instance gets released after this duration. Default: 300", 
+			required = false)
+	private int lockLeaseSeconds = 300;
+
+	/**
+	 * Interval in seconds at which lease of held lock is renewed. Should be less than lease duration. Default: 60.
+	 */
+	@CliArgument(name = "lhs", longName = "lock-heartbeat-seconds", 
+			description = "Interval in seconds at which lease of held lock is renewed. Should be less than lease duration. Default: 60", 
+			required = false)
+	private int lockHeartbeatSeconds = 60;
+
+	/**
+	 * Maximum time in seconds to wait for the lock, when it is held by other instance. Default: 0 (fail immediately).
+	 */
+	@CliArgument(name = "lws", longName = "lock-wait-seconds", 
+			description = "Maximum time in seconds to wait for the lock, when it is held by other instance. Default: 0 (fail immediately)", 
+			required = false)
+	private int lockWaitSeconds = 0;
+
+	/**
+	 * Scope of the migration lock, so that independent changelogs sharing a database can be executed concurrently.
+	 * If "auto" is specified, scope is derived from root changelog file name. Default: global lock.
+	 */
+	@CliArgument(name = "ls", longName = "lock-scope", 
+			description = "Scope of the migration lock, so that independent changelogs sharing a database can be executed concurrently. "
+					+ "If 'auto' is specified, scope is derived from root changelog file name. Default: global lock", 
+			required = false)
+	private String lockScope;
+
+	/**
+	 * If true, along with scoped lock, collection level locks will be obtained for the collections touched by every changeset.
+	 * Collection locks are waited for as per lock-wait-seconds. Default: false.
+	 */
+	@CliArgument(name = "col", longName = "collection-locks", 
+			description = "If true, along with scoped lock, collection level locks will be obtained for the collections touched by every changeset. "
+					+ "Collection locks are waited for as per lock-wait-seconds. Default: false", 
+			required = false)
+	private boolean collectionLocks = false;
+
+	/**
+	 * Number of consecutive transactional changesets to be committed in single transaction, during
+	 * sequential execution. Default: 1 (every transactional changeset is committed separately).
+	 */
+	@CliArgument(name = "tbs", longName = "transaction-batch-size", 
+			description = "Number of consecutive transactional changesets to be committed in single transaction, during sequential execution. "
+					+ "Default: 1", 
+			required = false)
+	private int transactionBatchSize = 1;
+
+	/**
+	 * Semicolon separated target databases, on which changelog should be executed. Each entry can be a database name
+	 * or "regex:<pattern>", optionally prefixed with cluster replicas like "host1:port1,host2:port2/". When specified,
+	 * "database" argument is used only as default authentication database.
+	 */
+	@CliArgument(name = "tdb", longName = "target-databases", 
+			description = "Semicolon separated target databases, on which changelog should be executed. Each entry can be a database name "
+					+ "or 'regex:<pattern>', optionally prefixed with cluster replicas like 'host1:port1,host2:port2/'", 
+			required = false)
+	private String targetDatabases;
+
+	/**
+	 * Maximum number of target databases to be processed concurrently. Default: 1.
+	 */
+	@CliArgument(name = "mpt", longName = "max-parallel-targets", 
+			description = "Maximum number of target databases to be processed concurrently. Default: 1", 
+			required = false)
+	private int maxParallelTargets = 1;
+
+	/**
+	 * File to which run report (with per changeset and per change metrics) should be written in json format.
+	 */
+	@CliArgument(name = "rf", longName = "report-file", 
+			description = "File to which run report (with per changeset and per change metrics) should be written in json format", 
+			required = false)
+	private String reportFile;
+
+	/**
+	 * Algorithm to be used for changeset checksums. Supported values: MD5, SHA-256.
+	 */
+	@CliArgument(name = "ca", longName = "checksum-algorithm", 
+			description = "Algorithm to be used for changeset checksums (MD5 or SHA-256). On switching to SHA-256, existing md5 entries are verified and migrated. Default: MD5", 
+			required = false)
+	private String checksumAlgorithm = "MD5";
+
+	/**
+	 * Manifest file (generated at build time) to be used to load changesets.
+	 */
+	@CliArgument(name = "mf", longName = "manifest", 
+			description = "Manifest file (generated using --generate-manifest) to be used. When digests of changelog files match, changesets are loaded from manifest and only pending ones are parsed", 
+			required = false)
+	private String manifest;
+
+	/**
+	 * File to which changelog manifest should be generated. When specified, changes are not executed.
+	 */
+	@CliArgument(name = "gm", longName = "generate-manifest", 
+			description = "File to which changelog manifest (changeset checksums and changelog file digests) should be generated. When specified, only manifest is generated and changes are not executed", 
+			required = false)
+	private String generateManifest;
+
+	/**
+	 * If true, changesets are read lazily (one at a time) while executing, instead of loading full changelog.
+	 */
+	@CliArgument(name = "sp", longName = "streaming-parse", 
+			description = "If true, changesets are read lazily (one at a time) during execution, keeping only current changeset in memory. "
+					+ "Applicable for single target runs without manifest, changesets are executed sequentially. Default: false", 
+			required = false)
+	private boolean streamingParse = false;
+
+	/**
+	 * Directory in which binary snapshots of parsed changelog files are cached.
+	 */
+	@CliArgument(name = "scd", longName = "snapshot-cache-dir", 
+			description = "Directory in which binary snapshots of parsed changelog files (keyed by file content digest) are cached. "
+					+ "Unchanged files are restored from snapshots instead of parsing xml", 
+			required = false)
+	private String snapshotCacheDir;
+
+	/**
+	 * Mode in which snapshot cache should be used.
+	 */
+	@CliArgument(name = "scm", longName = "snapshot-cache-mode", 
+			description = "Mode in which snapshot cache should be used - USE (restore valid snapshots), VERIFY (parse all files and rewrite "
+					+ "mismatching snapshots) or REBUILD (parse all files and rewrite all snapshots). Default: USE", 
+			required = false)
+	private String snapshotCacheMode = "USE";
+
+	/**
+	 * Maximum total size (in mb) of external files whose parsed content is cached.
+	 */
+	@CliArgument(name = "efc", longName = "external-file-cache-mb", 
+			description = "Maximum total size (in mb) of external files (json, xml etc) whose parsed content is cached and reused "
+					+ "across references. Zero disables the cache. Default: 64", 
+			required = false)
+	private int externalFileCacheMb = 64;
+
+	/**
+	 * Maximum number of find-and-update partition workers running concurrently.
+	 */
+	@CliArgument(name = "mfw", longName = "max-find-update-workers", 
+			description = "Maximum number of find-and-update partition workers (of parallel find-and-update changes) running concurrently, "
+					+ "across all changes and target databases. Default: 8", 
+			required = false)
+	private int maxFindUpdateWorkers = 8;
+
 	/**
 	 * Gets the db server host.
 	 *
@@ -270,4 +442,460 @@ public class PapilioArguments
 	{
 		this.enableSsl = enableSsl;
 	}
+
+	/**
+	 * Gets the number of threads to be used to execute independent changesets
+	 * concurrently. Default: 1 (sequential execution).
+	 *
+	 * @return the number of threads to be used to execute independent changesets
+	 */
+	public int getParallelThreads()
+	{
+		return parallelThreads;
+	}
+
+	/**
+	 * Sets the number of threads to be used to execute independent changesets
+	 * concurrently. Default: 1 (sequential execution).
+	 *
+	 * @param parallelThreads
+	 *            the new number of threads to be used to execute independent
+	 *            changesets
+	 */
+	public void setParallelThreads(int parallelThreads)
+	{
+		this.parallelThreads = parallelThreads;
+	}
+
+	/**
+	 * Gets the number of db-log entries to be buffered before writing them in
+	 * bulk. Default: 1.
+	 *
+	 * @return the number of db-log entries to be buffered
+	 */
+	public int getLogBatchSize()
+	{
+		return logBatchSize;
+	}
+
+	/**
+	 * Sets the number of db-log entries to be buffered before writing them in
+	 * bulk. Default: 1.
+	 *
+	 * @param logBatchSize
+	 *            the new number of db-log entries to be buffered
+	 */
+	public void setLogBatchSize(int logBatchSize)
+	{
+		this.logBatchSize = logBatchSize;
+	}
+
+	/**
+	 * Gets the lease duration of migration lock in seconds. Default: 300.
+	 *
+	 * @return the lease duration of migration lock in seconds
+	 */
+	public int getLockLeaseSeconds()
+	{
+		return lockLeaseSeconds;
+	}
+
+	/**
+	 * Sets the lease duration of migration lock in seconds. Default: 300.
+	 *
+	 * @param lockLeaseSeconds
+	 *            the new lease duration of migration lock in seconds
+	 */
+	public void setLockLeaseSeconds(int lockLeaseSeconds)
+	{
+		this.lockLeaseSeconds = lockLeaseSeconds;
+	}
+
+	/**
+	 * Gets the interval in seconds at which lease of held lock is renewed.
+	 * Default: 60.
+	 *
+	 * @return the interval in seconds at which lease of held lock is renewed
+	 */
+	public int getLockHeartbeatSeconds()
+	{
+		return lockHeartbeatSeconds;
+	}
+
+	/**
+	 * Sets the interval in seconds at which lease of held lock is renewed.
+	 * Default: 60.
+	 *
+	 * @param lockHeartbeatSeconds
+	 *            the new interval in seconds at which lease of held lock is
+	 *            renewed
+	 */
+	public void setLockHeartbeatSeconds(int lockHeartbeatSeconds)
+	{
+		this.lockHeartbeatSeconds = lockHeartbeatSeconds;
+	}
+
+	/**
+	 * Gets the maximum time in seconds to wait for the lock, when it is held by
+	 * other instance. Default: 0 (fail immediately).
+	 *
+	 * @return the maximum time in seconds to wait for the lock
+	 */
+	public int getLockWaitSeconds()
+	{
+		return lockWaitSeconds;
+	}
+
+	/**
+	 * Sets the maximum time in seconds to wait for the lock, when it is held by
+	 * other instance. Default: 0 (fail immediately).
+	 *
+	 * @param lockWaitSeconds
+	 *            the new maximum time in seconds to wait for the lock
+	 */
+	public void setLockWaitSeconds(int lockWaitSeconds)
+	{
+		this.lockWaitSeconds = lockWaitSeconds;
+	}
+
+	/**
+	 * Gets the scope of the migration lock. If "auto", scope is derived from root
+	 * changelog file name. Default: global lock.
+	 *
+	 * @return the scope of the migration lock
+	 */
+	public String getLockScope()
+	{
+		return lockScope;
+	}
+
+	/**
+	 * Sets the scope of the migration lock. If "auto", scope is derived from root
+	 * changelog file name. Default: global lock.
+	 *
+	 * @param lockScope
+	 *            the new scope of the migration lock
+	 */
+	public void setLockScope(String lockScope)
+	{
+		this.lockScope = lockScope;
+	}
+
+	/**
+	 * Checks if collection level locks should be obtained for the collections
+	 * touched by every changeset.
+	 *
+	 * @return true, if collection locks are enabled
+	 */
+	public boolean isCollectionLocks()
+	{
+		return collectionLocks;
+	}
+
+	/**
+	 * Sets the flag indicating collection level locks should be obtained for the
+	 * collections touched by every changeset.
+	 *
+	 * @param collectionLocks
+	 *            the new flag indicating collection level locks should be obtained
+	 */
+	public void setCollectionLocks(boolean collectionLocks)
+	{
+		this.collectionLocks = collectionLocks;
+	}
+
+	/**
+	 * Gets the number of consecutive transactional changesets to be committed in
+	 * single transaction. Default: 1.
+	 *
+	 * @return the number of changesets to be committed in single transaction
+	 */
+	public int getTransactionBatchSize()
+	{
+		return transactionBatchSize;
+	}
+
+	/**
+	 * Sets the number of consecutive transactional changesets to be committed in
+	 * single transaction. Default: 1.
+	 *
+	 * @param transactionBatchSize
+	 *            the new number of changesets to be committed in single transaction
+	 */
+	public void setTransactionBatchSize(int transactionBatchSize)
+	{
+		this.transactionBatchSize = transactionBatchSize;
+	}
+
+	/**
+	 * Gets the database to be used for authentication. Default: target database.
+	 *
+	 * @return the database to be used for authentication
+	 */
+	public String getAuthDatabase()
+	{
+		return authDatabase;
+	}
+
+	/**
+	 * Sets the database to be used for authentication. Default: target database.
+	 *
+	 * @param authDatabase
+	 *            the new database to be used for authentication
+	 */
+	public void setAuthDatabase(String authDatabase)
+	{
+		this.authDatabase = authDatabase;
+	}
+
+	/**
+	 * Gets the semicolon separated target databases, on which changelog should
+	 * be executed.
+	 *
+	 * @return the target databases
+	 */
+	public String getTargetDatabases()
+	{
+		return targetDatabases;
+	}
+
+	/**
+	 * Sets the semicolon separated target databases, on which changelog should
+	 * be executed.
+	 *
+	 * @param targetDatabases
+	 *            the new target databases
+	 */
+	public void setTargetDatabases(String targetDatabases)
+	{
+		this.targetDatabases = targetDatabases;
+	}
+
+	/**
+	 * Gets the maximum number of target databases to be processed concurrently.
+	 * Default: 1.
+	 *
+	 * @return the maximum number of target databases to be processed concurrently
+	 */
+	public int getMaxParallelTargets()
+	{
+		return maxParallelTargets;
+	}
+
+	/**
+	 * Sets the maximum number of target databases to be processed concurrently.
+	 * Default: 1.
+	 *
+	 * @param maxParallelTargets
+	 *            the new maximum number of target databases to be processed concurrently
+	 */
+	public void setMaxParallelTargets(int maxParallelTargets)
+	{
+		this.maxParallelTargets = maxParallelTargets;
+	}
+
+	/**
+	 * Gets the file to which run report should be written in json format.
+	 *
+	 * @return the file to which run report should be written
+	 */
+	public String getReportFile()
+	{
+		return reportFile;
+	}
+
+	/**
+	 * Sets the file to which run report should be written in json format.
+	 *
+	 * @param reportFile
+	 *            the new file to which run report should be written
+	 */
+	public void setReportFile(String reportFile)
+	{
+		this.reportFile = reportFile;
+	}
+
+	/**
+	 * Gets the algorithm to be used for changeset checksums.
+	 *
+	 * @return the algorithm to be used for changeset checksums
+	 */
+	public String getChecksumAlgorithm()
+	{
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * Sets the algorithm to be used for changeset checksums.
+	 *
+	 * @param checksumAlgorithm
+	 *            the new algorithm to be used for changeset checksums
+	 */
+	public void setChecksumAlgorithm(String checksumAlgorithm)
+	{
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * Gets the manifest file to be used to load changesets.
+	 *
+	 * @return the manifest file to be used to load changesets
+	 */
+	public String getManifest()
+	{
+		return manifest;
+	}
+
+	/**
+	 * Sets the manifest file to be used to load changesets.
+	 *
+	 * @param manifest
+	 *            the new manifest file to be used to load changesets
+	 */
+	public void setManifest(String manifest)
+	{
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Gets the file to which changelog manifest should be generated.
+	 *
+	 * @return the file to which changelog manifest should be generated
+	 */
+	public String getGenerateManifest()
+	{
+		return generateManifest;
+	}
+
+	/**
+	 * Sets the file to which changelog manifest should be generated.
+	 *
+	 * @param generateManifest
+	 *            the new file to which changelog manifest should be generated
+	 */
+	public void setGenerateManifest(String generateManifest)
+	{
+		this.generateManifest = generateManifest;
+	}
+
+	/**
+	 * Checks if changesets should be read lazily while executing.
+	 *
+	 * @return true, if streaming parse is enabled
+	 */
+	public boolean isStreamingParse()
+	{
+		return streamingParse;
+	}
+
+	/**
+	 * Sets the flag indicating changesets should be read lazily while executing.
+	 *
+	 * @param streamingParse
+	 *            the new flag indicating changesets should be read lazily
+	 */
+	public void setStreamingParse(boolean streamingParse)
+	{
+		this.streamingParse = streamingParse;
+	}
+
+	/**
+	 * Gets the directory in which binary snapshots of parsed changelog files are cached.
+	 *
+	 * @return the directory in which snapshots are cached
+	 */
+	public String getSnapshotCacheDir()
+	{
+		return snapshotCacheDir;
+	}
+
+	/**
+	 * Sets the directory in which binary snapshots of parsed changelog files are cached.
+	 *
+	 * @param snapshotCacheDir
+	 *            the new directory in which snapshots are cached
+	 */
+	public void setSnapshotCacheDir(String snapshotCacheDir)
+	{
+		this.snapshotCacheDir = snapshotCacheDir;
+	}
+
+	/**
+	 * Gets the mode in which snapshot cache should be used.
+	 *
+	 * @return the mode in which snapshot cache should be used
+	 */
+	public String getSnapshotCacheMode()
+	{
+		return snapshotCacheMode;
+	}
+
+	/**
+	 * Sets the mode in which snapshot cache should be used.
+	 *
+	 * @param snapshotCacheMode
+	 *            the new mode in which snapshot cache should be used
+	 */
+	public void setSnapshotCacheMode(String snapshotCacheMode)
+	{
+		this.snapshotCacheMode = snapshotCacheMode;
+	}
+
+	/**
+	 * Gets the maximum total size (in mb) of external files whose parsed content is cached.
+	 *
+	 * @return the maximum total size of cached external files
+	 */
+	public int getExternalFileCacheMb()
+	{
+		return externalFileCacheMb;
+	}
+
+	/**
+	 * Sets the maximum total size (in mb) of external files whose parsed content is cached.
+	 *
+	 * @param externalFileCacheMb
+	 *            the new maximum total size of cached external files
+	 */
+	public void setExternalFileCacheMb(int externalFileCacheMb)
+	{
+		this.externalFileCacheMb = externalFileCacheMb;
+	}
+
+	/**
+	 * Gets the maximum number of find-and-update partition workers running concurrently.
+	 *
+	 * @return the maximum number of find-and-update workers
+	 */
+	public int getMaxFindUpdateWorkers()
+	{
+		return maxFindUpdateWorkers;
+	}
+
+	/**
+	 * Sets the maximum number of find-and-update partition workers running concurrently.
+	 *
+	 * @param maxFindUpdateWorkers
+	 *            the new maximum number of find-and-update workers
+	 */
+	public void setMaxFindUpdateWorkers(int maxFindUpdateWorkers)
+	{
+		this.maxFindUpdateWorkers = maxFindUpdateWorkers;
+	}
+
+	/**
+	 * Creates a copy of these arguments.
+	 *
+	 * @return copy of arguments
+	 */
+	public PapilioArguments copy()
+	{
+		try
+		{
+			return (PapilioArguments) super.clone();
+		}catch(CloneNotSupportedException ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+	}
 }
@@ -15,14 +15,17 @@
  */
 package com.yukthitech.papilio.data;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Base class for specifying custom options for a change.
  */
-public abstract class AbstractOptionBasedChange
+public abstract class AbstractOptionBasedChange implements Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Helps in specifying custom options for a change.
 	 */
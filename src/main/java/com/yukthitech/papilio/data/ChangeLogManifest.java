@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.yukthitech.papilio.common.ChecksumEvaluator;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Build-time manifest of a changelog. Maintains digests of changelog files (root and included ones)
+ * and the changesets (in execution order) with their checksums. When digests of all the files match,
+ * changesets can be loaded from manifest, without parsing the files and evaluating checksums.
+ * 
+ * Note: Digests cover only the changelog files. Data/script files referred by changesets are expected
+ * to be packaged (and changed) along with the changelog files.
+ * 
+ * @author akiran
+ */
+public class ChangeLogManifest
+{
+	/**
+	 * Manifest entry of a changeset.
+	 * 
+	 * @author akiran
+	 */
+	public static class Entry
+	{
+		/**
+		 * Id of the changeset.
+		 */
+		private String id;
+		
+		/**
+		 * Author of the changeset.
+		 */
+		private String author;
+		
+		/**
+		 * Path of the file (relative to root changelog folder) in which changeset is defined.
+		 */
+		private String file;
+		
+		/**
+		 * Checksum of the changeset.
+		 */
+		private String checksum;
+		
+		/**
+		 * Md5 checksum of the changeset, when non-md5 algorithm is used.
+		 */
+		@JsonInclude(value = JsonInclude.Include.NON_NULL)
+		private String legacyChecksum;
+
+		/**
+		 * Gets the id of the changeset.
+		 *
+		 * @return the id of the changeset
+		 */
+		public String getId()
+		{
+			return id;
+		}
+
+		/**
+		 * Sets the id of the changeset.
+		 *
+		 * @param id the new id of the changeset
+		 */
+		public void setId(String id)
+		{
+			this.id = id;
+		}
+
+		/**
+		 * Gets the author of the changeset.
+		 *
+		 * @return the author of the changeset
+		 */
+		public String getAuthor()
+		{
+			return author;
+		}
+
+		/**
+		 * Sets the author of the changeset.
+		 *
+		 * @param author the new author of the changeset
+		 */
+		public void setAuthor(String author)
+		{
+			this.author = author;
+		}
+
+		/**
+		 * Gets the path of the file in which changeset is defined.
+		 *
+		 * @return the path of the file in which changeset is defined
+		 */
+		public String getFile()
+		{
+			return file;
+		}
+
+		/**
+		 * Sets the path of the file in which changeset is defined.
+		 *
+		 * @param file the new path of the file in which changeset is defined
+		 */
+		public void setFile(String file)
+		{
+			this.file = file;
+		}
+
+		/**
+		 * Gets the checksum of the changeset.
+		 *
+		 * @return the checksum of the changeset
+		 */
+		public String getChecksum()
+		{
+			return checksum;
+		}
+
+		/**
+		 * Sets the checksum of the changeset.
+		 *
+		 * @param checksum the new checksum of the changeset
+		 */
+		public void setChecksum(String checksum)
+		{
+			this.checksum = checksum;
+		}
+
+		/**
+		 * Gets the md5 checksum of the changeset, when non-md5 algorithm is used.
+		 *
+		 * @return the md5 checksum of the changeset
+		 */
+		public String getLegacyChecksum()
+		{
+			return legacyChecksum;
+		}
+
+		/**
+		 * Sets the md5 checksum of the changeset, when non-md5 algorithm is used.
+		 *
+		 * @param legacyChecksum the new md5 checksum of the changeset
+		 */
+		public void setLegacyChecksum(String legacyChecksum)
+		{
+			this.legacyChecksum = legacyChecksum;
+		}
+	}
+	
+	/**
+	 * Object mapper used to read and write manifest.
+	 */
+	private static ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+	
+	/**
+	 * Algorithm used for checksums and file digests.
+	 */
+	private String algorithm;
+	
+	/**
+	 * Digests of changelog files, by path relative to root changelog folder.
+	 */
+	private Map<String, String> fileDigests = new LinkedHashMap<>();
+	
+	/**
+	 * Changesets in execution order.
+	 */
+	private List<Entry> changeSets = new ArrayList<>();
+	
+	/**
+	 * Builds the manifest of specified changelog. Checksums of changesets are expected
+	 * to be evaluated already.
+	 * @param changeLog changelog for which manifest needs to be built
+	 * @param algorithm algorithm used for checksums
+	 * @return built manifest
+	 */
+	public static ChangeLogManifest build(DatabaseChangeLog changeLog, String algorithm)
+	{
+		ChangeLogManifest manifest = new ChangeLogManifest();
+		manifest.algorithm = algorithm;
+		
+		Path rootFolder = getRootFolder(changeLog.getFile());
+		
+		for(File file : changeLog.getFiles())
+		{
+			manifest.fileDigests.put(toRelativePath(rootFolder, file), ChecksumEvaluator.evaluateFileChecksum(file, algorithm));
+		}
+		
+		for(ChangeSet changeSet : changeLog.getChangeSets())
+		{
+			Entry entry = new Entry();
+			entry.id = changeSet.getId();
+			entry.author = changeSet.getAuthor();
+			entry.file = toRelativePath(rootFolder, changeSet.getSourceFile());
+			entry.checksum = changeSet.getChecksum();
+			entry.legacyChecksum = changeSet.getLegacyChecksum();
+			
+			manifest.changeSets.add(entry);
+		}
+		
+		return manifest;
+	}
+	
+	static Path getRootFolder(File rootFile)
+	{
+		return rootFile.getAbsoluteFile().toPath().normalize().getParent();
+	}
+	
+	/**
+	 * Converts specified file into path relative to root folder.
+	 * @param rootFolder root changelog folder
+	 * @param file file to convert
+	 * @return relative path, with forward slashes
+	 */
+	static String toRelativePath(Path rootFolder, File file)
+	{
+		return rootFolder.relativize(file.getAbsoluteFile().toPath().normalize()).toString().replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * Resolves specified manifest path against root folder.
+	 * @param rootFolder root changelog folder
+	 * @param path path from manifest
+	 * @return resolved file
+	 */
+	static File toFile(Path rootFolder, String path)
+	{
+		return rootFolder.resolve(path.replace('/', File.separatorChar)).toFile();
+	}
+	
+	/**
+	 * Checks whether digests of all changelog files match with current file contents.
+	 * @param rootFile root changelog file
+	 * @return null if all digests match, otherwise path of first mismatching file
+	 */
+	public String findModifiedFile(File rootFile)
+	{
+		Path rootFolder = getRootFolder(rootFile);
+		
+		for(Map.Entry<String, String> entry : fileDigests.entrySet())
+		{
+			File file = toFile(rootFolder, entry.getKey());
+			
+			if(!file.exists() || !entry.getValue().equals(ChecksumEvaluator.evaluateFileChecksum(file, algorithm)))
+			{
+				return entry.getKey();
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Writes this manifest to specified file in json format.
+	 * @param file file to write
+	 */
+	public void write(File file)
+	{
+		try
+		{
+			objectMapper.writeValue(file, this);
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while writing changelog manifest to file: {}", file.getPath(), ex);
+		}
+	}
+	
+	/**
+	 * Reads the manifest from specified file.
+	 * @param file file to read
+	 * @return manifest read
+	 */
+	public static ChangeLogManifest read(File file)
+	{
+		try
+		{
+			return objectMapper.readValue(file, ChangeLogManifest.class);
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while reading changelog manifest from file: {}", file.getPath(), ex);
+		}
+	}
+
+	/**
+	 * Gets the algorithm used for checksums and file digests.
+	 *
+	 * @return the algorithm used for checksums and file digests
+	 */
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	/**
+	 * Sets the algorithm used for checksums and file digests.
+	 *
+	 * @param algorithm the new algorithm used for checksums and file digests
+	 */
+	public void setAlgorithm(String algorithm)
+	{
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Gets the digests of changelog files, by relative path.
+	 *
+	 * @return the digests of changelog files
+	 */
+	public Map<String, String> getFileDigests()
+	{
+		return fileDigests;
+	}
+
+	/**
+	 * Sets the digests of changelog files, by relative path.
+	 *
+	 * @param fileDigests the new digests of changelog files
+	 */
+	public void setFileDigests(Map<String, String> fileDigests)
+	{
+		this.fileDigests = fileDigests;
+	}
+
+	/**
+	 * Gets the changesets in execution order.
+	 *
+	 * @return the changesets in execution order
+	 */
+	public List<Entry> getChangeSets()
+	{
+		return changeSets;
+	}
+
+	/**
+	 * Sets the changesets in execution order.
+	 *
+	 * @param changeSets the new changesets in execution order
+	 */
+	public void setChangeSets(List<Entry> changeSets)
+	{
+		this.changeSets = changeSets;
+	}
+}
@@ -0,0 +1,487 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.common.ChecksumEvaluator;
+import com.yukthitech.utils.exceptions.InvalidArgumentException;
+
+/**
+ * Local cache of binary snapshots of parsed changelog files. Snapshot of a file holds its changesets (along with
+ * their checksums) and includes, and digests of the external files referred by it. Snapshots are keyed by digest
+ * of file name and content, so modified files never match older snapshots. When external files are modified
+ * or snapshot cannot be read, the file is parsed from xml and its snapshot is rewritten.
+ * 
+ * Snapshots are read by allowing only the classes used by snapshots, so that a tampered cache file cannot
+ * instantiate arbitrary classes. External files of restored changesets are relocated to the folder of the
+ * file being restored, as a snapshot may be used for a copy of the file in a different folder.
+ *
+ * @author akiran
+ */
+public class ChangeLogSnapshotCache
+{
+	private static Logger logger = LogManager.getLogger(ChangeLogSnapshotCache.class);
+	
+	/**
+	 * Version of snapshot format, which is part of snapshot key. Should be incremented when changes
+	 * to data classes make older snapshots incompatible.
+	 */
+	private static final String FORMAT_VERSION = "2";
+	
+	/**
+	 * Extension of snapshot files.
+	 */
+	private static final String SNAPSHOT_EXTENSION = ".snapshot";
+	
+	/**
+	 * Modes in which cache can be used.
+	 */
+	public static enum Mode
+	{
+		/**
+		 * Files with valid snapshots are restored from snapshots. Snapshots are created for parsed files.
+		 */
+		USE,
+		
+		/**
+		 * All files are parsed and compared with their snapshots. Mismatching snapshots are rewritten.
+		 */
+		VERIFY,
+		
+		/**
+		 * All files are parsed and their snapshots are rewritten.
+		 */
+		REBUILD
+	}
+	
+	/**
+	 * Package of papilio classes, which are allowed in snapshots.
+	 */
+	private static final String PAPILIO_PACKAGE = "com.yukthitech.papilio.";
+	
+	/**
+	 * Jdk classes allowed in snapshots.
+	 */
+	private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+			String.class.getName(), Boolean.class.getName(), Character.class.getName(),
+			Number.class.getName(), Byte.class.getName(), Short.class.getName(), Integer.class.getName(), 
+			Long.class.getName(), Float.class.getName(), Double.class.getName(), 
+			BigInteger.class.getName(), BigDecimal.class.getName(), Enum.class.getName(),
+			ArrayList.class.getName(), LinkedList.class.getName(), 
+			HashMap.class.getName(), LinkedHashMap.class.getName(), 
+			HashSet.class.getName(), LinkedHashSet.class.getName(),
+			Date.class.getName(), File.class.getName()
+		));
+	
+	/**
+	 * Snapshot of a changelog file.
+	 */
+	private static class Snapshot implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Changesets of the file, with checksums.
+		 */
+		private List<ChangeSet> changeSets = new ArrayList<>();
+		
+		/**
+		 * Positions (in changesets) at which includes are specified.
+		 */
+		private List<Integer> includePositions = new ArrayList<>();
+		
+		/**
+		 * Paths of includes, as specified in file.
+		 */
+		private List<String> includePaths = new ArrayList<>();
+		
+		/**
+		 * Digests of external files referred by the file, by path relative to the file folder.
+		 */
+		private Map<String, String> externalFileDigests = new LinkedHashMap<>();
+		
+		/**
+		 * Builds the values which identify the content of this snapshot.
+		 * @return content values
+		 */
+		private List<String> getContentValues()
+		{
+			List<String> values = new ArrayList<>();
+			
+			for(ChangeSet changeSet : changeSets)
+			{
+				values.add(changeSet.getId() + "=" + changeSet.getChecksum() + "/" + changeSet.getLegacyChecksum());
+			}
+			
+			for(int i = 0; i < includePaths.size(); i++)
+			{
+				values.add(includePositions.get(i) + ":" + includePaths.get(i));
+			}
+			
+			values.add(externalFileDigests.toString());
+			return values;
+		}
+	}
+	
+	/**
+	 * Stream to read snapshots, which allows only the classes used by snapshots and relocates the
+	 * external files from the folder the snapshot was stored for, to the folder of the file being restored.
+	 */
+	private static class SnapshotInputStream extends ObjectInputStream
+	{
+		/**
+		 * Folder of the file for which snapshot was stored.
+		 */
+		private Path storedFolder;
+		
+		/**
+		 * Folder of the file being restored.
+		 */
+		private Path folder;
+		
+		private SnapshotInputStream(InputStream is, Path folder) throws IOException
+		{
+			super(is);
+			this.folder = folder;
+			
+			enableResolveObject(true);
+		}
+		
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+		{
+			if(!isAllowedClass(desc.getName()))
+			{
+				throw new InvalidClassException(desc.getName(), "Class is not allowed in snapshots");
+			}
+			
+			return super.resolveClass(desc);
+		}
+		
+		@Override
+		protected Object resolveObject(Object obj) throws IOException
+		{
+			if(obj instanceof ExternalFile)
+			{
+				((ExternalFile) obj).relocate(storedFolder, folder);
+			}
+			
+			return obj;
+		}
+		
+		private static boolean isAllowedClass(String name)
+		{
+			//for arrays, component type is checked
+			String className = name.replaceFirst("^\\[+L?", "").replace(";", "");
+			
+			//primitive types
+			if(className.length() == 1)
+			{
+				return true;
+			}
+			
+			return className.startsWith(PAPILIO_PACKAGE) || ALLOWED_CLASSES.contains(className) 
+					|| className.startsWith("java.util.Collections$");
+		}
+	}
+	
+	/**
+	 * Directory in which snapshots are maintained.
+	 */
+	private File cacheDir;
+	
+	/**
+	 * Checksum algorithm in use.
+	 */
+	private String algorithm;
+	
+	/**
+	 * Mode in which cache is used.
+	 */
+	private Mode mode;
+	
+	/**
+	 * Number of files restored from snapshots.
+	 */
+	private AtomicInteger restoredCount = new AtomicInteger();
+	
+	/**
+	 * Number of snapshots written.
+	 */
+	private AtomicInteger storedCount = new AtomicInteger();
+	
+	/**
+	 * Instantiates a new snapshot cache.
+	 *
+	 * @param cacheDir directory in which snapshots are maintained
+	 * @param algorithm checksum algorithm in use
+	 * @param mode mode (name) in which cache should be used
+	 */
+	public ChangeLogSnapshotCache(File cacheDir, String algorithm, String mode)
+	{
+		try
+		{
+			this.mode = Mode.valueOf(mode.trim().toUpperCase());
+		}catch(Exception ex)
+		{
+			throw new InvalidArgumentException("Invalid snapshot cache mode specified: {}. Supported modes: {}", mode, Arrays.toString(Mode.values()));
+		}
+		
+		if(!cacheDir.exists() && !cacheDir.mkdirs())
+		{
+			throw new InvalidArgumentException("Failed to create snapshot cache directory: {}", cacheDir.getPath());
+		}
+		
+		this.cacheDir = cacheDir;
+		this.algorithm = algorithm;
+	}
+	
+	/**
+	 * Fetches the snapshot file of specified changelog file.
+	 * @param file changelog file
+	 * @return snapshot file
+	 */
+	private File getSnapshotFile(File file)
+	{
+		String fileDigest = ChecksumEvaluator.evaluateFileChecksum(file, algorithm);
+		String key = ChecksumEvaluator.evaluateChecksum(Arrays.asList(FORMAT_VERSION, algorithm, file.getName(), fileDigest), algorithm);
+		
+		return new File(cacheDir, key + SNAPSHOT_EXTENSION);
+	}
+	
+	/**
+	 * Reads the snapshot from specified file.
+	 * @param snapshotFile file to read
+	 * @param folder folder of the changelog file being restored
+	 * @return snapshot read or null, if file does not exist or cannot be read
+	 */
+	private Snapshot read(File snapshotFile, Path folder)
+	{
+		if(!snapshotFile.exists())
+		{
+			return null;
+		}
+		
+		try(SnapshotInputStream sis = new SnapshotInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)), folder))
+		{
+			sis.storedFolder = Paths.get(sis.readUTF());
+			return (Snapshot) sis.readObject();
+		}catch(Exception ex)
+		{
+			logger.warn("Ignoring unreadable snapshot: {} [Error: {}]", snapshotFile.getPath(), ex.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes specified snapshot to specified file. Snapshot is written to a temp file and moved,
+	 * so that partially written snapshots are never read. Snapshot is preceded by the folder of changelog
+	 * file, which is used to relocate external files while reading.
+	 * @param snapshotFile file to write
+	 * @param folder folder of the changelog file
+	 * @param snapshot snapshot to write
+	 */
+	private void write(File snapshotFile, Path folder, Snapshot snapshot)
+	{
+		File tempFile = null;
+		
+		try
+		{
+			tempFile = File.createTempFile("snapshot", ".tmp", cacheDir);
+			
+			try(ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+			{
+				oos.writeUTF(folder.toString());
+				oos.writeObject(snapshot);
+			}
+			
+			Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			storedCount.incrementAndGet();
+		}catch(Exception ex)
+		{
+			//failure to cache should not fail the loading
+			logger.warn("Failed to write snapshot: {} [Error: {}]", snapshotFile.getPath(), ex.toString());
+			
+			if(tempFile != null)
+			{
+				tempFile.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Restores the changesets and includes of specified changelog from its snapshot, if a valid snapshot exists.
+	 * @param log changelog (without changesets) to restore
+	 * @return true if changelog is restored from snapshot
+	 */
+	boolean restore(DatabaseChangeLog log)
+	{
+		if(mode != Mode.USE)
+		{
+			return false;
+		}
+		
+		File file = log.getFile();
+		Path folder = ChangeLogManifest.getRootFolder(file);
+		Snapshot snapshot = read(getSnapshotFile(file), folder);
+		
+		if(snapshot == null)
+		{
+			return false;
+		}
+		
+		Set<File> externalFiles = new LinkedHashSet<>();
+		
+		for(Map.Entry<String, String> entry : snapshot.externalFileDigests.entrySet())
+		{
+			File externalFile = ChangeLogManifest.toFile(folder, entry.getKey());
+			externalFiles.add(externalFile);
+			
+			if(!externalFile.exists() || !entry.getValue().equals(ChecksumEvaluator.evaluateFileChecksum(externalFile, algorithm)))
+			{
+				logger.debug("Ignoring snapshot of file {} as referred file is modified: {}", file.getPath(), entry.getKey());
+				return false;
+			}
+		}
+		
+		int index = 0;
+		
+		for(int i = 0; i < snapshot.includePaths.size(); i++)
+		{
+			for(; index < snapshot.includePositions.get(i); index++)
+			{
+				log.addChangeSet(snapshot.changeSets.get(index));
+			}
+			
+			Include include = new Include();
+			include.setPath(snapshot.includePaths.get(i));
+			log.addInclude(include);
+		}
+		
+		for(; index < snapshot.changeSets.size(); index++)
+		{
+			log.addChangeSet(snapshot.changeSets.get(index));
+		}
+		
+		log.setExternalFiles(externalFiles);
+		restoredCount.incrementAndGet();
+		logger.trace("Restored {} changesets of file {} from snapshot", snapshot.changeSets.size(), file.getPath());
+		return true;
+	}
+	
+	/**
+	 * Stores the snapshot of specified parsed changelog. Checksums of changesets are evaluated, if not
+	 * already evaluated.
+	 * @param log parsed changelog, whose includes are not yet completed
+	 * @param externalFiles external files referred by changelog file
+	 */
+	void store(DatabaseChangeLog log, Set<File> externalFiles)
+	{
+		File file = log.getFile();
+		Path folder = ChangeLogManifest.getRootFolder(file);
+		Snapshot snapshot = new Snapshot();
+		
+		log.forEachEntry(changeSet -> 
+		{
+			if(changeSet.getChecksum() == null)
+			{
+				changeSet.evaluateChecksum(algorithm);
+			}
+			
+			snapshot.changeSets.add(changeSet);
+		}, includePath -> 
+		{
+			snapshot.includePositions.add(snapshot.changeSets.size());
+			snapshot.includePaths.add(includePath);
+		});
+		
+		for(File externalFile : externalFiles)
+		{
+			snapshot.externalFileDigests.put(ChangeLogManifest.toRelativePath(folder, externalFile), 
+					ChecksumEvaluator.evaluateFileChecksum(externalFile, algorithm));
+		}
+		
+		File snapshotFile = getSnapshotFile(file);
+		
+		if(mode == Mode.VERIFY)
+		{
+			Snapshot existingSnapshot = read(snapshotFile, folder);
+			
+			if(existingSnapshot != null && existingSnapshot.getContentValues().equals(snapshot.getContentValues()))
+			{
+				logger.debug("Verified snapshot of file: {}", file.getPath());
+				return;
+			}
+			
+			logger.warn("Snapshot of file {} is {}. Rewriting the snapshot", file.getPath(), (existingSnapshot == null) ? "missing" : "stale");
+		}
+		
+		write(snapshotFile, folder, snapshot);
+	}
+	
+	/**
+	 * Gets the number of files restored from snapshots.
+	 *
+	 * @return the number of files restored from snapshots
+	 */
+	public int getRestoredCount()
+	{
+		return restoredCount.get();
+	}
+	
+	/**
+	 * Gets the number of snapshots written.
+	 *
+	 * @return the number of snapshots written
+	 */
+	public int getStoredCount()
+	{
+		return storedCount.get();
+	}
+}
@@ -16,23 +16,27 @@
 package com.yukthitech.papilio.data;
 
 import java.io.File;
-import java.nio.charset.Charset;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
+import com.yukthitech.papilio.common.ChecksumEvaluator;
 import com.yukthitech.utils.exceptions.InvalidArgumentException;
 
 /**
  * Represents a set of changes to be performed.
  * @author akiran
  */
-public class ChangeSet implements Validateable
+public class ChangeSet implements Validateable, Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Unique name or short description about this changed.
 	 */
@@ -48,11 +52,31 @@ public class ChangeSet implements Validateable
 	 */
 	private String fileName;
 	
+	/**
+	 * File in which changeset is specified.
+	 */
+	@JsonIgnore
+	private transient File sourceFile;
+	
 	/**
 	 * Calculate checksum of the changeset.
 	 */
 	private String checksum;
 	
+	/**
+	 * Md5 checksum of the changeset, evaluated along with checksum when non-md5 algorithm
+	 * is used. Used to verify and migrate older db-log entries.
+	 */
+	@JsonIgnore
+	private String legacyChecksum;
+	
+	/**
+	 * Flag indicating if changes of this changeset should be executed in single transaction. Only
+	 * insert, update and delete changes are supported in transactional changesets.
+	 */
+	@JsonInclude(value = JsonInclude.Include.NON_NULL)
+	private Boolean transactional;
+	
 	/**
 	 * List of changes that needs to be performed as part of this changeset.
 	 */
@@ -98,6 +122,26 @@ public class ChangeSet implements Validateable
 		this.fileName = fileName;
 	}
 
+	/**
+	 * Gets the file in which changeset is specified.
+	 *
+	 * @return the file in which changeset is specified
+	 */
+	public File getSourceFile()
+	{
+		return sourceFile;
+	}
+	
+	/**
+	 * Sets the file in which changeset is specified.
+	 *
+	 * @param sourceFile the new file in which changeset is specified
+	 */
+	void setSourceFile(File sourceFile)
+	{
+		this.sourceFile = sourceFile;
+	}
+
 	/**
 	 * Gets the author of this change.
 	 *
@@ -246,17 +290,8 @@ public class ChangeSet implements Validateable
 			throw new InvalidArgumentException("Script-file can not be empty");
 		}
 
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, file);
-
-		try
-		{
-			String script = FileUtils.readFileToString(fileObj, Charset.defaultCharset());
-			this.addChange(new ScriptChange(script));			
-		}catch(Exception ex)
-		{
-			throw new InvalidArgumentException("Failed to read input file: {}", fileObj.getAbsolutePath());
-		}
+		//script is loaded only when the change is executed
+		this.addChange(new ScriptChange(new ExternalFile(DatabaseChangeLogFactory.getExternalFile(file), ExternalFile.Format.SCRIPT)));
 	}
 	
 	public void addQueryTemplate(String query)
@@ -304,6 +339,88 @@ public class ChangeSet implements Validateable
 	{
 		this.checksum = checksum;
 	}
+	
+	/**
+	 * Evaluates and sets the checksum of this changeset. For non-md5 algorithms, md5 checksum
+	 * is also evaluated (in the same pass) and set as legacy checksum.
+	 * @param algorithm algorithm to use
+	 */
+	public void evaluateChecksum(String algorithm)
+	{
+		if(ChecksumEvaluator.MD5.equals(algorithm))
+		{
+			this.checksum = ChecksumEvaluator.evaluateChecksum(this, algorithm);
+			return;
+		}
+		
+		String checksums[] = ChecksumEvaluator.evaluateChecksums(this, algorithm, ChecksumEvaluator.MD5);
+		this.legacyChecksum = checksums[1];
+		this.checksum = checksums[0];
+	}
+	
+	/**
+	 * Evaluates the checksum of this changeset by using content of external files (instead of their digests), the
+	 * way checksums were evaluated when external files were loaded during parsing. Used to verify and migrate older 
+	 * db-log entries. Evaluated checksum is not set on this changeset.
+	 * 
+	 * As changesets may be shared (like across targets), the evaluation is done on a copy, without
+	 * modifying this changeset.
+	 * @param algorithm algorithm to use
+	 * @return content based checksum
+	 */
+	public String evaluateContentChecksum(String algorithm)
+	{
+		//checksums are always evaluated with empty checksum
+		ChangeSet copy = new ChangeSet();
+		copy.id = this.id;
+		copy.author = this.author;
+		copy.fileName = this.fileName;
+		copy.sourceFile = this.sourceFile;
+		copy.transactional = this.transactional;
+		copy.changes = this.changes;
+		
+		return ExternalFile.evaluateWithContent(() -> ChecksumEvaluator.evaluateChecksum(copy, algorithm));
+	}
+
+	/**
+	 * Gets the md5 checksum of the changeset, evaluated when non-md5 algorithm is used.
+	 *
+	 * @return the md5 checksum of the changeset
+	 */
+	public String getLegacyChecksum()
+	{
+		return legacyChecksum;
+	}
+
+	/**
+	 * Sets the md5 checksum of the changeset, evaluated when non-md5 algorithm is used.
+	 *
+	 * @param legacyChecksum the new md5 checksum of the changeset
+	 */
+	public void setLegacyChecksum(String legacyChecksum)
+	{
+		this.legacyChecksum = legacyChecksum;
+	}
+
+	/**
+	 * Gets the flag indicating if changes of this changeset should be executed in single transaction.
+	 *
+	 * @return the flag indicating if changes should be executed in single transaction
+	 */
+	public Boolean getTransactional()
+	{
+		return transactional;
+	}
+
+	/**
+	 * Sets the flag indicating if changes of this changeset should be executed in single transaction.
+	 *
+	 * @param transactional the new flag indicating if changes should be executed in single transaction
+	 */
+	public void setTransactional(boolean transactional)
+	{
+		this.transactional = transactional;
+	}
 
 	/* (non-Javadoc)
 	 * @see com.yukthitech.ccg.xml.util.Validateable#validate()
@@ -325,6 +442,17 @@ public class ChangeSet implements Validateable
 		{
 			throw new ValidateException("No changes are specified under changeset");
 		}
+		
+		if(Boolean.TRUE.equals(transactional))
+		{
+			for(IChange change : changes)
+			{
+				if(!(change instanceof InsertChange) && !(change instanceof UpdateChange) && !(change instanceof DeleteChange))
+				{
+					throw new ValidateException("Only insert, update and delete changes are supported in transactional changeset: " + id);
+				}
+			}
+		}
 	}
 }
 
@@ -15,15 +15,18 @@
  */
 package com.yukthitech.papilio.data;
 
-import java.io.File;
-import java.text.SimpleDateFormat;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.jxpath.JXPathContext;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.Document;
@@ -34,16 +37,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.MongoDatabase;
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
+import com.yukthitech.papilio.ChangeMetrics;
 import com.yukthitech.papilio.common.PapilioUtils;
-import com.yukthitech.papilio.mongo.MongoDbMethods;
 import com.yukthitech.utils.exceptions.InvalidStateException;
 
 /**
  * Column and value combination.
  * @author akiran
  */
-public class ColumnValue implements Validateable
+public class ColumnValue implements Validateable, Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The logger.
 	 */
@@ -54,7 +59,7 @@ public class ColumnValue implements Validateable
 	 */
 	private static ObjectMapper objectMapper = new ObjectMapper();
 	
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+	private static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd");
 	
 	/**
 	 * Column name.
@@ -84,6 +89,12 @@ public class ColumnValue implements Validateable
 	@JsonInclude(value = JsonInclude.Include.NON_NULL)
 	private Boolean multiValued;
 	
+	/**
+	 * Flag indicating if this entry represents the column values to be loaded from the file (value),
+	 * instead of single column.
+	 */
+	private boolean columnsFile;
+	
 	/**
 	 * Instantiates a new column value.
 	 */
@@ -101,6 +112,64 @@ public class ColumnValue implements Validateable
 		this.name = column;
 		this.value = value;
 	}
+	
+	/**
+	 * Creates an entry representing the column values to be loaded from specified file. The
+	 * entry is replaced with loaded column values by {@link #resolveColumnValues(List)}.
+	 *
+	 * @param path path of the file, as specified
+	 * @param file file with column values
+	 * @return column values entry
+	 */
+	static ColumnValue newColumnsFile(String path, ExternalFile file)
+	{
+		ColumnValue columnValue = new ColumnValue(path, file);
+		columnValue.columnsFile = true;
+		
+		return columnValue;
+	}
+	
+	/**
+	 * Replaces the entries representing column-value files, if any, with the column values loaded
+	 * from the files.
+	 * 
+	 * @param columnValues column values to resolve
+	 * @return resolved column values
+	 */
+	@SuppressWarnings("unchecked")
+	static List<ColumnValue> resolveColumnValues(List<ColumnValue> columnValues)
+	{
+		if(columnValues == null || !columnValues.stream().anyMatch(colVal -> colVal.columnsFile))
+		{
+			return columnValues;
+		}
+		
+		List<ColumnValue> resolvedValues = new ArrayList<>();
+		
+		for(ColumnValue colVal : columnValues)
+		{
+			if(!colVal.columnsFile)
+			{
+				resolvedValues.add(colVal);
+				continue;
+			}
+			
+			ExternalFile file = (ExternalFile) colVal.value;
+			Object content = file.getContent();
+			
+			if(!(content instanceof Map))
+			{
+				throw new InvalidStateException("File {} resulted in non-map value for column values", file.getFile().getPath());
+			}
+			
+			for(Map.Entry<String, Object> mapEntry : ((Map<String, Object>) content).entrySet())
+			{
+				resolvedValues.add(new ColumnValue(mapEntry.getKey(), mapEntry.getValue()));
+			}
+		}
+		
+		return resolvedValues;
+	}
 
 	/**
 	 * Sets the column name.
@@ -139,8 +208,17 @@ public class ColumnValue implements Validateable
 		try
 		{
 			Document bsonQueryDoc = Document.parse(valueQuery);
+			
+			long startTime = System.nanoTime();
 			String resultJson = database.runCommand(bsonQueryDoc).toJson();
 			
+			ChangeMetrics metrics = ChangeMetrics.getCurrent();
+			
+			if(metrics != null)
+			{
+				metrics.addValueQueryNanos(System.nanoTime() - startTime);
+			}
+			
 			Object result = objectMapper.readValue(resultJson, Object.class);
 			
 			logger.debug("Got result of subquery as: {}", result);
@@ -178,6 +256,12 @@ public class ColumnValue implements Validateable
 	 */
 	public Object getValue(MongoDatabase database)
 	{
+		//external file content is loaded only when needed
+		if(value instanceof ExternalFile)
+		{
+			return ((ExternalFile) value).getContent();
+		}
+		
 		if(value != null)
 		{
 			return value;
@@ -293,7 +377,7 @@ public class ColumnValue implements Validateable
 	 */
 	public void setValueFromFile(String file)
 	{
-		this.value = MongoDbMethods.loadTextFile(file);
+		this.value = new ExternalFile(DatabaseChangeLogFactory.getExternalFile(file), ExternalFile.Format.TEXT);
 	}
 	
 	/**
@@ -303,7 +387,7 @@ public class ColumnValue implements Validateable
 	 */
 	public void setJsonFromFile(String file)
 	{
-		this.value = MongoDbMethods.loadJsonFile(file);
+		this.value = new ExternalFile(DatabaseChangeLogFactory.getExternalFile(file), ExternalFile.Format.JSON);
 	}
 
 	/**
@@ -313,10 +397,7 @@ public class ColumnValue implements Validateable
 	 */
 	public void setXmlFromFile(String file)
 	{
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, file);
-		
-		value = PapilioUtils.loadXml(fileObj);
+		value = new ExternalFile(DatabaseChangeLogFactory.getExternalFile(file), ExternalFile.Format.XML);
 	}
 
 	/**
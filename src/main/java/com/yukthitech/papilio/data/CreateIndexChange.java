@@ -15,6 +15,7 @@
  */
 package com.yukthitech.papilio.data;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,12 +30,16 @@ import com.yukthitech.ccg.xml.util.Validateable;
  */
 public class CreateIndexChange extends AbstractOptionBasedChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Column to be indexed with details.
 	 * @author akiran
 	 */
-	public static class IndexColumn implements Validateable
+	public static class IndexColumn implements Validateable, Serializable
 	{
+		private static final long serialVersionUID = 1L;
+
 		/**
 		 * Name of the column.
 		 */
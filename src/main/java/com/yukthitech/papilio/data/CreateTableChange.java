@@ -27,6 +27,8 @@ import com.yukthitech.ccg.xml.util.Validateable;
  */
 public class CreateTableChange extends AbstractOptionBasedChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Table or collection name.
 	 */
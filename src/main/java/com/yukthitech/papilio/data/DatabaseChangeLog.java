@@ -16,15 +16,28 @@
 package com.yukthitech.papilio.data;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
 import com.yukthitech.papilio.InvalidConfigurationException;
 import com.yukthitech.utils.exceptions.InvalidArgumentException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
 
 /**
  * Represents database change list.
@@ -32,6 +45,8 @@ import com.yukthitech.utils.exceptions.InvalidArgumentException;
  */
 public class DatabaseChangeLog implements Validateable
 {
+	private static Logger logger = LogManager.getLogger(DatabaseChangeLog.class);
+	
 	/**
 	 * File from which this log is being loaded.
 	 */
@@ -47,6 +62,93 @@ public class DatabaseChangeLog implements Validateable
 	 */
 	private Set<String> changesetIds = new HashSet<>();
 	
+	/**
+	 * Changelog files loaded, including this file and included files.
+	 */
+	private List<File> files = new ArrayList<>();
+	
+	/**
+	 * Flag indicating if includes should be loaded. When disabled, only changesets of this file are loaded.
+	 */
+	private boolean includesEnabled = true;
+	
+	/**
+	 * Resolver used to resolve included files without parsing, if any.
+	 */
+	private IIncludeResolver includeResolver;
+	
+	/**
+	 * Flag indicating if this file has includes.
+	 */
+	private boolean hasIncludes = false;
+	
+	/**
+	 * Included files (at any level) which do not have further includes.
+	 */
+	private List<File> includedLeafFiles = new ArrayList<>();
+	
+	/**
+	 * Ids of the changesets loaded from manifest or include resolver, which are not yet parsed from their files.
+	 */
+	private Set<String> unparsedChangeSetIds = new HashSet<>();
+	
+	/**
+	 * External files (like value files and script files) referred by the parsed or restored changelog
+	 * files, mapped by the changelog file.
+	 */
+	private Map<File, Set<File>> externalFiles = new HashMap<>();
+	
+	/**
+	 * Included file being loaded concurrently, along with the position (in changesets of this file) where
+	 * its changesets should be added.
+	 */
+	private static class PendingInclude
+	{
+		/**
+		 * Position in changesets of this file.
+		 */
+		private int position;
+		
+		/**
+		 * Path of included file, as specified in include.
+		 */
+		private String includePath;
+		
+		/**
+		 * Canonical path of included file.
+		 */
+		private String path;
+		
+		/**
+		 * Future of included changelog.
+		 */
+		private CompletableFuture<DatabaseChangeLog> future;
+		
+		private PendingInclude(int position, String includePath, String path, CompletableFuture<DatabaseChangeLog> future)
+		{
+			this.position = position;
+			this.includePath = includePath;
+			this.path = path;
+			this.future = future;
+		}
+	}
+	
+	/**
+	 * Includes of this file being loaded concurrently.
+	 */
+	private List<PendingInclude> pendingIncludes = new ArrayList<>();
+	
+	/**
+	 * Included changelogs by canonical path, shared by all files of root changelog. Used to load every
+	 * included file only once.
+	 */
+	private Map<String, CompletableFuture<DatabaseChangeLog>> includeLogs;
+	
+	/**
+	 * Cache used to restore and store snapshots of this file and included files, if any.
+	 */
+	private ChangeLogSnapshotCache snapshotCache;
+	
 	public DatabaseChangeLog(File file)
 	{
 		if(file == null)
@@ -55,6 +157,111 @@ public class DatabaseChangeLog implements Validateable
 		}
 		
 		this.file = file;
+		this.files.add(file);
+	}
+	
+	/**
+	 * Creates changelog with changesets from specified manifest. Loaded changesets will have only checksums
+	 * and no changes, till they are parsed using {@link #loadPendingChangeSets(Predicate)}.
+	 * @param file root changelog file
+	 * @param manifest manifest to use
+	 * @return changelog with changesets from manifest
+	 */
+	static DatabaseChangeLog fromManifest(File file, ChangeLogManifest manifest)
+	{
+		DatabaseChangeLog log = new DatabaseChangeLog(file);
+		Path rootFolder = ChangeLogManifest.getRootFolder(file);
+		
+		for(ChangeLogManifest.Entry entry : manifest.getChangeSets())
+		{
+			ChangeSet changeSet = log.addUnparsedChangeSet(entry.getId(), ChangeLogManifest.toFile(rootFolder, entry.getFile()), entry.getChecksum());
+			changeSet.setAuthor(entry.getAuthor());
+			changeSet.setLegacyChecksum(entry.getLegacyChecksum());
+		}
+		
+		return log;
+	}
+	
+	/**
+	 * Adds changeset with specified details, which is not parsed from its file.
+	 * @param id id of changeset
+	 * @param sourceFile file in which changeset is defined
+	 * @param checksum checksum of changeset
+	 * @return changeset added
+	 */
+	private ChangeSet addUnparsedChangeSet(String id, File sourceFile, String checksum)
+	{
+		ChangeSet changeSet = new ChangeSet();
+		changeSet.setId(id);
+		changeSet.setFileName(sourceFile.getName());
+		changeSet.setSourceFile(sourceFile);
+		changeSet.setChecksum(checksum);
+		
+		changeSets.add(changeSet);
+		unparsedChangeSetIds.add(id);
+		return changeSet;
+	}
+	
+	/**
+	 * Sets the flag indicating if includes should be loaded.
+	 *
+	 * @param includesEnabled the new flag indicating if includes should be loaded
+	 */
+	void setIncludesEnabled(boolean includesEnabled)
+	{
+		this.includesEnabled = includesEnabled;
+	}
+	
+	/**
+	 * Sets the resolver used to resolve included files without parsing.
+	 *
+	 * @param includeResolver the new resolver used to resolve included files
+	 */
+	void setIncludeResolver(IIncludeResolver includeResolver)
+	{
+		this.includeResolver = includeResolver;
+	}
+	
+	/**
+	 * Sets the included changelogs by canonical path, shared by all files of root changelog.
+	 *
+	 * @param includeLogs the new included changelogs by canonical path
+	 */
+	void setIncludeLogs(Map<String, CompletableFuture<DatabaseChangeLog>> includeLogs)
+	{
+		this.includeLogs = includeLogs;
+	}
+	
+	/**
+	 * Sets the cache used to restore and store snapshots of this file and included files.
+	 *
+	 * @param snapshotCache the new cache used for snapshots
+	 */
+	void setSnapshotCache(ChangeLogSnapshotCache snapshotCache)
+	{
+		this.snapshotCache = snapshotCache;
+	}
+	
+	/**
+	 * Sets the external files referred by this file. Should be called only when this file is parsed or restored.
+	 *
+	 * @param externalFiles external files referred by this file
+	 */
+	void setExternalFiles(Set<File> externalFiles)
+	{
+		this.externalFiles.put(file, externalFiles);
+	}
+	
+	/**
+	 * Gets the external files referred by specified changelog file (this file or included file).
+	 *
+	 * @param changeLogFile changelog file whose external files are needed
+	 * @return external files referred, null if the file was not parsed or restored (like when
+	 * loaded from manifest or include resolver)
+	 */
+	public Set<File> getExternalFiles(File changeLogFile)
+	{
+		return externalFiles.get(changeLogFile);
 	}
 
 	/**
@@ -68,8 +275,147 @@ public class DatabaseChangeLog implements Validateable
 			throw new NullPointerException("Include can not be null");
 		}
 		
-		DatabaseChangeLog logFromInclude = DatabaseChangeLogFactory.load( new File(file.getParentFile(), include.getPath()) );
-		this.changeSets.addAll(logFromInclude.changeSets);
+		hasIncludes = true;
+		
+		if(!includesEnabled)
+		{
+			return;
+		}
+		
+		//included files are loaded concurrently and their changesets are added, in order, by completeIncludes()
+		File includeFile = new File(file.getParentFile(), include.getPath());
+		String path = getCanonicalPath(includeFile);
+		
+		CompletableFuture<DatabaseChangeLog> future = includeLogs.computeIfAbsent(path, 
+				key -> CompletableFuture.supplyAsync(() -> loadInclude(includeFile)));
+		
+		pendingIncludes.add(new PendingInclude(changeSets.size(), include.getPath(), path, future));
+	}
+	
+	/**
+	 * Loads specified included file, using include resolver if possible.
+	 * @param includeFile file to load
+	 * @return loaded changelog
+	 */
+	private DatabaseChangeLog loadInclude(File includeFile)
+	{
+		Map<String, String> resolvedChangeSets = (includeResolver != null) ? includeResolver.resolve(includeFile) : null;
+		
+		if(resolvedChangeSets == null)
+		{
+			return DatabaseChangeLogFactory.load(includeFile, includeResolver, includeLogs, snapshotCache);
+		}
+		
+		DatabaseChangeLog log = new DatabaseChangeLog(includeFile);
+		
+		for(Map.Entry<String, String> entry : resolvedChangeSets.entrySet())
+		{
+			log.addUnparsedChangeSet(entry.getKey(), includeFile, entry.getValue());
+		}
+		
+		return log;
+	}
+	
+	/**
+	 * Waits for the included files (at all levels) to load and adds their changesets in include order. Files included
+	 * more than once are considered only at their first occurrence. Should be called only on root changelog, after
+	 * its parsing.
+	 */
+	void completeIncludes()
+	{
+		Set<String> visitedFiles = new HashSet<>();
+		visitedFiles.add(getCanonicalPath(file));
+		
+		completeIncludes(visitedFiles);
+		
+		Set<String> ids = new HashSet<>();
+		
+		for(ChangeSet changeSet : changeSets)
+		{
+			if(!ids.add(changeSet.getId()))
+			{
+				throw new InvalidConfigurationException("Duplicate changeset id encountered: {}", changeSet.getId());
+			}
+		}
+	}
+	
+	private void completeIncludes(Set<String> visitedFiles)
+	{
+		if(pendingIncludes.isEmpty())
+		{
+			return;
+		}
+		
+		List<ChangeSet> allChangeSets = new ArrayList<>();
+		int index = 0;
+		
+		for(PendingInclude include : pendingIncludes)
+		{
+			allChangeSets.addAll(changeSets.subList(index, include.position));
+			index = include.position;
+			
+			if(!visitedFiles.add(include.path))
+			{
+				logger.debug("Ignoring repeated include of file: {}", include.path);
+				continue;
+			}
+			
+			DatabaseChangeLog logFromInclude = null;
+			
+			try
+			{
+				logFromInclude = include.future.join();
+			}catch(CompletionException ex)
+			{
+				throw (ex.getCause() instanceof RuntimeException) ? 
+						(RuntimeException) ex.getCause() : new InvalidStateException("An error occurred while loading included file: {}", include.path, ex.getCause());
+			}
+			
+			logFromInclude.completeIncludes(visitedFiles);
+			
+			allChangeSets.addAll(logFromInclude.changeSets);
+			this.unparsedChangeSetIds.addAll(logFromInclude.unparsedChangeSetIds);
+			this.files.addAll(logFromInclude.files);
+			this.includedLeafFiles.addAll(logFromInclude.getLeafFiles());
+			this.externalFiles.putAll(logFromInclude.externalFiles);
+		}
+		
+		allChangeSets.addAll(changeSets.subList(index, changeSets.size()));
+		
+		changeSets = allChangeSets;
+		pendingIncludes.clear();
+	}
+	
+	/**
+	 * Invokes specified consumers for the changesets and includes of this file, in the order they are
+	 * specified. Should be called before completing the includes.
+	 * @param changeSetConsumer consumer for changesets
+	 * @param includeConsumer consumer for paths of includes
+	 */
+	void forEachEntry(Consumer<ChangeSet> changeSetConsumer, Consumer<String> includeConsumer)
+	{
+		int index = 0;
+		
+		for(PendingInclude include : pendingIncludes)
+		{
+			changeSets.subList(index, include.position).forEach(changeSetConsumer);
+			index = include.position;
+			
+			includeConsumer.accept(include.includePath);
+		}
+		
+		changeSets.subList(index, changeSets.size()).forEach(changeSetConsumer);
+	}
+	
+	private static String getCanonicalPath(File file)
+	{
+		try
+		{
+			return file.getCanonicalPath();
+		}catch(IOException ex)
+		{
+			throw new InvalidStateException("Failed to fetch canonical path of file: {}", file.getPath(), ex);
+		}
 	}
 	
 	/**
@@ -90,6 +436,7 @@ public class DatabaseChangeLog implements Validateable
 		}
 		
 		changeSet.setFileName(file.getName());
+		changeSet.setSourceFile(file);
 		this.changeSets.add(changeSet);
 		this.changesetIds.add(changeSet.getId());
 	}
@@ -99,15 +446,115 @@ public class DatabaseChangeLog implements Validateable
 	 *
 	 * @return the list of changesets to be executed
 	 */
-	public List<ChangeSet> getChangeSets()
+	public synchronized List<ChangeSet> getChangeSets()
 	{
 		return changeSets;
 	}
 	
+	/**
+	 * Gets the file from which this log is loaded.
+	 *
+	 * @return the file from which this log is loaded
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Gets the changelog files loaded, including this file and included files.
+	 *
+	 * @return the changelog files loaded
+	 */
+	public List<File> getFiles()
+	{
+		return files;
+	}
+	
+	/**
+	 * Gets the loaded changelog files which do not have includes.
+	 *
+	 * @return the loaded changelog files which do not have includes
+	 */
+	public List<File> getLeafFiles()
+	{
+		List<File> leafFiles = new ArrayList<>();
+		
+		if(!hasIncludes)
+		{
+			leafFiles.add(file);
+		}
+		
+		leafFiles.addAll(includedLeafFiles);
+		return leafFiles;
+	}
+	
+	/**
+	 * For changesets loaded from manifest or include resolver, parses the ones matching with specified predicate from
+	 * their files and replaces the unparsed changesets. Only the files having such changesets are parsed (without includes).
+	 * @param isPending predicate to check if changeset needs to be parsed
+	 * @return true if any changeset is parsed
+	 */
+	public synchronized boolean loadPendingChangeSets(Predicate<ChangeSet> isPending)
+	{
+		if(unparsedChangeSetIds.isEmpty())
+		{
+			return false;
+		}
+		
+		Map<File, List<Integer>> pendingIndexes = new LinkedHashMap<>();
+		
+		for(int i = 0; i < changeSets.size(); i++)
+		{
+			ChangeSet changeSet = changeSets.get(i);
+			
+			if(unparsedChangeSetIds.contains(changeSet.getId()) && isPending.test(changeSet))
+			{
+				pendingIndexes.computeIfAbsent(changeSet.getSourceFile(), key -> new ArrayList<>()).add(i);
+			}
+		}
+		
+		if(pendingIndexes.isEmpty())
+		{
+			return false;
+		}
+		
+		//list is replaced instead of updating, as the current list might be in use by other threads
+		List<ChangeSet> newChangeSets = new ArrayList<>(changeSets);
+		
+		for(Map.Entry<File, List<Integer>> entry : pendingIndexes.entrySet())
+		{
+			Map<String, ChangeSet> fileChangeSets = new HashMap<>();
+			
+			for(ChangeSet changeSet : DatabaseChangeLogFactory.load(entry.getKey(), false).changeSets)
+			{
+				fileChangeSets.put(changeSet.getId(), changeSet);
+			}
+			
+			for(Integer index : entry.getValue())
+			{
+				String id = changeSets.get(index).getId();
+				ChangeSet changeSet = fileChangeSets.get(id);
+				
+				if(changeSet == null)
+				{
+					throw new InvalidStateException("Changeset '{}' is not found in its file: {}", id, entry.getKey().getPath());
+				}
+				
+				newChangeSets.set(index, changeSet);
+				unparsedChangeSetIds.remove(id);
+			}
+		}
+		
+		changeSets = newChangeSets;
+		return true;
+	}
+	
 	@Override
 	public void validate() throws ValidateException
 	{
-		if(changeSets.isEmpty())
+		//changesets of included files are added after parsing
+		if(changeSets.isEmpty() && !hasIncludes)
 		{
 			throw new ValidateException("Changesets is empty from file: " + file.getName());
 		}
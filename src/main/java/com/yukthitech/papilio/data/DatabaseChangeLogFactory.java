@@ -17,7 +17,17 @@ package com.yukthitech.papilio.data;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.util.Stack;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.yukthitech.ccg.xml.DefaultParserHandler;
 import com.yukthitech.ccg.xml.XMLBeanParser;
@@ -29,49 +39,91 @@ import com.yukthitech.utils.exceptions.InvalidStateException;
  */
 public class DatabaseChangeLogFactory
 {
-	private static ThreadLocal<Stack<File>> logFileStack = new ThreadLocal<>();
+	private static Logger logger = LogManager.getLogger(DatabaseChangeLogFactory.class);
 	
 	/**
-	 * Adds the specified file to the current thread file stack.
-	 * @param file
+	 * File being parsed along with the external files (scripts, json, xml etc) referred by it.
 	 */
-	private static void pushFile(File file)
+	private static class FileFrame
 	{
-		Stack<File> files = logFileStack.get();
+		private File file;
 		
-		if(files == null)
+		/**
+		 * External files referred by the file.
+		 */
+		private Set<File> externalFiles = new LinkedHashSet<>();
+		
+		private FileFrame(File file)
 		{
-			files = new Stack<>();
-			logFileStack.set(files);
+			this.file = file;
 		}
-		
-		files.push(file);
 	}
 	
 	/**
-	 * Removes specified file from current thread file stack.
+	 * Files being parsed by current thread. As included files are parsed concurrently (by different threads),
+	 * stack of every thread has only the files being parsed by that thread.
+	 */
+	private static ThreadLocal<Deque<FileFrame>> logFileStack = ThreadLocal.withInitial(ArrayDeque::new);
+	
+	/**
+	 * Adds the specified file to the current thread file stack.
 	 * @param file
 	 */
-	private static void popFile(File file)
+	private static void pushFile(File file)
 	{
-		Stack<File> files = logFileStack.get();
-		files.pop();
+		logFileStack.get().push(new FileFrame(file));
 	}
 	
 	/**
-	 * Fetches the latest file from the current thread file stack.
-	 * @return
+	 * Removes latest file from current thread file stack.
+	 * @return removed file frame
 	 */
-	public static File getCurrentFile()
+	private static FileFrame popFile()
 	{
-		Stack<File> files = logFileStack.get();
+		Deque<FileFrame> frames = logFileStack.get();
+		FileFrame frame = frames.pop();
 		
-		if(files == null || files.isEmpty())
+		//avoid retaining the stack on pool threads
+		if(frames.isEmpty())
 		{
-			return null;
+			logFileStack.remove();
 		}
 		
-		return files.peek();
+		return frame;
+	}
+	
+	/**
+	 * Fetches the latest file from the current thread file stack.
+	 * @return
+	 */
+	public static File getCurrentFile()
+	{
+		FileFrame frame = logFileStack.get().peek();
+		return (frame != null) ? frame.file : null;
+	}
+	
+	/**
+	 * Resolves specified path relative to the current file and tracks it as an external file
+	 * referred by current file. Resolved file is absolute, so that it can be relocated when restored
+	 * from snapshots.
+	 * @param path path relative to current file
+	 * @return resolved file
+	 */
+	public static File getExternalFile(String path)
+	{
+		File file = new File(getCurrentFile().getParentFile(), path).getAbsoluteFile().toPath().normalize().toFile();
+		addExternalFile(file);
+		
+		return file;
+	}
+	
+	/**
+	 * Tracks specified file as an external file referred by current file.
+	 * @param file external file
+	 */
+	static void addExternalFile(File file)
+	{
+		logFileStack.get().peek().externalFiles.add(file);
 	}
 	
 	/**
@@ -80,9 +132,80 @@ public class DatabaseChangeLogFactory
 	 * @return
 	 */
 	public static DatabaseChangeLog load(File file)
+	{
+		return load(file, (IIncludeResolver) null);
+	}
+	
+	/**
+	 * Loads the database change log from specified file.
+	 * @param file file to load
+	 * @param includesEnabled if false, included files will not be loaded
+	 * @return loaded change log
+	 */
+	static DatabaseChangeLog load(File file, boolean includesEnabled)
+	{
+		return load(file, includesEnabled, null, null, null);
+	}
+	
+	/**
+	 * Loads the database change log from specified file. Included files are parsed concurrently on common
+	 * fork-join pool and included files which can be resolved by specified resolver are not parsed.
+	 * @param file file to load
+	 * @param includeResolver resolver to resolve included files, can be null
+	 * @return loaded change log
+	 */
+	public static DatabaseChangeLog load(File file, IIncludeResolver includeResolver)
+	{
+		return load(file, includeResolver, null);
+	}
+	
+	/**
+	 * Loads the database change log from specified file. Included files are parsed concurrently on common
+	 * fork-join pool and included files which can be resolved by specified resolver are not parsed. Files
+	 * having valid snapshot in specified cache are restored from snapshot, instead of parsing.
+	 * @param file file to load
+	 * @param includeResolver resolver to resolve included files, can be null
+	 * @param snapshotCache snapshot cache to use, can be null
+	 * @return loaded change log
+	 */
+	public static DatabaseChangeLog load(File file, IIncludeResolver includeResolver, ChangeLogSnapshotCache snapshotCache)
+	{
+		DatabaseChangeLog log = load(file, true, includeResolver, new ConcurrentHashMap<>(), snapshotCache);
+		log.completeIncludes();
+		
+		return log;
+	}
+	
+	/**
+	 * Loads the included file, whose includes are completed by the root changelog.
+	 * @param file file to load
+	 * @param includeResolver resolver to resolve included files
+	 * @param includeLogs included changelogs shared by all files of root changelog
+	 * @param snapshotCache snapshot cache to use, can be null
+	 * @return loaded change log
+	 */
+	static DatabaseChangeLog load(File file, IIncludeResolver includeResolver, Map<String, CompletableFuture<DatabaseChangeLog>> includeLogs, 
+			ChangeLogSnapshotCache snapshotCache)
+	{
+		return load(file, true, includeResolver, includeLogs, snapshotCache);
+	}
+	
+	private static DatabaseChangeLog load(File file, boolean includesEnabled, IIncludeResolver includeResolver, 
+			Map<String, CompletableFuture<DatabaseChangeLog>> includeLogs, ChangeLogSnapshotCache snapshotCache)
 	{
 		DatabaseChangeLog log = new DatabaseChangeLog(file);
+		log.setIncludesEnabled(includesEnabled);
+		log.setIncludeResolver(includeResolver);
+		log.setIncludeLogs(includeLogs);
+		log.setSnapshotCache(snapshotCache);
+		
+		if(snapshotCache != null && snapshotCache.restore(log))
+		{
+			return log;
+		}
+		
 		pushFile(file);
+		FileFrame frame = null;
 
 		try
 		{
@@ -98,9 +221,82 @@ public class DatabaseChangeLogFactory
 			throw new InvalidStateException("An error occurred while loading changelog from file: {}", file.getPath(), ex);
 		} finally
 		{
-			popFile(file);
+			frame = popFile();
+		}
+		
+		log.setExternalFiles(frame.externalFiles);
+		
+		if(snapshotCache != null)
+		{
+			snapshotCache.store(log, frame.externalFiles);
 		}
 		
 		return log;
 	}
+	
+	/**
+	 * Parses the changelog fragment (having single changeset) read from specified file.
+	 * @param file file from which fragment is read
+	 * @param is stream of the fragment
+	 * @return changeset of the fragment
+	 */
+	static ChangeSet loadChangeSet(File file, InputStream is)
+	{
+		DatabaseChangeLog log = new DatabaseChangeLog(file);
+		log.setIncludesEnabled(false);
+		pushFile(file);
+
+		try
+		{
+			DefaultParserHandler defaultParserHandler = new DefaultParserHandler();
+			defaultParserHandler.setExpressionEnabled(false);
+			
+			XMLBeanParser.parse(is, log, defaultParserHandler);
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while loading changeset from file: {}", file.getPath(), ex);
+		} finally
+		{
+			popFile();
+		}
+		
+		return log.getChangeSets().get(0);
+	}
+	
+	/**
+	 * Loads the database change log from specified manifest, if digests of all changelog files match with
+	 * the manifest.
+	 * @param file root changelog file
+	 * @param manifestFile manifest file to use
+	 * @param algorithm checksum algorithm in use
+	 * @return loaded change log or null, if manifest cannot be used
+	 */
+	public static DatabaseChangeLog loadFromManifest(File file, File manifestFile, String algorithm)
+	{
+		if(!manifestFile.exists())
+		{
+			logger.warn("Specified manifest file does not exist: {}", manifestFile.getPath());
+			return null;
+		}
+		
+		ChangeLogManifest manifest = ChangeLogManifest.read(manifestFile);
+		
+		if(!algorithm.equals(manifest.getAlgorithm()))
+		{
+			logger.warn("Ignoring manifest as it is generated with different checksum algorithm [Manifest: {}, Current: {}]", 
+					manifest.getAlgorithm(), algorithm);
+			return null;
+		}
+		
+		String modifiedFile = manifest.findModifiedFile(file);
+		
+		if(modifiedFile != null)
+		{
+			logger.warn("Ignoring manifest as changelog file is modified after manifest generation: {}", modifiedFile);
+			return null;
+		}
+		
+		logger.debug("Loaded {} changesets from manifest: {}", manifest.getChangeSets().size(), manifestFile.getPath());
+		return DatabaseChangeLog.fromManifest(file, manifest);
+	}
 }
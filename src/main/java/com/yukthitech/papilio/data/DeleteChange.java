@@ -29,6 +29,8 @@ import com.yukthitech.ccg.xml.util.Validateable;
  */
 public class DeleteChange extends AbstractOptionBasedChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Table name from which deletion should be done.
 	 */
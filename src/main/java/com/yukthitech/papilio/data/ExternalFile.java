@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.yukthitech.papilio.common.ChecksumEvaluator;
+import com.yukthitech.papilio.common.PapilioUtils;
+import com.yukthitech.utils.exceptions.InvalidArgumentException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * External file (script, json, xml etc) referred by a change, whose content is loaded only when
+ * the change is executed. For checksum evaluation, digest of file bytes is used instead of content.
+ * 
+ * @author akiran
+ */
+public class ExternalFile implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Algorithm used for file digest.
+	 */
+	private static final String DIGEST_ALGORITHM = ChecksumEvaluator.SHA_256;
+	
+	/**
+	 * Flag indicating if content should be used instead of digest during checksum evaluation,
+	 * on current thread.
+	 */
+	private static ThreadLocal<Boolean> contentMode = ThreadLocal.withInitial(() -> false);
+	
+	/**
+	 * Formats of external files.
+	 */
+	public static enum Format
+	{
+		/**
+		 * Text content read using utf8.
+		 */
+		TEXT,
+		
+		/**
+		 * Script content read using default charset.
+		 */
+		SCRIPT,
+		
+		/**
+		 * Json content, which is parsed into object.
+		 */
+		JSON,
+		
+		/**
+		 * Xml content, which is parsed into map.
+		 */
+		XML
+	}
+	
+	/**
+	 * File to be loaded.
+	 */
+	private File file;
+	
+	/**
+	 * Format of file.
+	 */
+	private Format format;
+	
+	/**
+	 * Digest of the file bytes, evaluated when needed.
+	 */
+	private volatile String digest;
+	
+	/**
+	 * Instantiates a new external file.
+	 *
+	 * @param file file to be loaded
+	 * @param format format of file
+	 */
+	public ExternalFile(File file, Format format)
+	{
+		if(!file.exists())
+		{
+			throw new InvalidArgumentException("Invalid/non-existing file specified: {}", file.getPath());
+		}
+		
+		this.file = file;
+		this.format = format;
+	}
+	
+	/**
+	 * Gets the file to be loaded.
+	 *
+	 * @return the file to be loaded
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Relocates the file of this external file from specified folder to specified folder, retaining
+	 * its relative path. Used when external files are restored from snapshots. Files specified relative
+	 * to working directory are not relocated.
+	 * 
+	 * @param fromFolder folder relative to which file was resolved
+	 * @param toFolder folder to which file should be relocated
+	 */
+	void relocate(Path fromFolder, Path toFolder)
+	{
+		if(fromFolder.equals(toFolder) || !file.isAbsolute())
+		{
+			return;
+		}
+		
+		this.file = toFolder.resolve(fromFolder.relativize(file.toPath().normalize())).toFile();
+	}
+	
+	/**
+	 * Gets the format of file.
+	 *
+	 * @return the format of file
+	 */
+	public Format getFormat()
+	{
+		return format;
+	}
+	
+	/**
+	 * Gets the digest of file bytes, evaluating it on first access.
+	 *
+	 * @return the digest of file bytes
+	 */
+	public String getDigest()
+	{
+		if(digest == null)
+		{
+			digest = ChecksumEvaluator.evaluateFileChecksum(file, DIGEST_ALGORITHM);
+		}
+		
+		return digest;
+	}
+	
+	/**
+	 * Loads and parses (based on format) the content of the file. Content is served from
+	 * {@link ExternalFileCache}, when the file is already loaded and is not modified.
+	 * 
+	 * @return loaded content
+	 */
+	public Object getContent()
+	{
+		return ExternalFileCache.getInstance().getContent(file, format);
+	}
+	
+	/**
+	 * Loads and parses the content of specified file based on specified format.
+	 * 
+	 * @param file file to load
+	 * @param format format of file
+	 * @return loaded content
+	 */
+	static Object loadContent(File file, Format format)
+	{
+		try
+		{
+			switch(format)
+			{
+				case TEXT:
+					return FileUtils.readFileToString(file, Charset.forName("utf8"));
+				case SCRIPT:
+					return FileUtils.readFileToString(file, Charset.defaultCharset());
+				case JSON:
+					return PapilioUtils.parseJson(FileUtils.readFileToString(file, Charset.forName("utf8")));
+				default:
+					return PapilioUtils.loadXml(file);
+			}
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("Failed to load {} content from file: {}", format, file.getPath(), ex);
+		}
+	}
+	
+	/**
+	 * Value used for checksum evaluation. Which would be the digest of the file, unless evaluation
+	 * is done using {@link #evaluateWithContent(Supplier)}.
+	 * 
+	 * @return value for checksum
+	 */
+	@JsonValue
+	public Object getChecksumValue()
+	{
+		if(isContentMode())
+		{
+			return getContent();
+		}
+		
+		Map<String, Object> value = new LinkedHashMap<>();
+		value.put("format", format.name());
+		value.put("digest", getDigest());
+		
+		return value;
+	}
+	
+	/**
+	 * Checks if content of external files should be used (instead of digest) during checksum
+	 * evaluation on current thread.
+	 * 
+	 * @return true if content should be used
+	 */
+	public static boolean isContentMode()
+	{
+		return contentMode.get();
+	}
+	
+	/**
+	 * Invokes specified supplier, with content (instead of digest) of external files being used
+	 * for checksum evaluation. Used to evaluate checksums the way they were evaluated when
+	 * external files were loaded during parsing.
+	 * 
+	 * @param supplier supplier to invoke
+	 * @return result of supplier
+	 */
+	public static <T> T evaluateWithContent(Supplier<T> supplier)
+	{
+		contentMode.set(true);
+		
+		try
+		{
+			return supplier.get();
+		}finally
+		{
+			contentMode.remove();
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return format + ":" + file.getPath();
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-run cache of parsed content of external files, keyed by canonical path and format of the file. Cached
+ * content is used only when size and modified time of the file are not changed. Cache is bounded by total size of
+ * cached files and least recently used entries are evicted. As parsed json/xml content is mutable, callers
+ * get copies of the cached content.
+ * 
+ * @author akiran
+ */
+public class ExternalFileCache
+{
+	/**
+	 * Default maximum total size of cached files.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	
+	/**
+	 * Cache used by external files.
+	 */
+	private static ExternalFileCache instance = new ExternalFileCache(DEFAULT_MAX_BYTES);
+	
+	/**
+	 * Cached content of a file.
+	 */
+	private static class Entry
+	{
+		private long size;
+		
+		private long lastModified;
+		
+		private Object content;
+		
+		private Entry(long size, long lastModified, Object content)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.content = content;
+		}
+	}
+	
+	/**
+	 * Maximum total size of cached files.
+	 */
+	private long maxBytes;
+	
+	/**
+	 * Total size of currently cached files.
+	 */
+	private long usedBytes;
+	
+	/**
+	 * Cached entries in access order.
+	 */
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * Number of requests served from cache.
+	 */
+	private AtomicLong hitCount = new AtomicLong();
+	
+	/**
+	 * Number of requests which needed file loading.
+	 */
+	private AtomicLong missCount = new AtomicLong();
+	
+	/**
+	 * Instantiates a new external file cache.
+	 *
+	 * @param maxBytes maximum total size of cached files. Zero disables the caching.
+	 */
+	public ExternalFileCache(long maxBytes)
+	{
+		this.maxBytes = Math.max(maxBytes, 0);
+	}
+	
+	/**
+	 * Gets the cache used by external files.
+	 *
+	 * @return the cache used by external files
+	 */
+	public static ExternalFileCache getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * Sets the maximum total size of cached files. Entries are evicted as needed.
+	 *
+	 * @param maxBytes the new maximum total size. Zero disables the caching.
+	 */
+	public synchronized void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = Math.max(maxBytes, 0);
+		evict();
+	}
+	
+	/**
+	 * Fetches the parsed content of specified file, loading it if it is not cached or is modified
+	 * after caching.
+	 * 
+	 * @param file file whose content is needed
+	 * @param format format of file
+	 * @return copy of parsed content
+	 */
+	public Object getContent(File file, ExternalFile.Format format)
+	{
+		String key = format + ":" + getCanonicalPath(file);
+		long size = file.length();
+		long lastModified = file.lastModified();
+		
+		synchronized(this)
+		{
+			Entry entry = entries.get(key);
+			
+			if(entry != null && entry.size == size && entry.lastModified == lastModified)
+			{
+				hitCount.incrementAndGet();
+				return copy(entry.content);
+			}
+		}
+		
+		missCount.incrementAndGet();
+		
+		//files are loaded outside the lock, so that different files can be loaded concurrently
+		Object content = ExternalFile.loadContent(file, format);
+		
+		if(size > maxBytes)
+		{
+			return content;
+		}
+		
+		synchronized(this)
+		{
+			Entry oldEntry = entries.put(key, new Entry(size, lastModified, content));
+			usedBytes += size - ((oldEntry != null) ? oldEntry.size : 0);
+			
+			evict();
+		}
+		
+		return copy(content);
+	}
+	
+	/**
+	 * Evicts least recently used entries, till used size is within the limit.
+	 */
+	private void evict()
+	{
+		Iterator<Entry> it = entries.values().iterator();
+		
+		while(usedBytes > maxBytes && it.hasNext())
+		{
+			usedBytes -= it.next().size;
+			it.remove();
+		}
+	}
+	
+	private static String getCanonicalPath(File file)
+	{
+		try
+		{
+			return file.getCanonicalPath();
+		}catch(IOException ex)
+		{
+			return file.getAbsolutePath();
+		}
+	}
+	
+	/**
+	 * Creates deep copy of the parsed maps and lists. Other values are expected to be immutable.
+	 * @param content content to copy
+	 * @return copy of content
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object copy(Object content)
+	{
+		if(content instanceof Map)
+		{
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			
+			for(Map.Entry<Object, Object> entry : ((Map<Object, Object>) content).entrySet())
+			{
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			
+			return copy;
+		}
+		
+		if(content instanceof List)
+		{
+			List<Object> copy = new ArrayList<>(((List<Object>) content).size());
+			
+			for(Object elem : (List<Object>) content)
+			{
+				copy.add(copy(elem));
+			}
+			
+			return copy;
+		}
+		
+		return content;
+	}
+	
+	/**
+	 * Gets the number of requests served from cache.
+	 *
+	 * @return the number of requests served from cache
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+	
+	/**
+	 * Gets the number of requests which needed file loading.
+	 *
+	 * @return the number of requests which needed file loading
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+}
@@ -17,6 +17,8 @@ package com.yukthitech.papilio.data;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
 
@@ -27,10 +29,53 @@ import com.yukthitech.ccg.xml.util.Validateable;
  */
 public class FindAndUpdateChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Default number of update statements sent to db in single update command.
+	 */
+	public static final int DEFAULT_UPDATE_BATCH_SIZE = 100;
+
+	/**
+	 * Number of documents after which checkpoint is persisted, for resumable changes.
+	 */
+	public static final int CHECKPOINT_INTERVAL = 1000;
+
 	private String findQuery;
 
 	private String updateQueryTemplate;
 
+	/**
+	 * Number of documents to be fetched per round trip, while iterating finder results. When not
+	 * specified, server default is used. Does not affect the outcome, hence excluded from checksum.
+	 */
+	@JsonIgnore
+	private Integer batchSize;
+
+	/**
+	 * Max number of rendered update statements (of same collection) merged into single update command. Note
+	 * that update statements are executed only when a batch is sent, so templates which read the updated
+	 * data should set this to 1. Does not affect the outcome, hence excluded from checksum.
+	 */
+	@JsonIgnore
+	private Integer updateBatchSize;
+
+	/**
+	 * Number of workers to be used to process the finder results. When greater than 1, the source
+	 * collection is split into _id ranges which are processed in parallel (in no specific order).
+	 * Applicable only for find queries without skip and limit. Excluded from checksum.
+	 */
+	@JsonIgnore
+	private Integer parallelism;
+
+	/**
+	 * If true, finder results are processed in _id order and the last processed _id is checkpointed
+	 * periodically, so that a restarted execution resumes after it. Applicable only for find queries
+	 * without skip, limit and custom sort, in non-transactional changesets. Excluded from checksum.
+	 */
+	@JsonIgnore
+	private Boolean resumable;
+
 	public String getFindQuery()
 	{
 		return findQuery;
@@ -51,6 +96,46 @@ public class FindAndUpdateChange implements IChange, Validateable
 		this.updateQueryTemplate = updateQueryTemplate;
 	}
 
+	public Integer getBatchSize()
+	{
+		return batchSize;
+	}
+
+	public void setBatchSize(Integer batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+
+	public Integer getUpdateBatchSize()
+	{
+		return updateBatchSize;
+	}
+
+	public void setUpdateBatchSize(Integer updateBatchSize)
+	{
+		this.updateBatchSize = updateBatchSize;
+	}
+
+	public Integer getParallelism()
+	{
+		return parallelism;
+	}
+
+	public void setParallelism(Integer parallelism)
+	{
+		this.parallelism = parallelism;
+	}
+
+	public Boolean getResumable()
+	{
+		return resumable;
+	}
+
+	public void setResumable(Boolean resumable)
+	{
+		this.resumable = resumable;
+	}
+
 	@Override
 	public void validate() throws ValidateException
 	{
@@ -63,5 +148,25 @@ public class FindAndUpdateChange implements IChange, Validateable
 		{
 			throw new ValidateException("No update query template specified.");
 		}
+
+		if(batchSize != null && batchSize <= 0)
+		{
+			throw new ValidateException("Invalid batch size specified: " + batchSize);
+		}
+
+		if(updateBatchSize != null && updateBatchSize <= 0)
+		{
+			throw new ValidateException("Invalid update batch size specified: " + updateBatchSize);
+		}
+
+		if(parallelism != null && parallelism <= 0)
+		{
+			throw new ValidateException("Invalid parallelism specified: " + parallelism);
+		}
+
+		if(Boolean.TRUE.equals(resumable) && parallelism != null && parallelism > 1)
+		{
+			throw new ValidateException("Resumable find-and-update cannot be executed in parallel.");
+		}
 	}
 }
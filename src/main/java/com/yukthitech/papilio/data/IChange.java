@@ -15,10 +15,12 @@
  */
 package com.yukthitech.papilio.data;
 
+import java.io.Serializable;
+
 /**
  * Abstraction of changes that can be specified in the log.
  * @author akiran
  */
-public interface IChange
+public interface IChange extends Serializable
 {
 }
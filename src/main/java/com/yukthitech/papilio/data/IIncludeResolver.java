@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Resolver used to resolve changesets of included files, without parsing them.
+ * 
+ * @author akiran
+ */
+public interface IIncludeResolver
+{
+	/**
+	 * Resolves the changesets of specified included file.
+	 * @param file included file
+	 * @return changeset ids (in file order) mapped to their checksums, or null if file needs to be parsed
+	 */
+	public Map<String, String> resolve(File file);
+}
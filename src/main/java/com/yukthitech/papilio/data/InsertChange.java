@@ -15,21 +15,17 @@
  */
 package com.yukthitech.papilio.data;
 
-import java.io.File;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.mongodb.client.MongoDatabase;
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
-import com.yukthitech.papilio.common.PapilioUtils;
-import com.yukthitech.utils.exceptions.InvalidStateException;
 
 /**
  * Change to insert document.
@@ -37,6 +33,8 @@ import com.yukthitech.utils.exceptions.InvalidStateException;
  */
 public class InsertChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Table name to which insertion should be done.
 	 */
@@ -84,13 +82,25 @@ public class InsertChange implements IChange, Validateable
 	}
 
 	/**
-	 * Gets the list of column values.
+	 * Gets the list of column values. During content based checksum evaluation, column-value files are
+	 * replaced with column values loaded from them.
 	 *
 	 * @return the list of column values
 	 */
 	public List<ColumnValue> getColumnValues()
 	{
-		return columnValues;
+		return ExternalFile.isContentMode() ? ColumnValue.resolveColumnValues(columnValues) : columnValues;
+	}
+	
+	/**
+	 * Gets the list of column values, with column-value files replaced with column values loaded from them.
+	 *
+	 * @return the resolved list of column values
+	 */
+	@JsonIgnore
+	public List<ColumnValue> getResolvedColumnValues()
+	{
+		return ColumnValue.resolveColumnValues(columnValues);
 	}
 
 	/**
@@ -120,34 +130,11 @@ public class InsertChange implements IChange, Validateable
 	 * @param jsonFile file to load.
 	 * @return current instance
 	 */
-	@SuppressWarnings("unchecked")
 	public InsertChange addColumnValueJson(String jsonFile)
 	{
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, jsonFile);
-
-		Object value = null;
-		
-		try
-		{
-			String fileContent = FileUtils.readFileToString(fileObj, Charset.forName("utf8"));
-			value = PapilioUtils.parseJson(fileContent);
-		}catch(Exception ex)
-		{
-			throw new InvalidStateException("Failed to load json content from file: {}", fileObj.getPath(), ex);
-		}
-
-		if(!(value instanceof Map))
-		{
-			throw new InvalidStateException("Json file {} resulted in non-map value for column-value-json", fileObj.getPath());
-		}
-		
-		Map<String, Object> map = (Map<String, Object>) value;
-		
-		for(Map.Entry<String, Object> mapEntry : map.entrySet())
-		{
-			addColumnValue(new ColumnValue(mapEntry.getKey(), mapEntry.getValue()));
-		}
+		//file is loaded only when the change is executed
+		ExternalFile file = new ExternalFile(DatabaseChangeLogFactory.getExternalFile(jsonFile), ExternalFile.Format.JSON);
+		addColumnValue(ColumnValue.newColumnsFile(jsonFile, file));
 		
 		return this;
 	}
@@ -158,14 +145,22 @@ public class InsertChange implements IChange, Validateable
 	 */
 	public Map<String, Object> getColumnMap()
 	{
-		return getColumnMap(null);
+		Map<String, Object> map = new HashMap<>();
+		
+		//values are used as is, so that external files are not loaded
+		for(ColumnValue colVal : getColumnValues())
+		{
+			map.put(colVal.getName(), colVal.getValue());
+		}
+		
+		return map;
 	}
 	
 	public Map<String, Object> getColumnMap(MongoDatabase database)
 	{
 		Map<String, Object> map = new HashMap<>();
 		
-		for(ColumnValue colVal : this.columnValues)
+		for(ColumnValue colVal : getResolvedColumnValues())
 		{
 			map.put(colVal.getName(), colVal.getValue(database));
 		}
@@ -23,6 +23,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
  */
 public class QueryChange implements IChange
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Query to execute.
 	 */
@@ -15,31 +15,63 @@
  */
 package com.yukthitech.papilio.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * Change which would execute specified script.
  * @author akiran
  */
 public class ScriptChange implements IChange
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Script to execute.
 	 */
 	private String script;
 	
+	/**
+	 * File from which script should be loaded, when script is specified as file.
+	 */
+	private ExternalFile scriptFile;
+	
 	public ScriptChange(String script)
 	{
 		this.script = script;
 	}
+	
+	public ScriptChange(ExternalFile scriptFile)
+	{
+		this.scriptFile = scriptFile;
+	}
 
 	/**
-	 * Gets the script to execute.
+	 * Gets the script to execute. When script is specified as file, the file is loaded.
 	 *
 	 * @return the script to execute
 	 */
+	@JsonIgnore
 	public String getScript()
 	{
+		if(script == null && scriptFile != null)
+		{
+			return (String) scriptFile.getContent();
+		}
+		
 		return script;
 	}
+	
+	/**
+	 * Gets the script or script file, used for checksum evaluation.
+	 *
+	 * @return the script or script file
+	 */
+	@JsonProperty("script")
+	private Object getScriptValue()
+	{
+		return (script != null) ? script : scriptFile;
+	}
 
 	/**
 	 * Sets the script to execute.
@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Stack;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.yukthitech.papilio.InvalidConfigurationException;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Streaming reader of changelog files. Changesets are read lazily (in file and include order) using StAX,
+ * one changeset fragment at a time, so that only the current changeset is held in memory. Included files
+ * are read when their include element is reached.
+ * 
+ * Same as {@link DatabaseChangeLogFactory#load(File)}, files included more than once are read only at their first
+ * occurrence and duplicate changeset ids are detected across all the files.
+ * 
+ * @author akiran
+ */
+public class StreamingChangeLogReader implements Iterator<ChangeSet>, Closeable
+{
+	private static Logger logger = LogManager.getLogger(StreamingChangeLogReader.class);
+	
+	/**
+	 * Element name of changeset.
+	 */
+	private static final String CHANGE_SET = "changeSet";
+	
+	/**
+	 * Element name of include.
+	 */
+	private static final String INCLUDE = "include";
+	
+	/**
+	 * Factory used to create readers of changelog files.
+	 */
+	private static XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	
+	/**
+	 * Factory used to create writers of changeset fragments.
+	 */
+	private static XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	
+	/**
+	 * File being read.
+	 */
+	private static class FileFrame
+	{
+		/**
+		 * File being read.
+		 */
+		private File file;
+		
+		/**
+		 * Stream of the file.
+		 */
+		private InputStream inputStream;
+		
+		/**
+		 * Xml reader of the file.
+		 */
+		private XMLStreamReader reader;
+		
+		/**
+		 * Name of root element.
+		 */
+		private String rootElement;
+		
+		/**
+		 * Flag indicating if any changeset or include is read from this file.
+		 */
+		private boolean hasEntries;
+	}
+	
+	/**
+	 * Files being read, with current file on top.
+	 */
+	private Stack<FileFrame> frames = new Stack<>();
+	
+	/**
+	 * Canonical paths of the files read so far, used to ignore repeated includes.
+	 */
+	private Set<String> visitedFiles = new HashSet<>();
+	
+	/**
+	 * Ids of changesets read so far.
+	 */
+	private Set<String> changeSetIds = new HashSet<>();
+	
+	/**
+	 * Next changeset to be returned.
+	 */
+	private ChangeSet nextChangeSet;
+	
+	/**
+	 * Instantiates a new reader for specified root changelog file.
+	 *
+	 * @param file root changelog file
+	 */
+	public StreamingChangeLogReader(File file)
+	{
+		visitedFiles.add(getCanonicalPath(file));
+		openFile(file);
+	}
+	
+	private void openFile(File file)
+	{
+		FileFrame frame = new FileFrame();
+		frame.file = file;
+		
+		try
+		{
+			frame.inputStream = new FileInputStream(file);
+			frame.reader = inputFactory.createXMLStreamReader(frame.inputStream);
+			frame.reader.nextTag();
+			frame.rootElement = frame.reader.getLocalName();
+		}catch(Exception ex)
+		{
+			closeFrame(frame);
+			throw new InvalidStateException("An error occurred while loading changelog from file: {}", file.getPath(), ex);
+		}
+		
+		frames.push(frame);
+	}
+	
+	@Override
+	public boolean hasNext()
+	{
+		if(nextChangeSet == null)
+		{
+			nextChangeSet = readNext();
+		}
+		
+		return nextChangeSet != null;
+	}
+	
+	@Override
+	public ChangeSet next()
+	{
+		if(!hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+		
+		ChangeSet changeSet = nextChangeSet;
+		nextChangeSet = null;
+		return changeSet;
+	}
+	
+	/**
+	 * Reads the next changeset, moving into included files and back as needed.
+	 * @return next changeset or null if all files are read
+	 */
+	private ChangeSet readNext()
+	{
+		while(!frames.isEmpty())
+		{
+			FileFrame frame = frames.peek();
+			
+			try
+			{
+				ChangeSet changeSet = readNext(frame);
+				
+				if(changeSet != null)
+				{
+					return changeSet;
+				}
+			}catch(XMLStreamException ex)
+			{
+				throw new InvalidStateException("An error occurred while loading changelog from file: {}", frame.file.getPath(), ex);
+			}
+			
+			//when included file is opened, continue with it
+			if(frames.peek() != frame)
+			{
+				continue;
+			}
+			
+			frames.pop();
+			closeFrame(frame);
+			
+			if(!frame.hasEntries)
+			{
+				throw new InvalidConfigurationException("Changesets is empty from file: {}", frame.file.getName());
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Reads next changeset from specified file. If include of a file, not read yet, is encountered, included file is opened and null is returned.
+	 * @param frame file to read
+	 * @return changeset read or null, if end of file or include is reached
+	 */
+	private ChangeSet readNext(FileFrame frame) throws XMLStreamException
+	{
+		XMLStreamReader reader = frame.reader;
+		
+		while(reader.hasNext())
+		{
+			int event = reader.next();
+			
+			//end of root element
+			if(event == XMLStreamConstants.END_ELEMENT)
+			{
+				return null;
+			}
+			
+			if(event != XMLStreamConstants.START_ELEMENT)
+			{
+				continue;
+			}
+			
+			if(CHANGE_SET.equals(reader.getLocalName()))
+			{
+				ChangeSet changeSet = DatabaseChangeLogFactory.loadChangeSet(frame.file, new ByteArrayInputStream(readFragment(frame)));
+				
+				if(!changeSetIds.add(changeSet.getId()))
+				{
+					throw new InvalidConfigurationException("Duplicate changeset id encountered: {}", changeSet.getId());
+				}
+				
+				frame.hasEntries = true;
+				return changeSet;
+			}
+			
+			if(INCLUDE.equals(reader.getLocalName()))
+			{
+				String path = reader.getAttributeValue(null, "path");
+				
+				if(StringUtils.isBlank(path))
+				{
+					throw new InvalidConfigurationException("Include without path encountered in file: {}", frame.file.getPath());
+				}
+				
+				skipElement(reader);
+				frame.hasEntries = true;
+				
+				File includeFile = new File(frame.file.getParentFile(), path);
+				
+				if(!visitedFiles.add(getCanonicalPath(includeFile)))
+				{
+					logger.debug("Ignoring repeated include of file: {}", includeFile.getPath());
+					continue;
+				}
+				
+				openFile(includeFile);
+				return null;
+			}
+			
+			throw new InvalidConfigurationException("Unsupported element '{}' encountered in file: {}", reader.getLocalName(), frame.file.getPath());
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Reads the current element of specified file as standalone changelog xml, with root element wrapping it.
+	 * @param frame file being read
+	 * @return xml bytes of the fragment
+	 */
+	private byte[] readFragment(FileFrame frame) throws XMLStreamException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XMLStreamWriter writer = outputFactory.createXMLStreamWriter(bos, "UTF-8");
+		
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeStartElement(frame.rootElement);
+		
+		copyElement(frame.reader, writer);
+		
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Copies current element (with its content) from specified reader to specified writer.
+	 */
+	private void copyElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException
+	{
+		int depth = 0;
+		
+		while(true)
+		{
+			switch(reader.getEventType())
+			{
+				case XMLStreamConstants.START_ELEMENT:
+				{
+					if(StringUtils.isEmpty(reader.getPrefix()))
+					{
+						writer.writeStartElement(reader.getLocalName());
+					}
+					else
+					{
+						writer.writeStartElement(reader.getPrefix(), reader.getLocalName(), reader.getNamespaceURI());
+					}
+					
+					for(int i = 0; i < reader.getNamespaceCount(); i++)
+					{
+						writer.writeNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+					}
+					
+					for(int i = 0; i < reader.getAttributeCount(); i++)
+					{
+						if(StringUtils.isEmpty(reader.getAttributePrefix(i)))
+						{
+							writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+						}
+						else
+						{
+							writer.writeAttribute(reader.getAttributePrefix(i), reader.getAttributeNamespace(i), 
+									reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+						}
+					}
+					
+					depth++;
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT:
+				{
+					writer.writeEndElement();
+					depth--;
+					break;
+				}
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				{
+					writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					break;
+				}
+				case XMLStreamConstants.CDATA:
+				{
+					writer.writeCData(reader.getText());
+					break;
+				}
+			}
+			
+			if(depth == 0)
+			{
+				return;
+			}
+			
+			reader.next();
+		}
+	}
+	
+	/**
+	 * Skips the current element (with its content) of specified reader.
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		
+		while(depth > 0)
+		{
+			int event = reader.next();
+			
+			if(event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if(event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+	
+	private static String getCanonicalPath(File file)
+	{
+		try
+		{
+			return file.getCanonicalPath();
+		}catch(IOException ex)
+		{
+			throw new InvalidStateException("Failed to fetch canonical path of file: {}", file.getPath(), ex);
+		}
+	}
+	
+	private void closeFrame(FileFrame frame)
+	{
+		try
+		{
+			if(frame.reader != null)
+			{
+				frame.reader.close();
+			}
+			
+			if(frame.inputStream != null)
+			{
+				frame.inputStream.close();
+			}
+		}catch(Exception ex)
+		{
+			//ignore
+		}
+	}
+	
+	/**
+	 * Closes all the files being read.
+	 */
+	@Override
+	public void close()
+	{
+		while(!frames.isEmpty())
+		{
+			closeFrame(frames.pop());
+		}
+	}
+	
+	/**
+	 * Gets the number of changesets read so far.
+	 *
+	 * @return the number of changesets read
+	 */
+	public int getReadCount()
+	{
+		return changeSetIds.size();
+	}
+}
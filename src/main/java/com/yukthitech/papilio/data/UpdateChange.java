@@ -16,18 +16,14 @@
 package com.yukthitech.papilio.data;
 
 import java.io.File;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.yukthitech.ccg.xml.util.ValidateException;
 import com.yukthitech.ccg.xml.util.Validateable;
-import com.yukthitech.papilio.common.PapilioUtils;
-import com.yukthitech.utils.exceptions.InvalidStateException;
 
 /**
  * Change to insert document.
@@ -35,6 +31,8 @@ import com.yukthitech.utils.exceptions.InvalidStateException;
  */
 public class UpdateChange extends AbstractOptionBasedChange implements IChange, Validateable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Table name to which insertion should be done.
 	 */
@@ -71,13 +69,25 @@ public class UpdateChange extends AbstractOptionBasedChange implements IChange,
 	}
 
 	/**
-	 * Gets the list of column values.
+	 * Gets the list of column values. During content based checksum evaluation, column-value files are
+	 * replaced with column values loaded from them.
 	 *
 	 * @return the list of column values
 	 */
 	public List<ColumnValue> getColumnValues()
 	{
-		return columnValues;
+		return ExternalFile.isContentMode() ? ColumnValue.resolveColumnValues(columnValues) : columnValues;
+	}
+	
+	/**
+	 * Gets the list of column values, with column-value files replaced with column values loaded from them.
+	 *
+	 * @return the resolved list of column values
+	 */
+	@JsonIgnore
+	public List<ColumnValue> getResolvedColumnValues()
+	{
+		return ColumnValue.resolveColumnValues(columnValues);
 	}
 
 	/**
@@ -117,32 +127,13 @@ public class UpdateChange extends AbstractOptionBasedChange implements IChange,
 	 * @param jsonFile file to load.
 	 * @return current instance
 	 */
-	@SuppressWarnings("unchecked")
 	public void addColumnValueJson(String jsonFile)
 	{
 		File fileObj = new File(jsonFile);
-		Object value = null;
+		DatabaseChangeLogFactory.addExternalFile(fileObj);
 		
-		try
-		{
-			String fileContent = FileUtils.readFileToString(fileObj, Charset.forName("utf8"));
-			value = PapilioUtils.parseJson(fileContent);
-		}catch(Exception ex)
-		{
-			throw new InvalidStateException("Failed to load json content from file: {}", jsonFile, ex);
-		}
-
-		if(!(value instanceof Map))
-		{
-			throw new InvalidStateException("Json file {} resulted in non-map value for column-value-json", jsonFile);
-		}
-		
-		Map<String, Object> map = (Map<String, Object>) value;
-		
-		for(Map.Entry<String, Object> mapEntry : map.entrySet())
-		{
-			addColumnValue(new ColumnValue(mapEntry.getKey(), mapEntry.getValue()));
-		}
+		//file is loaded only when the change is executed
+		addColumnValue(ColumnValue.newColumnsFile(jsonFile, new ExternalFile(fileObj, ExternalFile.Format.JSON)));
 	}
 
 	/**
@@ -153,15 +144,9 @@ public class UpdateChange extends AbstractOptionBasedChange implements IChange,
 	 */
 	public void addColumnValueXml(String xmlFile)
 	{
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, xmlFile);
-
-		Map<String, Object> map = PapilioUtils.loadXml(fileObj);
-		
-		for(Map.Entry<String, Object> mapEntry : map.entrySet())
-		{
-			addColumnValue(new ColumnValue(mapEntry.getKey(), mapEntry.getValue()));
-		}
+		//file is loaded only when the change is executed
+		ExternalFile file = new ExternalFile(DatabaseChangeLogFactory.getExternalFile(xmlFile), ExternalFile.Format.XML);
+		addColumnValue(ColumnValue.newColumnsFile(xmlFile, file));
 	}
 
 	/**
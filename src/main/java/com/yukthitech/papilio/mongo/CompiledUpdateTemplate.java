@@ -0,0 +1,395 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.mongo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.yukthitech.papilio.common.PapilioUtils;
+
+/**
+ * Update query template compiled into a document skeleton with placeholder slots, so that update
+ * query of each document can be built by binding field values directly, without template processing
+ * and json parsing. Only templates whose expressions are simple field references (optionally with
+ * lower_case, upper_case or trim built-ins) used within json strings can be compiled. 
+ * 
+ * A string which consists of only a field reference (like "${_id}") is bound with the field value
+ * itself, which retains the type of object ids.
+ * 
+ * @author akiran
+ */
+class CompiledUpdateTemplate
+{
+	private static Logger logger = LogManager.getLogger(CompiledUpdateTemplate.class);
+	
+	/**
+	 * Pattern of simple field reference expressions.
+	 */
+	private static final Pattern FIELD_EXPRESSION = Pattern.compile("\\$\\{\\s*([a-zA-Z_]\\w*(?:\\.[a-zA-Z_]\\w*)*)((?:\\?(?:lower_case|upper_case|trim))*)\\s*\\}");
+	
+	/**
+	 * Pattern to find any expression.
+	 */
+	private static final Pattern EXPRESSION = Pattern.compile("\\$\\{[^\\}]*\\}");
+	
+	/**
+	 * Character sequences indicating usage of freemarker directives or non-simple interpolations.
+	 */
+	private static final List<String> DIRECTIVE_MARKERS = Arrays.asList("<#", "</#", "<@", "</@", "[#", "[/#", "[@", "#{", "[=");
+	
+	/**
+	 * Prefix of markers used to replace the expressions, before parsing the template.
+	 */
+	private static final String SLOT_MARKER = "@@papilio-slot-";
+	
+	/**
+	 * Pattern to find the slot markers.
+	 */
+	private static final Pattern SLOT_MARKER_PATTERN = Pattern.compile(Pattern.quote(SLOT_MARKER) + "(\\d+)@@");
+	
+	/**
+	 * Field reference with built-ins to be applied on its value.
+	 */
+	private static class FieldReference
+	{
+		private String path[];
+		
+		private List<String> builtIns = new ArrayList<>();
+		
+		private FieldReference(String path, String builtIns)
+		{
+			this.path = path.split("\\.");
+			
+			for(String builtIn : builtIns.split("\\?"))
+			{
+				if(!builtIn.isEmpty())
+				{
+					this.builtIns.add(builtIn);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * String value of the skeleton which needs to be built from field references.
+	 */
+	private static class Slot
+	{
+		/**
+		 * Literal strings and field references of the slot, in order.
+		 */
+		private List<Object> parts = new ArrayList<>();
+	}
+	
+	/**
+	 * Marker value indicating the value of a slot cannot be bound.
+	 */
+	private static final Object UNBOUND = new Object();
+	
+	/**
+	 * Parsed template with slots in place of the strings using expressions.
+	 */
+	private Object skeleton;
+	
+	private CompiledUpdateTemplate(Object skeleton)
+	{
+		this.skeleton = skeleton;
+	}
+	
+	/**
+	 * Compiles specified template.
+	 * @param template template to compile
+	 * @return compiled template, null if template cannot be compiled
+	 */
+	public static CompiledUpdateTemplate compile(String template)
+	{
+		if(template.contains(SLOT_MARKER) || DIRECTIVE_MARKERS.stream().anyMatch(template::contains))
+		{
+			return null;
+		}
+		
+		List<FieldReference> references = new ArrayList<>();
+		StringBuffer markedTemplate = new StringBuffer();
+		Matcher matcher = EXPRESSION.matcher(template);
+		
+		while(matcher.find())
+		{
+			Matcher fieldMatcher = FIELD_EXPRESSION.matcher(matcher.group());
+			
+			if(!fieldMatcher.matches())
+			{
+				logger.debug("Update template uses complex expression '{}', hence it will be processed as template", matcher.group());
+				return null;
+			}
+			
+			references.add(new FieldReference(fieldMatcher.group(1), fieldMatcher.group(2)));
+			matcher.appendReplacement(markedTemplate, Matcher.quoteReplacement(SLOT_MARKER + (references.size() - 1) + "@@"));
+		}
+		
+		matcher.appendTail(markedTemplate);
+		
+		Object parsedTemplate = null;
+		
+		try
+		{
+			parsedTemplate = PapilioUtils.parseJson(markedTemplate.toString());
+		}catch(Exception ex)
+		{
+			//expressions used outside of json strings
+			logger.debug("Update template cannot be parsed as json after replacing expressions, hence it will be processed as template");
+			return null;
+		}
+		
+		if(!(parsedTemplate instanceof Map))
+		{
+			return null;
+		}
+		
+		try
+		{
+			return new CompiledUpdateTemplate(toSkeleton(parsedTemplate, references));
+		}catch(IllegalArgumentException ex)
+		{
+			logger.debug("Update template cannot be compiled, hence it will be processed as template. Reason: {}", ex.getMessage());
+			return null;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Object toSkeleton(Object value, List<FieldReference> references)
+	{
+		if(value instanceof Map)
+		{
+			Document doc = new Document();
+			
+			for(Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet())
+			{
+				if(entry.getKey().contains(SLOT_MARKER))
+				{
+					throw new IllegalArgumentException("Expressions are used in field names");
+				}
+				
+				doc.append(entry.getKey(), toSkeleton(entry.getValue(), references));
+			}
+			
+			return doc;
+		}
+		
+		if(value instanceof List)
+		{
+			List<Object> list = new ArrayList<>();
+			
+			for(Object elem : (List<Object>) value)
+			{
+				list.add(toSkeleton(elem, references));
+			}
+			
+			return list;
+		}
+		
+		if(!(value instanceof String) || !((String) value).contains(SLOT_MARKER))
+		{
+			return value;
+		}
+		
+		Slot slot = new Slot();
+		String str = (String) value;
+		Matcher matcher = SLOT_MARKER_PATTERN.matcher(str);
+		int lastEnd = 0;
+		
+		while(matcher.find())
+		{
+			if(matcher.start() > lastEnd)
+			{
+				slot.parts.add(str.substring(lastEnd, matcher.start()));
+			}
+			
+			slot.parts.add(references.get(Integer.parseInt(matcher.group(1))));
+			lastEnd = matcher.end();
+		}
+		
+		if(lastEnd < str.length())
+		{
+			slot.parts.add(str.substring(lastEnd));
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Builds the update query by binding field values of specified source document.
+	 * @param source source document whose values needs to be bound
+	 * @return update query, null if values cannot be bound (in which case template processing should be used)
+	 */
+	public Document bind(Map<String, Object> source)
+	{
+		Object res = bind(skeleton, source);
+		return (res == UNBOUND) ? null : (Document) res;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Object bind(Object value, Map<String, Object> source)
+	{
+		if(value instanceof Document)
+		{
+			Document doc = new Document();
+			
+			for(Map.Entry<String, Object> entry : ((Document) value).entrySet())
+			{
+				Object boundValue = bind(entry.getValue(), source);
+				
+				if(boundValue == UNBOUND)
+				{
+					return UNBOUND;
+				}
+				
+				doc.append(entry.getKey(), boundValue);
+			}
+			
+			return doc;
+		}
+		
+		if(value instanceof List)
+		{
+			List<Object> list = new ArrayList<>();
+			
+			for(Object elem : (List<Object>) value)
+			{
+				Object boundValue = bind(elem, source);
+				
+				if(boundValue == UNBOUND)
+				{
+					return UNBOUND;
+				}
+				
+				list.add(boundValue);
+			}
+			
+			return list;
+		}
+		
+		if(!(value instanceof Slot))
+		{
+			return value;
+		}
+		
+		List<Object> parts = ((Slot) value).parts;
+		
+		//string with only field reference retains the type of object id
+		if(parts.size() == 1 && parts.get(0) instanceof FieldReference)
+		{
+			FieldReference reference = (FieldReference) parts.get(0);
+			Object fieldValue = getFieldValue(source, reference.path);
+			
+			if(fieldValue instanceof ObjectId && reference.builtIns.isEmpty())
+			{
+				return fieldValue;
+			}
+		}
+		
+		StringBuilder builder = new StringBuilder();
+		
+		for(Object part : parts)
+		{
+			if(part instanceof String)
+			{
+				builder.append(part);
+				continue;
+			}
+			
+			String fieldValue = toString((FieldReference) part, source);
+			
+			if(fieldValue == null)
+			{
+				return UNBOUND;
+			}
+			
+			builder.append(fieldValue);
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Fetches string value of specified field reference. Only string values (and object ids)
+	 * are supported, as formatting of other types depends on template configuration.
+	 * @param reference reference to be evaluated
+	 * @param source source document
+	 * @return string value, null if value is not supported
+	 */
+	private String toString(FieldReference reference, Map<String, Object> source)
+	{
+		Object value = getFieldValue(source, reference.path);
+		String str = null;
+		
+		if(value instanceof String)
+		{
+			str = (String) value;
+		}
+		else if(value instanceof ObjectId)
+		{
+			str = value.toString();
+		}
+		else
+		{
+			return null;
+		}
+		
+		for(String builtIn : reference.builtIns)
+		{
+			switch(builtIn)
+			{
+				case "lower_case":
+					str = str.toLowerCase();
+					break;
+				case "upper_case":
+					str = str.toUpperCase();
+					break;
+				default:
+					str = str.trim();
+			}
+		}
+		
+		return str;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Object getFieldValue(Map<String, Object> source, String path[])
+	{
+		Object value = source;
+		
+		for(String name : path)
+		{
+			if(!(value instanceof Map))
+			{
+				return null;
+			}
+			
+			value = ((Map<String, Object>) value).get(name);
+		}
+		
+		return value;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.mongo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.mongodb.MongoClient;
+import com.yukthitech.utils.exceptions.InvalidStateException;
+
+/**
+ * Registry of shared mongo clients, so that executions against multiple databases
+ * of same cluster share single connection pool. Clients are reference counted and
+ * are closed when last reference is released. Along with the client, permits limiting the
+ * find-and-update workers of the executions sharing the client are maintained.
+ * 
+ * @author akiran
+ */
+class MongoClientRegistry
+{
+	private static Logger logger = LogManager.getLogger(MongoClientRegistry.class);
+	
+	/**
+	 * Client with its reference count and worker permits.
+	 */
+	private static class ClientEntry
+	{
+		private MongoClient client;
+		
+		private Semaphore workerPermits;
+		
+		private int referenceCount;
+		
+		private ClientEntry(MongoClient client, int maxWorkers)
+		{
+			this.client = client;
+			this.workerPermits = new Semaphore(Math.max(maxWorkers, 1));
+		}
+	}
+	
+	/**
+	 * Shared clients by their connection key.
+	 */
+	private static Map<String, ClientEntry> clients = new HashMap<>();
+	
+	/**
+	 * Fetches the client for specified key. If not present, new client will be created using
+	 * specified factory, along with worker permits of specified max workers.
+	 * @param key connection key (cluster, credentials and options) of the client
+	 * @param clientFactory factory to create client
+	 * @param maxWorkers max find-and-update workers, used when new client is created
+	 * @return shared client
+	 */
+	public static synchronized MongoClient acquire(String key, Supplier<MongoClient> clientFactory, int maxWorkers)
+	{
+		ClientEntry entry = clients.get(key);
+		
+		if(entry == null)
+		{
+			logger.debug("Creating new mongo client for: {}", key);
+			
+			entry = new ClientEntry(clientFactory.get(), maxWorkers);
+			clients.put(key, entry);
+		}
+		
+		entry.referenceCount++;
+		return entry.client;
+	}
+	
+	/**
+	 * Fetches the permits limiting the find-and-update workers running concurrently across the
+	 * executions sharing the client with specified key.
+	 * @param key connection key of the client
+	 * @return worker permits of the client
+	 */
+	public static synchronized Semaphore getWorkerPermits(String key)
+	{
+		ClientEntry entry = clients.get(key);
+		
+		if(entry == null)
+		{
+			throw new InvalidStateException("No client is acquired with key: {}", key);
+		}
+		
+		return entry.workerPermits;
+	}
+	
+	/**
+	 * Releases the reference of the client with specified key. Client will be closed
+	 * when there are no more references.
+	 * @param key connection key of the client
+	 */
+	public static synchronized void release(String key)
+	{
+		ClientEntry entry = clients.get(key);
+		
+		if(entry == null)
+		{
+			return;
+		}
+		
+		entry.referenceCount--;
+		
+		if(entry.referenceCount > 0)
+		{
+			return;
+		}
+		
+		logger.debug("Closing mongo client of: {}", key);
+		
+		clients.remove(key);
+		entry.client.close();
+	}
+}
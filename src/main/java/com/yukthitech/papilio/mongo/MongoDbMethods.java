@@ -16,10 +16,8 @@
 package com.yukthitech.papilio.mongo;
 
 import java.io.File;
-import java.nio.charset.Charset;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.Document;
@@ -27,8 +25,9 @@ import org.bson.types.ObjectId;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoDatabase;
-import com.yukthitech.papilio.common.PapilioUtils;
 import com.yukthitech.papilio.data.DatabaseChangeLogFactory;
+import com.yukthitech.papilio.data.ExternalFile;
+import com.yukthitech.papilio.data.ExternalFileCache;
 import com.yukthitech.utils.CommonUtils;
 import com.yukthitech.utils.exceptions.InvalidArgumentException;
 import com.yukthitech.utils.exceptions.InvalidStateException;
@@ -43,13 +42,18 @@ public class MongoDbMethods
 	private static Logger logger = LogManager.getLogger(MongoDbMethods.class);
 	
 	/**
-	 * Current mongo client.
+	 * Database of current execution. Maintained per thread, as multiple databases
+	 * can be processed concurrently.
 	 */
-	private static MongoDatabase database;
+	private static ThreadLocal<MongoDatabase> currentDatabase = new ThreadLocal<>();
 
+	/**
+	 * Sets the database to be used by methods on current thread.
+	 * @param database database to be used
+	 */
 	public static void setDatabase(MongoDatabase database)
 	{
-		MongoDbMethods.database = database;
+		currentDatabase.set(database);
 	}
 
 	/**
@@ -67,7 +71,7 @@ public class MongoDbMethods
 		
 		logger.debug("Fetching document-id from collection '{}' with conditions: {}", collection, conditions);
 		
-		FindIterable<Document> docs = database.getCollection(collection).find(new Document(conditions));
+		FindIterable<Document> docs = currentDatabase.get().getCollection(collection).find(new Document(conditions));
 		Document doc = docs.first();
 		
 		if(doc == null)
@@ -91,8 +95,7 @@ public class MongoDbMethods
 	@FreeMarkerMethod
 	public static String loadTextFile(String file)
 	{
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, file);
+		File fileObj = DatabaseChangeLogFactory.getExternalFile(file);
 		
 		if(!fileObj.exists())
 		{
@@ -101,7 +104,7 @@ public class MongoDbMethods
 		
 		try
 		{
-			return FileUtils.readFileToString(fileObj, Charset.forName("utf8"));
+			return (String) ExternalFileCache.getInstance().getContent(fileObj, ExternalFile.Format.TEXT);
 		}catch(Exception ex)
 		{
 			throw new InvalidStateException("Failed to load text content from file: {}", file);
@@ -118,8 +121,7 @@ public class MongoDbMethods
 	@FreeMarkerMethod
 	public static Object loadJsonFile(String file)
 	{
-		File parentFile = DatabaseChangeLogFactory.getCurrentFile().getParentFile();
-		File fileObj = new File(parentFile, file);
+		File fileObj = DatabaseChangeLogFactory.getExternalFile(file);
 		
 		if(!fileObj.exists())
 		{
@@ -128,8 +130,7 @@ public class MongoDbMethods
 		
 		try
 		{
-			String fileContent = FileUtils.readFileToString(fileObj, Charset.forName("utf8"));
-			return PapilioUtils.parseJson(fileContent);
+			return ExternalFileCache.getInstance().getContent(fileObj, ExternalFile.Format.JSON);
 		}catch(Exception ex)
 		{
 			throw new InvalidStateException("Failed to load json content from file: {}", file);
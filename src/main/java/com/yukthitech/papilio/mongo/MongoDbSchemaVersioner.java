@@ -21,6 +21,14 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,27 +40,43 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCommandException;
 import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.CreateCollectionOptions;
 import com.mongodb.client.model.DeleteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateManyModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import com.yukthitech.mongojs.MongoJsEngine;
+import com.yukthitech.papilio.ChangeMetrics;
+import com.yukthitech.papilio.FindAndUpdateCheckpoint;
 import com.yukthitech.papilio.IDbSchemaVersioner;
 import com.yukthitech.papilio.InvalidConfigurationException;
 import com.yukthitech.papilio.common.PapilioArguments;
@@ -84,11 +108,98 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 	 */
 	private static final Pattern HOST_PORT = Pattern.compile("([\\w\\.\\-]+)\\:(\\d+)");
 	
+	/**
+	 * Option name which can be used to create ttl index.
+	 */
+	private static final String OPT_EXPIRE_AFTER_SECONDS = "expireAfterSeconds";
+	
+	/**
+	 * Error code returned by mongo on duplicate key.
+	 */
+	private static final int DUPLICATE_KEY_ERROR = 11000;
+	
+	/**
+	 * Lock name field of lock collection.
+	 */
+	private static final String FLD_LOCK_NAME = "NAME";
+	
+	/**
+	 * Lock owner field of lock collection.
+	 */
+	private static final String FLD_LOCK_OWNER = "OWNER";
+	
+	/**
+	 * Lock owner host field of lock collection.
+	 */
+	private static final String FLD_LOCK_HOST = "HOST";
+	
+	/**
+	 * Lock acquired time field of lock collection.
+	 */
+	private static final String FLD_LOCK_ACQUIRED_ON = "ACQUIRED_ON";
+	
+	/**
+	 * Lock expiry time field of lock collection.
+	 */
+	private static final String FLD_LOCK_EXPIRES_AT = "EXPIRES_AT";
+	
+	/**
+	 * Minimum interval used to poll for lock release, when change streams are not supported.
+	 */
+	private static final long LOCK_POLL_MIN_MILLIS = 500;
+	
+	/**
+	 * Maximum interval used to poll for lock release, when change streams are not supported.
+	 */
+	private static final long LOCK_POLL_MAX_MILLIS = 2000;
+	
+	/**
+	 * Number of partitions created per worker for parallel find-and-update, so that
+	 * uneven partitions do not leave workers idle.
+	 */
+	private static final int FIND_UPDATE_PARTITIONS_PER_WORKER = 4;
+	
+	/**
+	 * Maximum time to wait for the running find-and-update partition workers to stop, on failure.
+	 */
+	private static final long FIND_UPDATE_WORKERS_STOP_SECONDS = 60;
+	
+	/**
+	 * Pattern of json strings of update template which consist of only "${_id}" reference.
+	 */
+	private static final Pattern ID_REFERENCE = Pattern.compile("\"\\$\\{\\s*_id\\s*\\}\"");
+	
+	/**
+	 * Marker used in place of "${_id}" strings during template processing, so that such strings can be replaced
+	 * with the _id value, retaining the type of object ids (same as compiled templates).
+	 */
+	private static final String ID_MARKER = "@@papilio-id@@";
+	
+	/**
+	 * Error label of transaction errors, on which transaction can be retried.
+	 */
+	private static final String TRANSIENT_TRANSACTION_ERROR = "TransientTransactionError";
+	
+	/**
+	 * Error label of commit errors, on which commit can be retried.
+	 */
+	private static final String UNKNOWN_TRANSACTION_COMMIT_RESULT = "UnknownTransactionCommitResult";
+	
+	/**
+	 * Maximum number of attempts for transactions (and their commits), on transient errors.
+	 */
+	private static final int MAX_TRANSACTION_ATTEMPTS = 5;
+	
 	/**
 	 * Mongo client connection.
 	 */
 	private MongoClient mongoClient;
 	
+	/**
+	 * Key of the shared client in client registry.
+	 */
+	private String clientKey;
+	
 	/**
 	 * Database on which operations needs to be performed.
 	 */
@@ -99,25 +210,52 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 	 */
 	private MongoJsEngine mongoJsEngine;
 	
+	/**
+	 * Flag indicating change streams are not supported by target db (eg. standalone server),
+	 * in which case polling is used to wait for lock release.
+	 */
+	private boolean changeStreamsUnsupported = false;
+	
+	/**
+	 * Session of the transaction active on current thread, if any. Data changes (insert, update
+	 * and delete) are executed as part of this session, when present.
+	 */
+	private ThreadLocal<ClientSession> currentSession = new ThreadLocal<>();
+	
+	/**
+	 * Flag indicating if size of data sent to db should be measured. As this needs additional
+	 * encoding, it is done only when run report is requested.
+	 */
+	private boolean measureBytes;
+	
+	/**
+	 * Permits limiting the number of find-and-update partition workers running concurrently
+	 * across all changes and target databases, which share the client.
+	 */
+	private Semaphore findUpdateWorkerPermits;
+	
 	@Override
 	public void init(PapilioArguments args)
 	{
+		this.measureBytes = StringUtils.isNotBlank(args.getReportFile());
+		
 		String user = args.getUserName();
 		String password = args.getPassword();
 		String database = args.getDbname();
+		String authDatabase = StringUtils.isNotBlank(args.getAuthDatabase()) ? args.getAuthDatabase() : database;
 		
-		MongoCredential credential = (StringUtils.isNotBlank(user) && StringUtils.isNotBlank(password)) ? MongoCredential.createCredential(user, database, password.toCharArray()) : null;
+		MongoCredential credential = (StringUtils.isNotBlank(user) && StringUtils.isNotBlank(password)) ? MongoCredential.createCredential(user, authDatabase, password.toCharArray()) : null;
 		List<ServerAddress> mongoHosts = null;
 
 		String host = args.getHost();
-		int port = args.getPort();
+		Integer port = args.getPort();
 		String replicas = args.getReplicas();
 		
 		if(StringUtils.isNotBlank(replicas))
 		{
 			mongoHosts = parse(replicas);
 		}
-		else if(StringUtils.isNotBlank(host) && port > 0)
+		else if(StringUtils.isNotBlank(host) && port != null && port > 0)
 		{
 			replicas = host + ":" + port;
 			mongoHosts = Arrays.asList(new ServerAddress(host, port));
@@ -131,15 +269,22 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 				.writeConcern(WriteConcern.ACKNOWLEDGED)
 				.sslEnabled(args.isEnableSsl())
 				.build();
-				
-		if(credential != null)
-		{
-			this.mongoClient = new MongoClient(mongoHosts, credential, clientOptions);
-		}
-		else
+		
+		List<ServerAddress> serverAddresses = mongoHosts;
+		
+		//executions against different databases of same cluster (with same credentials) share the client
+		this.clientKey = String.format("%s|%s@%s|%s", replicas, (credential != null ? user : ""), (credential != null ? authDatabase : ""), args.isEnableSsl());
+		this.mongoClient = MongoClientRegistry.acquire(clientKey, () -> 
 		{
-			this.mongoClient = new MongoClient(mongoHosts, clientOptions);
-		}
+			if(credential != null)
+			{
+				return new MongoClient(serverAddresses, credential, clientOptions);
+			}
+			
+			return new MongoClient(serverAddresses, clientOptions);
+		}, args.getMaxFindUpdateWorkers());
+		
+		this.findUpdateWorkerPermits = MongoClientRegistry.getWorkerPermits(clientKey);
 		
 		this.database = mongoClient.getDatabase(database);
 		MongoDbMethods.setDatabase(this.database);
@@ -251,6 +396,19 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		return false;
 	}
 	
+	@Override
+	public List<String> fetchDatabaseNames()
+	{
+		List<String> names = new ArrayList<>();
+		
+		for(String name : mongoClient.listDatabaseNames())
+		{
+			names.add(name);
+		}
+		
+		return names;
+	}
+	
 	@Override
 	public Map<String, String> fetchCurrentChangeSet(String dbLogCollection, String idCol, String checkSumCol)
 	{
@@ -271,6 +429,22 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		logger.debug("Number of current changset entries found to be: {}", resMap.size());
 		return resMap;
 	}
+	
+	@Override
+	public List<Map<String, Object>> fetchRecords(String tableName, List<ColumnValue> conditions)
+	{
+		MongoCollection<Document> collection = getCollection(tableName);
+		Bson filters = toFilters(conditions);
+		
+		List<Map<String, Object>> records = new ArrayList<>();
+		
+		for(Document doc : (filters != null ? collection.find(filters) : collection.find()))
+		{
+			records.add(doc);
+		}
+		
+		return records;
+	}
 
 	@Override
 	public void createTable(CreateTableChange tableChange)
@@ -320,9 +494,17 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		
 		if(indexChange.getOptions() != null)
 		{
-			Map<String, Object> options = indexChange.getOptions();
+			Map<String, Object> options = new HashMap<>(indexChange.getOptions());
 			createIndexOptions = new IndexOptions();
 			
+			//expire-after needs time unit, so it is handled separately
+			Object expireAfterSeconds = options.remove(OPT_EXPIRE_AFTER_SECONDS);
+			
+			if(expireAfterSeconds != null)
+			{
+				createIndexOptions.expireAfter(ConvertUtils.convert(expireAfterSeconds, Long.class), TimeUnit.SECONDS);
+			}
+			
 			setOptions(createIndexOptions, options);
 		}
 		
@@ -392,8 +574,71 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		
 		MongoCollection<Document> collection = getCollection(change.getTableName());
 		Document insertDoc = toDoc(change.getColumnMap(database));
+		ClientSession session = currentSession.get();
+		
+		if(session != null)
+		{
+			collection.insertOne(session, insertDoc);
+		}
+		else
+		{
+			collection.insertOne(insertDoc);
+		}
+		
+		recordMetrics(metrics -> 
+		{
+			metrics.addInsertedCount(1);
+			metrics.addBytesSent(bsonSize(insertDoc));
+		});
+	}
+	
+	@Override
+	public void insertAll(List<InsertChange> changes)
+	{
+		if(changes.isEmpty())
+		{
+			return;
+		}
+		
+		String tableName = null;
+		List<Document> documents = new ArrayList<>();
+		
+		//consecutive inserts on same collection are grouped into single insert-many
+		for(InsertChange change : changes)
+		{
+			if(tableName != null && !tableName.equals(change.getTableName()))
+			{
+				insertMany(tableName, documents);
+				documents = new ArrayList<>();
+			}
+			
+			tableName = change.getTableName();
+			documents.add(toDoc(change.getColumnMap(database)));
+		}
+		
+		insertMany(tableName, documents);
+	}
+	
+	private void insertMany(String tableName, List<Document> documents)
+	{
+		logger.debug("Inserting {} document(s) into collection: {}", documents.size(), tableName);
+		
+		ClientSession session = currentSession.get();
+		
+		if(session != null)
+		{
+			getCollection(tableName).insertMany(session, documents);
+		}
+		else
+		{
+			getCollection(tableName).insertMany(documents);
+		}
 		
-		collection.insertOne(insertDoc);
+		recordMetrics(metrics -> 
+		{
+			metrics.addInsertedCount(documents.size());
+			metrics.addBytesSent(bsonSize(documents.toArray(new Bson[0])));
+		});
 	}
 	
 	private Bson toFilters(List<ColumnValue> conditions)
@@ -417,7 +662,7 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		
 		MongoCollection<Document> collection = getCollection(change.getTableName());
 		
-		List<Bson> updateFields = change.getColumnValues()
+		List<Bson> updateFields = change.getResolvedColumnValues()
 			.stream()
 			.map(colVal -> Updates.set(colVal.getName(), colVal.getValue(database)))
 			.collect(Collectors.toList());
@@ -425,21 +670,77 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		Bson updates = Updates.combine(updateFields);
 		Bson filters = toFilters(change.getConditions());
 
-		UpdateResult updateResult = null;
+		UpdateOptions options = new UpdateOptions();
 		
 		if(MapUtils.isNotEmpty(change.getOptions()))
 		{
-			UpdateOptions options = new UpdateOptions();
 			setOptions(options, change.getOptions());
-			
-			updateResult = collection.updateMany(filters, updates, options);
 		}
-		else
+		
+		ClientSession session = currentSession.get();
+		UpdateResult updateResult = (session != null) ? 
+				collection.updateMany(session, filters, updates, options) : 
+				collection.updateMany(filters, updates, options);
+		
+		logger.debug("With update [Matched Count: {}, Updated Count: {}]", updateResult.getMatchedCount(), updateResult.getModifiedCount());
+		
+		recordMetrics(metrics -> 
+		{
+			metrics.addUpdateCounts(updateResult.getMatchedCount(), updateResult.getModifiedCount());
+			metrics.addBytesSent(bsonSize(filters, updates));
+		});
+	}
+	
+	@Override
+	public void updateAll(List<UpdateChange> changes)
+	{
+		if(changes.isEmpty())
 		{
-			updateResult = collection.updateMany(filters, updates);
+			return;
 		}
 		
-		logger.debug("With update [Matched Count: {}, Updated Count: {}]", updateResult.getMatchedCount(), updateResult.getModifiedCount());
+		String tableName = null;
+		List<WriteModel<Document>> updateModels = new ArrayList<>();
+		
+		//consecutive updates on same collection are grouped into single bulk-write
+		for(UpdateChange change : changes)
+		{
+			if(tableName != null && !tableName.equals(change.getTableName()))
+			{
+				bulkWrite(tableName, updateModels);
+				updateModels = new ArrayList<>();
+			}
+			
+			tableName = change.getTableName();
+			
+			List<Bson> updateFields = change.getResolvedColumnValues()
+				.stream()
+				.map(colVal -> Updates.set(colVal.getName(), colVal.getValue(database)))
+				.collect(Collectors.toList());
+			
+			UpdateOptions options = new UpdateOptions();
+			
+			if(MapUtils.isNotEmpty(change.getOptions()))
+			{
+				setOptions(options, change.getOptions());
+			}
+			
+			updateModels.add(new UpdateManyModel<>(toFilters(change.getConditions()), Updates.combine(updateFields), options));
+		}
+		
+		bulkWrite(tableName, updateModels);
+	}
+	
+	private void bulkWrite(String tableName, List<WriteModel<Document>> updateModels)
+	{
+		logger.debug("Executing {} update(s) in bulk on collection: {}", updateModels.size(), tableName);
+		
+		ClientSession session = currentSession.get();
+		BulkWriteResult result = (session != null) ? 
+				getCollection(tableName).bulkWrite(session, updateModels) : 
+				getCollection(tableName).bulkWrite(updateModels);
+		logger.debug("With bulk update [Matched Count: {}, Updated Count: {}]", result.getMatchedCount(), result.getModifiedCount());
+		recordMetrics(metrics -> metrics.addUpdateCounts(result.getMatchedCount(), result.getModifiedCount()));
 	}
 	
 	@Override
@@ -454,23 +755,24 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 			MongoCollection<Document> collection = getCollection(change.getTableName());
 			Bson filters = toFilters(change.getConditions());
 			
+			DeleteOptions options = new DeleteOptions();
+			
 			if(MapUtils.isNotEmpty(change.getOptions()))
 			{
-				DeleteOptions options = new DeleteOptions();
 				setOptions(options, change.getOptions());
-				
-				res = collection.deleteMany(filters, options);
-			}
-			else
-			{
-				res = collection.deleteMany(filters);	
 			}
-		}catch(Throwable ex)
+			
+			ClientSession session = currentSession.get();
+			res = (session != null) ? collection.deleteMany(session, filters, options) : collection.deleteMany(filters, options);
+		}catch(RuntimeException ex)
 		{
-			ex.printStackTrace();
+			throw new InvalidStateException("An error occurred while deleting document(s) from collection: {}", change.getTableName(), ex);
 		}
 		
 		logger.debug("Number of records deleted: {}", res.getDeletedCount());
+		
+		long deletedCount = res.getDeletedCount();
+		recordMetrics(metrics -> metrics.addDeletedCount(deletedCount));
 	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -479,6 +781,10 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 	{
 		String query = change.getQuery();
 		
+		//templates are processed on executing thread against current database
+		MongoDbMethods.setDatabase(database);
+		long startTime = System.nanoTime();
+		
 		if(Boolean.TRUE.equals(change.getTemplate()))
 		{
 			Object context = CommonUtils.toMap("change", change);
@@ -489,6 +795,9 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 			Map<String, Object> context = CommonUtils.toMap("change", change);
 			query = PapilioUtils.processJelTemplate(change.getQuery(), context);
 		}
+		
+		long templateNanos = System.nanoTime() - startTime;
+		recordMetrics(metrics -> metrics.addTemplateNanos(templateNanos));
 
 		Map<String, Object> queryMap = null;
 		
@@ -502,7 +811,10 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		
 		logger.debug("Execuing query: {}", queryMap);
 		
-		Document res = database.runCommand(toDoc(queryMap));
+		Document queryDoc = toDoc(queryMap);
+		recordMetrics(metrics -> metrics.addBytesSent(bsonSize(queryDoc)));
+		
+		Document res = database.runCommand(queryDoc);
 		logger.debug("Query resulted in doc:\n{}", res.toJson());
 	}
 	
@@ -513,88 +825,860 @@ public class MongoDbSchemaVersioner implements IDbSchemaVersioner
 		mongoJsEngine.executeScript(script);
 	}
 	
+	/**
+	 * Executes specified finder query and streams the resultant documents to specified consumer. Instead of
+	 * reading only the first batch, the server cursor is drained using getMore commands, so that only one
+	 * batch is held in memory at a time.
+	 * @param query finder query (find or aggregate command) to execute
+	 * @param batchSize number of documents to fetch per round trip, null for server default
+	 * @param consumer consumer to process the documents
+	 * @return number of documents processed
+	 */
 	@SuppressWarnings("unchecked")
-	private List<Object> executeFinder(String queryStr)
+	private long executeFinder(Document query, Integer batchSize, Consumer<Object> consumer)
 	{
-		Map<String, Object> query = null;
+		logger.debug("[Find-Update] Execuing finder query: {}", query);
+		
+		Document queryDoc = new Document(query);
+		
+		if(batchSize != null)
+		{
+			setBatchSize(queryDoc, batchSize);
+		}
+		
+		Document cursor = null;
 		
 		try
 		{
-			query = (Map<String, Object>) PapilioUtils.parseJson(queryStr);
+			Document res = database.runCommand(queryDoc);
+			cursor = (Document) res.get("cursor");
 		}catch(Exception ex)
 		{
-			throw new InvalidStateException("[Find-Update] An error occurred while parsing input query as json. Query: {}", query, ex);
+			throw new InvalidStateException("[Find-Update] An error occurred while executing finder query. Query: {}", query, ex);
 		}
 		
-		logger.debug("[Find-Update] Execuing finder query: {}", query);
+		if(cursor == null)
+		{
+			throw new InvalidStateException("[Find-Update] Finder query did not result in a cursor. Query: {}", query);
+		}
+		
+		List<Object> batch = (List<Object>) cursor.get("firstBatch");
+		Long cursorId = cursor.getLong("id");
+		String ns = cursor.getString("ns");
+		String collection = ns.substring(ns.indexOf('.') + 1);
+		long count = 0;
 		
 		try
 		{
-			Document res = database.runCommand(toDoc(query));
-			return (List<Object>) PropertyUtils.getProperty(res, "cursor.firstBatch");
-		}catch(Exception ex)
+			while(true)
+			{
+				for(Object object : batch)
+				{
+					consumer.accept(object);
+					count++;
+				}
+				
+				logger.debug("[Find-Update] Processed {} documents so far", count);
+				
+				if(cursorId == null || cursorId == 0)
+				{
+					break;
+				}
+				
+				Document getMoreDoc = new Document("getMore", cursorId).append("collection", collection);
+				
+				if(batchSize != null)
+				{
+					getMoreDoc.append("batchSize", batchSize);
+				}
+				
+				cursor = (Document) database.runCommand(getMoreDoc).get("cursor");
+				batch = (List<Object>) cursor.get("nextBatch");
+				cursorId = cursor.getLong("id");
+			}
+		}finally
 		{
-			throw new InvalidStateException("[Find-Update] An error occurred while executing finder query. Query: {}", query, ex);
+			//on failures, release the server cursor instead of waiting for its timeout
+			if(cursorId != null && cursorId != 0)
+			{
+				killCursor(collection, cursorId);
+			}
 		}
+		
+		return count;
 	}
 	
 	@SuppressWarnings("unchecked")
-	public void executUpdate(String updateQuery)
+	private Document parseFinderQuery(String queryStr)
 	{
 		Map<String, Object> query = null;
 		
 		try
 		{
-			query = (Map<String, Object>) PapilioUtils.parseJson(updateQuery);
+			query = (Map<String, Object>) PapilioUtils.parseJson(queryStr);
 		}catch(Exception ex)
 		{
-			throw new InvalidStateException("[Find-Update] An error occurred while parsing update query as json. Query: {}", query, ex);
+			throw new InvalidStateException("[Find-Update] An error occurred while parsing input query as json. Query: {}", query, ex);
 		}
 		
-		logger.debug("[Find-Update] Execuing update query: {}", query);
-		
-		Document res = database.runCommand(toDoc(query));
-		logger.debug("[Find-Update] Query resulted in doc:\n{}", res.toJson());
+		return toDoc(query);
 	}
-
-	@Override
-	public void findAndUpdate(FindAndUpdateChange change)
+	
+	/**
+	 * Splits specified finder query into _id range based partitions, using $bucketAuto on the
+	 * finder filter. Partitioning is supported only for find commands without skip and limit,
+	 * for other queries null is returned.
+	 * @param query finder query to split
+	 * @param partitionCount expected number of partitions
+	 * @return partition finder queries, or null if query cannot be partitioned
+	 */
+	private List<Document> partitionFinder(Document query, int partitionCount)
 	{
-		List<Object> finderLst = executeFinder(change.getFindQuery());
-		String updateTemplate = change.getUpdateQueryTemplate();
+		Object collection = query.get("find");
+		
+		if(!(collection instanceof String) || query.containsKey("skip") || query.containsKey("limit"))
+		{
+			logger.warn("[Find-Update] Parallel execution is supported only for find queries without skip and limit. Executing sequentially: {}", query);
+			return null;
+		}
+		
+		Document filter = (Document) query.get("filter");
+		List<Bson> pipeline = new ArrayList<>();
 		
-		logger.debug("Got {} objects by finder query", finderLst.size());
+		if(filter != null && !filter.isEmpty())
+		{
+			pipeline.add(new Document("$match", filter));
+		}
 		
-		int count = 0;
+		pipeline.add(new Document("$bucketAuto", new Document("groupBy", "$_id").append("buckets", partitionCount)));
 		
-		for(Object object : finderLst)
+		//min boundaries of buckets, which are in _id order
+		List<Object> boundaries = new ArrayList<>();
+		
+		for(Document bucket : getCollection((String) collection).aggregate(pipeline).allowDiskUse(true))
 		{
-			//replace the _id property
-			try
+			boundaries.add(((Document) bucket.get("_id")).get("min"));
+		}
+		
+		if(boundaries.size() <= 1)
+		{
+			return null;
+		}
+		
+		//range filters do not match across bson types, so mixed _id types cannot be partitioned
+		Class<?> idType = boundaries.get(0).getClass();
+		
+		if(boundaries.stream().anyMatch(boundary -> boundary.getClass() != idType))
+		{
+			logger.warn("[Find-Update] Collection '{}' has mixed _id types. Executing sequentially: {}", collection, query);
+			return null;
+		}
+		
+		List<Document> partitions = new ArrayList<>();
+		
+		for(int i = 0; i < boundaries.size(); i++)
+		{
+			//first and last partitions are left open, so that no document is missed
+			Document range = new Document();
+			
+			if(i > 0)
 			{
-				Object id = PropertyUtils.getProperty(object, "_id");
-				
-				if(id != null)
-				{
-					PropertyUtils.setProperty(object, "_id", id.toString());
-				}
-			}catch(Exception ex)
+				range.append("$gte", boundaries.get(i));
+			}
+			
+			if(i < boundaries.size() - 1)
 			{
-				throw new InvalidStateException("An error occurred while converting id value", ex);
+				range.append("$lt", boundaries.get(i + 1));
 			}
 			
-			logger.debug("[Find-Update] Executing update-query for object [Index: {}]: {}", count, object);
-			String updateQuery = PapilioUtils.processTemplate("update-query-template", updateTemplate, object);
-			executUpdate(updateQuery);
+			Document idFilter = new Document("_id", range);
+			Document partition = new Document(query);
 			
-			count++;
+			partition.put("filter", (filter != null && !filter.isEmpty()) ? new Document("$and", Arrays.asList(filter, idFilter)) : idFilter);
+			partitions.add(partition);
 		}
+		
+		return partitions;
 	}
-
-	@Override
-	public void close()
+	
+	/**
+	 * Sets the batch size on specified find or aggregate command.
+	 * @param queryDoc command on which batch size needs to be set
+	 * @param batchSize batch size to set
+	 */
+	private void setBatchSize(Document queryDoc, int batchSize)
+	{
+		if(queryDoc.containsKey("aggregate"))
+		{
+			//copy is used, as cursor options may be shared with the source query
+			Document cursorDoc = (Document) queryDoc.get("cursor");
+			cursorDoc = (cursorDoc != null) ? new Document(cursorDoc) : new Document();
+			
+			cursorDoc.put("batchSize", batchSize);
+			queryDoc.put("cursor", cursorDoc);
+			return;
+		}
+		
+		queryDoc.put("batchSize", batchSize);
+	}
+	
+	private void killCursor(String collection, Long cursorId)
+	{
+		try
+		{
+			database.runCommand(new Document("killCursors", collection).append("cursors", Arrays.asList(cursorId)));
+		}catch(Exception ex)
+		{
+			logger.warn("[Find-Update] Failed to kill cursor [Collection: {}, Cursor: {}]", collection, cursorId, ex);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Document parseUpdateQuery(String updateQuery)
+	{
+		Map<String, Object> query = null;
+		
+		try
+		{
+			query = (Map<String, Object>) PapilioUtils.parseJson(updateQuery);
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("[Find-Update] An error occurred while parsing update query as json. Query: {}", query, ex);
+		}
+		
+		return toDoc(query);
+	}
+	
+	public void executUpdate(String updateQuery)
+	{
+		executeUpdateCommand(parseUpdateQuery(updateQuery));
+	}
+	
+	/**
+	 * Executes specified update command and records the resultant counts. As write errors of a command
+	 * are reported as part of (successful) result, they are checked explicitly.
+	 * @param queryDoc update command to execute
+	 */
+	private void executeUpdateCommand(Document queryDoc)
+	{
+		logger.debug("[Find-Update] Execuing update query: {}", queryDoc);
+		
+		Document res = database.runCommand(queryDoc);
+		logger.debug("[Find-Update] Query resulted in doc:\n{}", res.toJson());
+		
+		long matched = toLong(res.get("n"));
+		long modified = toLong(res.get("nModified"));
+		
+		recordMetrics(metrics -> 
+		{
+			metrics.addUpdateCounts(matched, modified);
+			metrics.addBytesSent(bsonSize(queryDoc));
+		});
+		
+		Object writeErrors = res.get("writeErrors");
+		
+		if(writeErrors instanceof List && !((List<?>) writeErrors).isEmpty())
+		{
+			throw new InvalidStateException("[Find-Update] Update query resulted in write errors [Matched: {}, Modified: {}]. Errors: {}", 
+					matched, modified, writeErrors);
+		}
+		
+		if(res.get("writeConcernError") != null)
+		{
+			throw new InvalidStateException("[Find-Update] Update query resulted in write concern error: {}", res.get("writeConcernError"));
+		}
+		
+		logger.debug("[Find-Update] Executed update command [Matched Count: {}, Updated Count: {}]", matched, modified);
+	}
+
+	@Override
+	public void findAndUpdate(FindAndUpdateChange change)
+	{
+		findAndUpdate(change, null);
+	}
+	
+	@Override
+	public void findAndUpdate(FindAndUpdateChange change, FindAndUpdateCheckpoint checkpoint)
+	{
+		Document query = parseFinderQuery(change.getFindQuery());
+		int parallelism = (change.getParallelism() != null) ? change.getParallelism() : 1;
+		
+		//checkpoints are maintained in _id order, which is not possible with parallel partitions
+		if(parallelism > 1 && checkpoint != null)
+		{
+			logger.warn("[Find-Update] Ignoring parallelism {} as find-and-update is executed in resumable mode", parallelism);
+			parallelism = 1;
+		}
+		
+		Document resumableQuery = (checkpoint != null) ? toResumableQuery(query, checkpoint) : null;
+		List<Document> partitions = (parallelism > 1) ? partitionFinder(query, parallelism * FIND_UPDATE_PARTITIONS_PER_WORKER) : null;
+		long count = 0;
+		
+		if(partitions != null)
+		{
+			count = findAndUpdateParallel(change, partitions, parallelism);
+		}
+		else if(resumableQuery != null)
+		{
+			count = findAndUpdate(change, resumableQuery, checkpoint);
+		}
+		else
+		{
+			count = findAndUpdate(change, query, null);
+		}
+		
+		long processedCount = count;
+		
+		logger.info("[Find-Update] Processed {} documents returned by finder query", processedCount);
+		recordMetrics(metrics -> metrics.addProcessedCount(processedCount));
+	}
+	
+	/**
+	 * Converts specified finder query into query which returns documents in _id order, after
+	 * the last processed document of specified checkpoint. Only find queries without skip, limit and
+	 * custom sort can be resumed.
+	 * @param query finder query to convert
+	 * @param checkpoint checkpoint to resume from
+	 * @return resumable query, null if query cannot be resumed
+	 */
+	private Document toResumableQuery(Document query, FindAndUpdateCheckpoint checkpoint)
+	{
+		Document sort = (Document) query.get("sort");
+		
+		if(!(query.get("find") instanceof String) || query.containsKey("skip") || query.containsKey("limit")
+				|| (sort != null && !sort.equals(new Document("_id", 1))))
+		{
+			logger.warn("[Find-Update] Resumable execution is supported only for find queries without skip, limit and custom sort. "
+					+ "Executing without checkpoints. Query: {}", query);
+			return null;
+		}
+		
+		Document resumableQuery = new Document(query);
+		resumableQuery.put("sort", new Document("_id", 1));
+		
+		if(checkpoint.getLastId() != null)
+		{
+			Document filter = (Document) query.get("filter");
+			Document idFilter = new Document("_id", new Document("$gt", checkpoint.getLastId()));
+			
+			resumableQuery.put("filter", (filter != null && !filter.isEmpty()) ? new Document("$and", Arrays.asList(filter, idFilter)) : idFilter);
+		}
+		
+		return resumableQuery;
+	}
+	
+	/**
+	 * Executes specified finder query and executes update template for each resultant document.
+	 * @param change change being executed
+	 * @param query finder query to use
+	 * @param checkpoint checkpoint to be saved periodically, can be null
+	 * @return number of documents processed
+	 */
+	@SuppressWarnings("unchecked")
+	private long findAndUpdate(FindAndUpdateChange change, Document query, FindAndUpdateCheckpoint checkpoint)
+	{
+		String updateTemplate = change.getUpdateQueryTemplate();
+		int updateBatchSize = (change.getUpdateBatchSize() != null) ? change.getUpdateBatchSize() : FindAndUpdateChange.DEFAULT_UPDATE_BATCH_SIZE;
+		UpdateCommandBatcher updateBatcher = new UpdateCommandBatcher(updateBatchSize, this::executeUpdateCommand);
+		
+		//simple templates are compiled once and bound per document, instead of processing template for each document
+		CompiledUpdateTemplate compiledTemplate = CompiledUpdateTemplate.compile(updateTemplate);
+		logger.debug("[Find-Update] Update template is compiled: {}", (compiledTemplate != null));
+		
+		String markedTemplate = ID_REFERENCE.matcher(updateTemplate).replaceAll(Matcher.quoteReplacement("\"" + ID_MARKER + "\""));
+		
+		long checkpointCount = (checkpoint != null) ? checkpoint.getProcessedCount() : 0;
+		AtomicLong processedCount = new AtomicLong(checkpointCount);
+		
+		MongoDbMethods.setDatabase(database);
+		
+		long count = executeFinder(query, change.getBatchSize(), object -> 
+		{
+			logger.trace("[Find-Update] Executing update-query for object: {}", object);
+			
+			long startTime = System.nanoTime();
+			Object id = ((Map<String, Object>) object).get("_id");
+			Document updateQuery = (compiledTemplate != null) ? compiledTemplate.bind((Map<String, Object>) object) : null;
+			
+			//when template is not compiled or values cannot be bound, fallback to template processing
+			if(updateQuery == null)
+			{
+				updateQuery = processUpdateTemplate(markedTemplate, object, id);
+			}
+			
+			long templateNanos = System.nanoTime() - startTime;
+			recordMetrics(metrics -> metrics.addTemplateNanos(templateNanos));
+			
+			updateBatcher.add(updateQuery);
+			
+			//checkpoint is saved only after the updates of processed documents are applied
+			if(checkpoint != null && processedCount.incrementAndGet() % FindAndUpdateChange.CHECKPOINT_INTERVAL == 0)
+			{
+				updateBatcher.flush();
+				checkpoint.save(id, processedCount.get());
+			}
+		});
+		
+		updateBatcher.flush();
+		return count;
+	}
+	
+	/**
+	 * Processes update template for specified document and parses the result. Strings of the template
+	 * marked as "${_id}" references are replaced with the _id value, retaining the type of object ids.
+	 * @param updateTemplate template to process, with "${_id}" strings marked
+	 * @param object document to be used as context
+	 * @param id _id of the document
+	 * @return update query
+	 */
+	private Document processUpdateTemplate(String updateTemplate, Object object, Object id)
+	{
+		//replace the _id property
+		try
+		{
+			if(id != null)
+			{
+				PropertyUtils.setProperty(object, "_id", id.toString());
+			}
+		}catch(Exception ex)
+		{
+			throw new InvalidStateException("An error occurred while converting id value", ex);
+		}
+		
+		String updateQuery = PapilioUtils.processTemplate("update-query-template", updateTemplate, object);
+		Document queryDoc = parseUpdateQuery(updateQuery);
+		
+		replaceIdMarker(queryDoc, (id == null || id instanceof ObjectId) ? id : id.toString());
+		return queryDoc;
+	}
+	
+	/**
+	 * Replaces the id markers in specified parsed query (recursively) with specified id value.
+	 * @param value value in which markers needs to be replaced
+	 * @param id id value to use
+	 * @return value with markers replaced
+	 */
+	@SuppressWarnings("unchecked")
+	private Object replaceIdMarker(Object value, Object id)
+	{
+		if(value instanceof Map)
+		{
+			((Map<String, Object>) value).replaceAll((key, elem) -> replaceIdMarker(elem, id));
+			return value;
+		}
+		
+		if(value instanceof List)
+		{
+			((List<Object>) value).replaceAll(elem -> replaceIdMarker(elem, id));
+			return value;
+		}
+		
+		return ID_MARKER.equals(value) ? id : value;
+	}
+	
+	/**
+	 * Executes specified partitions of finder query in parallel. Each partition is processed by a worker
+	 * with its own cursor and update batches, while the number of workers running across all changes is
+	 * limited by worker permits of the client.
+	 * @param change change being executed
+	 * @param partitions partition finder queries
+	 * @param parallelism max number of workers to use for this change
+	 * @return number of documents processed
+	 */
+	private long findAndUpdateParallel(FindAndUpdateChange change, List<Document> partitions, int parallelism)
+	{
+		logger.debug("[Find-Update] Executing {} partitions using {} workers", partitions.size(), parallelism);
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.min(parallelism, partitions.size()), runnable -> 
+		{
+			Thread thread = new Thread(runnable, "papilio-find-update-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		ChangeMetrics changeMetrics = ChangeMetrics.getCurrent();
+		List<ChangeMetrics> partitionMetrics = new ArrayList<>();
+		List<Future<Long>> futures = new ArrayList<>();
+		
+		for(Document partition : partitions)
+		{
+			ChangeMetrics metrics = (changeMetrics != null) ? new ChangeMetrics(changeMetrics.getIndex(), changeMetrics.getType()) : null;
+			partitionMetrics.add(metrics);
+			
+			futures.add(executorService.submit(() -> 
+			{
+				acquireWorkerPermit();
+				
+				try
+				{
+					return ChangeMetrics.callWith(metrics, () -> findAndUpdate(change, partition, null));
+				}finally
+				{
+					findUpdateWorkerPermits.release();
+				}
+			}));
+		}
+		
+		long count = 0;
+		
+		try
+		{
+			for(Future<Long> future : futures)
+			{
+				count += future.get();
+			}
+		}catch(ExecutionException ex)
+		{
+			stopPartitionWorkers(executorService, futures);
+			throw new InvalidStateException("[Find-Update] An error occurred while processing finder query partition", ex.getCause());
+		}catch(InterruptedException ex)
+		{
+			stopPartitionWorkers(executorService, futures);
+			Thread.currentThread().interrupt();
+			throw new InvalidStateException("[Find-Update] Thread was interrupted while waiting for partition workers", ex);
+		}finally
+		{
+			executorService.shutdown();
+		}
+		
+		if(changeMetrics != null)
+		{
+			partitionMetrics.forEach(changeMetrics::merge);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Cancels the pending partitions and waits for the running partition workers to stop, so that
+	 * no worker modifies the collection after the failure is reported.
+	 * @param executorService executor running the partition workers
+	 * @param futures futures of the partitions
+	 */
+	private void stopPartitionWorkers(ExecutorService executorService, List<Future<Long>> futures)
+	{
+		futures.forEach(future -> future.cancel(true));
+		executorService.shutdownNow();
+		
+		try
+		{
+			if(!executorService.awaitTermination(FIND_UPDATE_WORKERS_STOP_SECONDS, TimeUnit.SECONDS))
+			{
+				logger.warn("[Find-Update] Partition workers did not stop within {} seconds", FIND_UPDATE_WORKERS_STOP_SECONDS);
+			}
+		}catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void acquireWorkerPermit()
+	{
+		try
+		{
+			findUpdateWorkerPermits.acquire();
+		}catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new InvalidStateException("Thread was interrupted while waiting for find-update worker permit", ex);
+		}
+	}
+
+	/**
+	 * Records metrics of current change, if any.
+	 * @param recorder recorder to update metrics
+	 */
+	private void recordMetrics(Consumer<ChangeMetrics> recorder)
+	{
+		ChangeMetrics metrics = ChangeMetrics.getCurrent();
+		
+		if(metrics != null)
+		{
+			recorder.accept(metrics);
+		}
+	}
+	
+	/**
+	 * Evaluates the encoded size of specified bson objects, when measuring bytes is enabled.
+	 * @param bsons bson objects to measure
+	 * @return encoded size in bytes
+	 */
+	private long bsonSize(Bson... bsons)
+	{
+		if(!measureBytes)
+		{
+			return 0;
+		}
+		
+		long size = 0;
+		
+		for(Bson bson : bsons)
+		{
+			if(bson == null)
+			{
+				continue;
+			}
+			
+			BsonDocument bsonDoc = bson.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry());
+			size += new RawBsonDocument(bsonDoc, new BsonDocumentCodec()).getByteBuffer().remaining();
+		}
+		
+		return size;
+	}
+	
+	private long toLong(Object value)
 	{
+		return (value instanceof Number) ? ((Number) value).longValue() : 0;
+	}
+	
+	@Override
+	public void executeInTransaction(Runnable action)
+	{
+		if(currentSession.get() != null)
+		{
+			throw new InvalidStateException("A transaction is already active on current thread");
+		}
+		
+		for(int attempt = 1; ; attempt++)
+		{
+			try(ClientSession session = mongoClient.startSession())
+			{
+				session.startTransaction();
+				currentSession.set(session);
+				
+				try
+				{
+					action.run();
+				}catch(RuntimeException ex)
+				{
+					if(session.hasActiveTransaction())
+					{
+						logger.debug("Aborting the transaction because of error: {}", "" + ex);
+						session.abortTransaction();
+					}
+					
+					//transient errors (like primary step-down) are retried with new transaction
+					if(hasErrorLabel(ex, TRANSIENT_TRANSACTION_ERROR) && attempt < MAX_TRANSACTION_ATTEMPTS)
+					{
+						logger.warn("Retrying the transaction because of transient error [Attempt: {}]: {}", attempt, "" + ex);
+						continue;
+					}
+					
+					throw ex;
+				}finally
+				{
+					currentSession.remove();
+				}
+				
+				try
+				{
+					commitTransaction(session);
+					return;
+				}catch(MongoException ex)
+				{
+					if(hasErrorLabel(ex, TRANSIENT_TRANSACTION_ERROR) && attempt < MAX_TRANSACTION_ATTEMPTS)
+					{
+						logger.warn("Retrying the transaction because of transient commit error [Attempt: {}]: {}", attempt, "" + ex);
+						continue;
+					}
+					
+					throw ex;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Commits the transaction of specified session. When commit result is unknown (like on network
+	 * errors), commit is retried, which is safe as commit is idempotent.
+	 * @param session session whose transaction needs to be committed
+	 */
+	private void commitTransaction(ClientSession session)
+	{
+		for(int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				session.commitTransaction();
+				return;
+			}catch(MongoException ex)
+			{
+				if(!ex.hasErrorLabel(UNKNOWN_TRANSACTION_COMMIT_RESULT) || attempt >= MAX_TRANSACTION_ATTEMPTS)
+				{
+					throw ex;
+				}
+				
+				logger.warn("Retrying the transaction commit as its result is unknown [Attempt: {}]: {}", attempt, "" + ex);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if specified error or any of its causes is a mongo error with specified label.
+	 * @param ex error to check
+	 * @param label label to check
+	 * @return true if label is present
+	 */
+	private boolean hasErrorLabel(Throwable ex, String label)
+	{
+		for(Throwable cause = ex; cause != null; cause = cause.getCause())
+		{
+			if((cause instanceof MongoException) && ((MongoException) cause).hasErrorLabel(label))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean acquireLock(String lockTable, String lockName, String ownerId, String host, long leaseMillis)
+	{
+		MongoCollection<Document> collection = getCollection(lockTable);
+		
+		//lock can be obtained, if it is not present, or lease is expired or it is already held by same owner.
+		//  Server time ($$NOW) is used for lease expiry, so that clock skew of instances does not affect the lock.
+		//  As $expr cannot be used in upsert filter, the condition is evaluated as part of update pipeline
+		Document obtainable = new Document("$or", Arrays.asList(
+				new Document("$lt", Arrays.asList("$" + FLD_LOCK_EXPIRES_AT, "$$NOW")),
+				new Document("$eq", Arrays.asList("$" + FLD_LOCK_OWNER, new Document("$literal", ownerId)))
+			));
+		
+		Document lockFields = new Document()
+				.append(FLD_LOCK_OWNER, new Document("$literal", ownerId))
+				.append(FLD_LOCK_HOST, new Document("$literal", host))
+				.append(FLD_LOCK_ACQUIRED_ON, "$$NOW")
+				.append(FLD_LOCK_EXPIRES_AT, new Document("$add", Arrays.asList("$$NOW", leaseMillis)));
+		
+		Document setFields = new Document();
+		
+		for(Map.Entry<String, Object> entry : lockFields.entrySet())
+		{
+			setFields.append(entry.getKey(), new Document("$cond", Arrays.asList(obtainable, entry.getValue(), "$" + entry.getKey())));
+		}
+		
+		List<Bson> update = Arrays.asList(new Document("$set", setFields));
+		Document lockDoc = null;
+		
+		try
+		{
+			lockDoc = collection.findOneAndUpdate(Filters.eq(FLD_LOCK_NAME, lockName), update, 
+					new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+		}catch(MongoException ex)
+		{
+			//when lock is created concurrently by other owner, upsert fails with duplicate key error
+			if(ex.getCode() != DUPLICATE_KEY_ERROR)
+			{
+				throw ex;
+			}
+			
+			lockDoc = collection.find(Filters.eq(FLD_LOCK_NAME, lockName)).first();
+		}
+		
+		if(lockDoc != null && ownerId.equals(lockDoc.getString(FLD_LOCK_OWNER)))
+		{
+			return true;
+		}
+		
+		if(lockDoc != null)
+		{
+			logger.debug("Lock '{}' is currently held by [Owner: {}, Host: {}, Expires At: {}]", 
+					lockName, lockDoc.get(FLD_LOCK_OWNER), lockDoc.get(FLD_LOCK_HOST), lockDoc.get(FLD_LOCK_EXPIRES_AT));
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean renewLock(String lockTable, String lockName, String ownerId, long leaseMillis)
+	{
+		MongoCollection<Document> collection = getCollection(lockTable);
+		
+		UpdateResult result = collection.updateOne(
+				Filters.and(Filters.eq(FLD_LOCK_NAME, lockName), Filters.eq(FLD_LOCK_OWNER, ownerId)), 
+				Arrays.asList(new Document("$set", new Document(FLD_LOCK_EXPIRES_AT, new Document("$add", Arrays.asList("$$NOW", leaseMillis)))))
+			);
+		
+		return (result.getMatchedCount() > 0);
+	}
+	
+	@Override
+	public void awaitLockRelease(String lockTable, String lockName, long maxWaitMillis)
+	{
+		if(!changeStreamsUnsupported)
+		{
+			try
+			{
+				awaitLockChangeEvent(lockTable, maxWaitMillis);
+				return;
+			}catch(MongoException ex)
+			{
+				logger.warn("Change streams are not supported by target db, polling will be used to wait for lock release. Error: {}", "" + ex);
+				changeStreamsUnsupported = true;
+			}
+		}
+		
+		//jitter the poll interval, so that waiting instances do not retry at the same time
+		long pollMillis = ThreadLocalRandom.current().nextLong(LOCK_POLL_MIN_MILLIS, LOCK_POLL_MAX_MILLIS);
+		
+		try
+		{
+			Thread.sleep(Math.min(pollMillis, maxWaitMillis));
+		}catch(InterruptedException ex)
+		{
+			throw new InvalidStateException("Thread got interrupted while waiting for lock release", ex);
+		}
+	}
+	
+	/**
+	 * Watches the lock collection till a lock is released/updated or till specified time elapses.
+	 * @param lockTable lock collection to watch
+	 * @param maxWaitMillis maximum time to wait
+	 */
+	private void awaitLockChangeEvent(String lockTable, long maxWaitMillis)
+	{
+		MongoCollection<Document> collection = getCollection(lockTable);
+		long endTime = System.currentTimeMillis() + maxWaitMillis;
+		
+		//delete events carry only document key, so any delete/update on lock collection is considered
+		List<Bson> pipeline = Arrays.asList(Aggregates.match(Filters.in("operationType", "delete", "update", "replace")));
+		
+		try(MongoCursor<ChangeStreamDocument<Document>> cursor = collection.watch(pipeline)
+				.maxAwaitTime(maxWaitMillis, TimeUnit.MILLISECONDS)
+				.iterator())
+		{
+			while(System.currentTimeMillis() < endTime)
+			{
+				ChangeStreamDocument<Document> event = cursor.tryNext();
+				
+				if(event != null)
+				{
+					logger.debug("Got change event on lock collection: {}", event.getOperationType());
+					return;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void releaseLock(String lockTable, String lockName, String ownerId)
+	{
+		MongoCollection<Document> collection = getCollection(lockTable);
+		collection.deleteOne(Filters.and(Filters.eq(FLD_LOCK_NAME, lockName), Filters.eq(FLD_LOCK_OWNER, ownerId)));
+	}
+
+	@Override
+	public void close()
+	{
+		if(mongoClient == null)
+		{
+			return;
+		}
+		
 		logger.debug("Closing mongo connection..");
-		mongoClient.close();
+		
+		MongoClientRegistry.release(clientKey);
+		mongoClient = null;
 	}
 }
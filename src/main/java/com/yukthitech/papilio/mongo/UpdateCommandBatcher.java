@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2022 "Yukthi Techsoft Pvt. Ltd." (http://yukthitech.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yukthitech.papilio.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+
+/**
+ * Accumulates the statements of consecutive update commands into multi-statement update commands,
+ * so that multiple updates are sent to db in single round trip. Only update commands targeting same
+ * collection with same options are merged, other commands are executed as is (after executing pending
+ * updates), so that the execution order is retained.
+ * 
+ * @author akiran
+ */
+class UpdateCommandBatcher
+{
+	private static Logger logger = LogManager.getLogger(UpdateCommandBatcher.class);
+	
+	/**
+	 * Command name of update command.
+	 */
+	private static final String UPDATE_COMMAND = "update";
+	
+	/**
+	 * Key holding the update statements in update command.
+	 */
+	private static final String UPDATES_KEY = "updates";
+	
+	/**
+	 * Max number of update statements to be sent in single command.
+	 */
+	private int batchSize;
+	
+	/**
+	 * Executor to execute the commands.
+	 */
+	private Consumer<Document> executor;
+	
+	/**
+	 * Update command being accumulated.
+	 */
+	private Document pendingCommand;
+	
+	/**
+	 * Collection and options of pending command, used to check if a command can be merged.
+	 */
+	private String pendingKey;
+	
+	/**
+	 * Update statements of pending command.
+	 */
+	private List<Object> pendingUpdates;
+	
+	/**
+	 * Instantiates a new update command batcher.
+	 *
+	 * @param batchSize max number of update statements to be sent in single command
+	 * @param executor executor to execute the commands
+	 */
+	public UpdateCommandBatcher(int batchSize, Consumer<Document> executor)
+	{
+		this.batchSize = Math.max(batchSize, 1);
+		this.executor = executor;
+	}
+	
+	/**
+	 * Adds specified command to the batch. Non-update commands are executed immediately
+	 * after flushing the pending updates.
+	 * @param command command to be added
+	 */
+	@SuppressWarnings("unchecked")
+	public void add(Document command)
+	{
+		Object updates = command.get(UPDATES_KEY);
+		
+		if(batchSize == 1 || !command.containsKey(UPDATE_COMMAND) || !(updates instanceof List))
+		{
+			flush();
+			executor.accept(command);
+			return;
+		}
+		
+		String key = toKey(command);
+		
+		if(pendingCommand != null && !key.equals(pendingKey))
+		{
+			flush();
+		}
+		
+		if(pendingCommand == null)
+		{
+			pendingKey = key;
+			pendingUpdates = new ArrayList<>();
+			pendingCommand = new Document(command);
+			pendingCommand.put(UPDATES_KEY, pendingUpdates);
+		}
+		
+		pendingUpdates.addAll((List<Object>) updates);
+		
+		if(pendingUpdates.size() >= batchSize)
+		{
+			flush();
+		}
+	}
+	
+	/**
+	 * Builds the key of the command from collection name and options of the command.
+	 * @param command command for which key is needed
+	 * @return key of the command
+	 */
+	private String toKey(Document command)
+	{
+		Document keyDoc = new Document(command);
+		keyDoc.remove(UPDATES_KEY);
+		
+		return keyDoc.toJson();
+	}
+	
+	/**
+	 * Executes the pending update statements, if any.
+	 */
+	public void flush()
+	{
+		if(pendingCommand == null)
+		{
+			return;
+		}
+		
+		Document command = pendingCommand;
+		
+		logger.debug("Executing batched update command [Collection: {}, Statements: {}]", command.get(UPDATE_COMMAND), pendingUpdates.size());
+		
+		pendingCommand = null;
+		pendingKey = null;
+		pendingUpdates = null;
+		
+		executor.accept(command);
+	}
+}
@@ -1,12 +1,33 @@
 package com.yukthitech.papilio.mongo;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -19,8 +40,19 @@ import com.mongodb.WriteConcern;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
 import com.yukthitech.papilio.ChangeTracker;
 import com.yukthitech.papilio.Main;
+import com.yukthitech.papilio.common.ChecksumEvaluator;
+import com.yukthitech.papilio.common.PapilioUtils;
+import com.yukthitech.papilio.data.ChangeLogManifest;
+import com.yukthitech.papilio.data.ChangeLogSnapshotCache;
+import com.yukthitech.papilio.data.ChangeSet;
+import com.yukthitech.papilio.data.DatabaseChangeLog;
+import com.yukthitech.papilio.data.DatabaseChangeLogFactory;
+import com.yukthitech.papilio.data.ExternalFile;
+import com.yukthitech.papilio.data.ExternalFileCache;
+import com.yukthitech.papilio.data.StreamingChangeLogReader;
 import com.yukthitech.utils.CommonUtils;
 
 /**
@@ -31,6 +63,11 @@ public class TMongoDb
 {
 	private static Logger logger = LogManager.getLogger(TMongoDb.class);
 	
+	/**
+	 * Databases used as targets in multi target test cases.
+	 */
+	private static final String TENANT_DATABASES[] = {"papilio_tenant_1", "papilio_tenant_2"};
+	
 	/**
 	 * Mongo client connection.
 	 */
@@ -68,6 +105,18 @@ public class TMongoDb
 		MongoCollection<Document> testCol =  database.getCollection("TEST_COL");
 		MongoCollection<Document> testCol2 =  database.getCollection("TEST_COL2");
 		MongoCollection<Document> testDocCol =  database.getCollection("TEST_DOC");
+		MongoCollection<Document> parCol1 =  database.getCollection("TEST_PAR_COL1");
+		MongoCollection<Document> parCol2 =  database.getCollection("TEST_PAR_COL2");
+		MongoCollection<Document> logCol =  database.getCollection("TEST_LOG_COL");
+		MongoCollection<Document> lockTestCol =  database.getCollection("TEST_LOCK_COL");
+		MongoCollection<Document> progressCol =  database.getCollection("DATABASE_CHANGE_LOG_PROGRESS");
+		MongoCollection<Document> progressTestCol =  database.getCollection("TEST_PROGRESS_COL");
+		MongoCollection<Document> txnCol =  database.getCollection("TEST_TXN_COL");
+		MongoCollection<Document> reportCol =  database.getCollection("TEST_REPORT_COL");
+		MongoCollection<Document> manifestCol =  database.getCollection("TEST_MANIFEST_COL");
+		MongoCollection<Document> filesCol =  database.getCollection("DATABASE_CHANGE_LOG_FILES");
+		MongoCollection<Document> digestCol =  database.getCollection("TEST_DIGEST_COL");
+		MongoCollection<Document> findUpdateCol =  database.getCollection("TEST_FU_COL");
 		
 		if(changeLogCol != null)
 		{
@@ -98,6 +147,73 @@ public class TMongoDb
 			logger.debug("Dropping test doc table..");
 			testCol2.drop();
 		}
+
+		if(parCol1 != null && parCol2 != null)
+		{
+			logger.debug("Dropping parallel test tables..");
+			parCol1.drop();
+			parCol2.drop();
+		}
+
+		if(logCol != null)
+		{
+			logger.debug("Dropping log flush test table..");
+			logCol.drop();
+		}
+
+		if(lockTestCol != null)
+		{
+			logger.debug("Dropping lock test table..");
+			lockTestCol.drop();
+		}
+
+		if(progressCol != null)
+		{
+			logger.debug("Dropping change log progress table..");
+			progressCol.drop();
+		}
+
+		if(progressTestCol != null)
+		{
+			logger.debug("Dropping progress test table..");
+			progressTestCol.drop();
+		}
+
+		if(txnCol != null)
+		{
+			logger.debug("Dropping transaction test table..");
+			txnCol.drop();
+		}
+
+		if(reportCol != null)
+		{
+			logger.debug("Dropping report test table..");
+			reportCol.drop();
+		}
+
+		if(manifestCol != null)
+		{
+			logger.debug("Dropping manifest test table..");
+			manifestCol.drop();
+		}
+
+		if(filesCol != null)
+		{
+			logger.debug("Dropping change log files table..");
+			filesCol.drop();
+		}
+
+		if(digestCol != null)
+		{
+			logger.debug("Dropping digest test table..");
+			digestCol.drop();
+		}
+
+		if(findUpdateCol != null)
+		{
+			logger.debug("Dropping find-update test table..");
+			findUpdateCol.drop();
+		}
 	}
 
 	/**
@@ -347,6 +463,1389 @@ public class TMongoDb
 		Assert.assertTrue(count > 0);
 	}
 
+	/**
+	 * Ensures independent changesets are executed in parallel mode and
+	 * executed changesets are recorded in file order.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testParallelExecution()
+	{
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/parallel-exec.xml",
+				"--dbtype", "mongo",
+				"--parallel-threads", "4"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getTotalCount(), 5);
+		Assert.assertEquals(tracker.getExecutedCount(), 5);
+		Assert.assertEquals(tracker.getSkipCount(), 0);
+		
+		Assert.assertEquals(database.getCollection("TEST_PAR_COL1").countDocuments(new Document("status", "done")), 1);
+		Assert.assertEquals(database.getCollection("TEST_PAR_COL2").countDocuments(new Document("status", "done")), 1);
+		
+		//ensure changesets are recorded in file order
+		MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+		List<String> recordedIds = new ArrayList<>();
+		
+		for(Document doc : changeLogCol.find(new Document("FILE_NAME", "parallel-exec.xml")).sort(new Document("_id", 1)))
+		{
+			recordedIds.add(doc.getString("CHANGE_SET_ID"));
+		}
+		
+		Assert.assertEquals(recordedIds, Arrays.asList(
+				"Creation of parallel table 1", 
+				"Creation of parallel table 2",
+				"Adding records to parallel table 1",
+				"Adding records to parallel table 2",
+				"Updating parallel tables using script"
+			));
+	}
+
+	/**
+	 * Executes papilio with specified arguments, expecting the execution to fail with an error.
+	 * @param args arguments to use
+	 */
+	private void executeWithFailure(String args[])
+	{
+		try
+		{
+			Main.execute(args);
+		}catch(RuntimeException ex)
+		{
+			logger.debug("Execution failed as expected with error: {}", "" + ex);
+			return;
+		}
+		
+		Assert.fail("Execution did not fail as expected");
+	}
+
+	/**
+	 * Ensures db-log entries buffered before a failure are flushed, so that successfully executed
+	 * changesets are not executed again.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testLogFlushOnFailure()
+	{
+		executeWithFailure(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/log-flush.xml",
+				"--dbtype", "mongo",
+				"--log-batch-size", "10"
+			});
+		
+		//entries buffered below batch size should be flushed on failure
+		MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+		Assert.assertEquals(changeLogCol.countDocuments(new Document("FILE_NAME", "log-flush.xml")), 2);
+		Assert.assertEquals(changeLogCol.countDocuments(new Document("CHANGE_SET_ID", "Adding duplicate record to log flush table")), 0);
+		Assert.assertEquals(database.getCollection("TEST_LOG_COL").countDocuments(), 1);
+	}
+
+	/**
+	 * Ensures lock is not obtained when all changesets are already executed, so that no-op runs
+	 * succeed even while other instance is holding the lock, without creating any tables.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testNoOpExecutionWithoutLock()
+	{
+		MongoCollection<Document> lockCol =  database.getCollection("DATABASE_CHANGE_LOG_LOCK");
+		Document lockFilter = new Document("NAME", "LOCK");
+		
+		database.getCollection("DATABASE_CHANGE_LOG_PROGRESS").drop();
+		
+		//lock held by other instance
+		lockCol.insertOne(new Document("NAME", "LOCK")
+				.append("OWNER", "other-instance")
+				.append("EXPIRES_AT", new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))));
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", "./src/test/resources/mongo/basic-working.xml",
+					"--dbtype", "mongo"
+				});
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getTotalCount(), 4);
+			Assert.assertEquals(tracker.getExecutedCount(), 0);
+			Assert.assertEquals(tracker.getSkipCount(), 4);
+			
+			//lock of other instance should be untouched
+			Assert.assertEquals(lockCol.countDocuments(), 1);
+			Assert.assertEquals(lockCol.find(lockFilter).first().getString("OWNER"), "other-instance");
+			
+			//tables needed only for execution should not be created
+			Assert.assertFalse(database.listCollectionNames().into(new ArrayList<>()).contains("DATABASE_CHANGE_LOG_PROGRESS"));
+		} finally
+		{
+			lockCol.deleteMany(lockFilter);
+		}
+	}
+
+	/**
+	 * Ensures lock held by other instance is respected till its lease expiry, and expired lock
+	 * is taken over.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testLockExpiry()
+	{
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/lock-exec.xml",
+				"--dbtype", "mongo"
+			};
+		
+		MongoCollection<Document> lockCol =  database.getCollection("DATABASE_CHANGE_LOG_LOCK");
+		Document lockFilter = new Document("NAME", "LOCK");
+		
+		database.getCollection("DATABASE_CHANGE_LOG_PROGRESS").drop();
+		
+		//lock held by other instance, whose lease is not expired
+		lockCol.insertOne(new Document("NAME", "LOCK")
+				.append("OWNER", "other-instance")
+				.append("HOST", "other-host")
+				.append("ACQUIRED_ON", new Date())
+				.append("EXPIRES_AT", new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))));
+		
+		ChangeTracker tracker = Main.execute(args);
+		
+		Assert.assertNotEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 0);
+		Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(), 0);
+		Assert.assertEquals(lockCol.find(lockFilter).first().getString("OWNER"), "other-instance");
+		
+		//expire the lease of other instance
+		lockCol.updateOne(lockFilter, new Document("$set", 
+				new Document("EXPIRES_AT", new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)))));
+		
+		tracker = Main.execute(args);
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(new Document("name", "lock1")), 1);
+		
+		//lock is released after execution
+		Assert.assertEquals(lockCol.countDocuments(lockFilter), 0);
+	}
+
+	/**
+	 * Ensures execution waits for the lock held by other instance, when lock wait time is specified, and
+	 * proceeds once the lock is released.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testLockWait() throws Exception
+	{
+		MongoCollection<Document> lockCol =  database.getCollection("DATABASE_CHANGE_LOG_LOCK");
+		Document lockFilter = new Document("NAME", "LOCK");
+		
+		database.getCollection("DATABASE_CHANGE_LOG_PROGRESS").drop();
+		
+		//lock held by other instance, which gets released after few seconds
+		lockCol.insertOne(new Document("NAME", "LOCK")
+				.append("OWNER", "other-instance")
+				.append("HOST", "other-host")
+				.append("ACQUIRED_ON", new Date())
+				.append("EXPIRES_AT", new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))));
+		
+		Thread releaseThread = new Thread(() -> 
+		{
+			try
+			{
+				Thread.sleep(2000);
+			}catch(InterruptedException ex)
+			{
+				return;
+			}
+			
+			lockCol.deleteOne(lockFilter);
+		});
+		
+		long startTime = System.currentTimeMillis();
+		releaseThread.start();
+		
+		ChangeTracker tracker = null;
+		
+		try
+		{
+			tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", "./src/test/resources/mongo/lock-wait.xml",
+					"--dbtype", "mongo",
+					"--lock-wait-seconds", "60"
+				});
+		} finally
+		{
+			releaseThread.join();
+		}
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		Assert.assertTrue(System.currentTimeMillis() - startTime >= 2000);
+		Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(new Document("name", "wait1")), 1);
+		
+		//lock is released after execution
+		Assert.assertEquals(lockCol.countDocuments(lockFilter), 0);
+	}
+
+	/**
+	 * Ensures changelog executed with lock scope uses its own lock, so that it is not blocked by
+	 * global lock held by other instance.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testScopedLock()
+	{
+		MongoCollection<Document> lockCol =  database.getCollection("DATABASE_CHANGE_LOG_LOCK");
+		Document globalLockFilter = new Document("NAME", "LOCK");
+		
+		//global lock held by other instance
+		lockCol.insertOne(new Document("NAME", "LOCK")
+				.append("OWNER", "other-instance")
+				.append("HOST", "other-host")
+				.append("ACQUIRED_ON", new Date())
+				.append("EXPIRES_AT", new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))));
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", "./src/test/resources/mongo/lock-scope.xml",
+					"--dbtype", "mongo",
+					"--lock-scope", "auto"
+				});
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getExecutedCount(), 1);
+			Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(new Document("name", "scope1")), 1);
+			
+			//scoped lock is released, while global lock is untouched
+			Assert.assertEquals(lockCol.countDocuments(new Document("NAME", "LOCK:lock-scope")), 0);
+			Assert.assertEquals(lockCol.find(globalLockFilter).first().getString("OWNER"), "other-instance");
+		} finally
+		{
+			lockCol.deleteMany(globalLockFilter);
+		}
+	}
+
+	/**
+	 * Ensures changeset is not executed while the lock of collection touched by it is held by
+	 * other instance.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testCollectionLock()
+	{
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/lock-collection.xml",
+				"--dbtype", "mongo",
+				"--lock-scope", "auto",
+				"--collection-locks"
+			};
+		
+		MongoCollection<Document> lockCol =  database.getCollection("DATABASE_CHANGE_LOG_LOCK");
+		Document collectionLockFilter = new Document("NAME", "COLLECTION:TEST_LOCK_COL");
+		
+		//collection lock held by other instance
+		lockCol.insertOne(new Document("NAME", "COLLECTION:TEST_LOCK_COL")
+				.append("OWNER", "other-instance")
+				.append("HOST", "other-host")
+				.append("ACQUIRED_ON", new Date())
+				.append("EXPIRES_AT", new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))));
+		
+		executeWithFailure(args);
+		
+		Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(new Document("name", "collection1")), 0);
+		Assert.assertEquals(lockCol.countDocuments(new Document("NAME", "LOCK:lock-collection")), 0);
+		
+		//once collection lock is released, changeset should get executed
+		lockCol.deleteOne(collectionLockFilter);
+		ChangeTracker tracker = Main.execute(args);
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		Assert.assertEquals(database.getCollection("TEST_LOCK_COL").countDocuments(new Document("name", "collection1")), 1);
+		Assert.assertEquals(lockCol.countDocuments(), 0);
+	}
+
+	/**
+	 * Ensures re-execution of failed changeset resumes from its progress markers, without
+	 * re-executing the changes completed earlier.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testProgressResume()
+	{
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/progress-resume.xml",
+				"--dbtype", "mongo"
+			};
+		
+		//conflicting record which fails the last change of the changeset
+		MongoCollection<Document> progressTestCol =  database.getCollection("TEST_PROGRESS_COL");
+		progressTestCol.createIndex(new Document("name", 1), new IndexOptions().unique(true));
+		progressTestCol.insertOne(new Document("name", "progress3").append("conflicting", true));
+		
+		executeWithFailure(args);
+		
+		MongoCollection<Document> progressCol =  database.getCollection("DATABASE_CHANGE_LOG_PROGRESS");
+		Document progressFilter = new Document("CHANGE_SET_ID", "Adding records to progress test table");
+		Assert.assertEquals(progressCol.countDocuments(progressFilter), 2);
+		
+		//on re-execution, completed inserts should be skipped, which otherwise would fail on unique index
+		progressTestCol.deleteOne(new Document("conflicting", true));
+		ChangeTracker tracker = Main.execute(args);
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		Assert.assertEquals(progressTestCol.countDocuments(), 3);
+		
+		//markers are removed once changeset is recorded
+		Assert.assertEquals(progressCol.countDocuments(progressFilter), 0);
+	}
+
+	/**
+	 * Ensures transactional changesets are executed along with their db-log entries. Needs
+	 * target db to support transactions (replica set).
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testTransactionalExecution()
+	{
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/transaction-exec.xml",
+				"--dbtype", "mongo"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getTotalCount(), 3);
+		Assert.assertEquals(tracker.getExecutedCount(), 3);
+		Assert.assertEquals(tracker.getSkipCount(), 0);
+		
+		MongoCollection<Document> txnCol =  database.getCollection("TEST_TXN_COL");
+		Assert.assertEquals(txnCol.countDocuments(new Document("name", "txn1").append("status", "done")), 1);
+		Assert.assertEquals(txnCol.countDocuments(new Document("name", "txn2")), 1);
+		
+		MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+		Assert.assertEquals(changeLogCol.countDocuments(new Document("FILE_NAME", "transaction-exec.xml")), 3);
+	}
+
+	/**
+	 * Ensures changes of failed transactional changeset are rolled back and the changeset is not
+	 * recorded in db-log.
+	 */
+	@Test(dependsOnMethods = "testTransactionalExecution")
+	public void testTransactionRollback()
+	{
+		executeWithFailure(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/transaction-rollback.xml",
+				"--dbtype", "mongo"
+			});
+		
+		MongoCollection<Document> txnCol =  database.getCollection("TEST_TXN_COL");
+		Assert.assertEquals(txnCol.countDocuments(new Document("name", "txn3")), 0);
+		
+		MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+		Assert.assertEquals(changeLogCol.countDocuments(new Document("CHANGE_SET_ID", "Failing transactional changeset")), 0);
+	}
+
+	/**
+	 * Drops the tenant databases used by multi target test cases.
+	 */
+	private void dropTenantDatabases()
+	{
+		for(String name : TENANT_DATABASES)
+		{
+			mongoClient.getDatabase(name).drop();
+		}
+	}
+
+	/**
+	 * Ensures changelog is executed on all target databases and results of individual
+	 * targets are aggregated.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testMultiTargetExecution()
+	{
+		dropTenantDatabases();
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", "./src/test/resources/mongo/tenant-exec.xml",
+					"--dbtype", "mongo",
+					"--target-databases", String.join(";", TENANT_DATABASES),
+					"--max-parallel-targets", "2"
+				});
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getTotalCount(), 4);
+			Assert.assertEquals(tracker.getExecutedCount(), 4);
+			Assert.assertEquals(tracker.getSkipCount(), 0);
+			Assert.assertEquals(new ArrayList<>(tracker.getTargetTrackers().keySet()), Arrays.asList(TENANT_DATABASES));
+			
+			for(String name : TENANT_DATABASES)
+			{
+				ChangeTracker targetTracker = tracker.getTargetTrackers().get(name);
+				
+				Assert.assertEquals(targetTracker.getExecutedCount(), 2);
+				Assert.assertEquals(mongoClient.getDatabase(name).getCollection("TEST_TENANT_COL").countDocuments(new Document("name", "tenant-record")), 1);
+				Assert.assertEquals(mongoClient.getDatabase(name).getCollection("DATABASE_CHANGE_LOG").countDocuments(), 2);
+			}
+			
+			//base database should not be affected
+			Assert.assertEquals(database.getCollection("TEST_TENANT_COL").countDocuments(), 0);
+			
+			//targets matched by pattern, should skip already executed changesets
+			tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", "./src/test/resources/mongo/tenant-exec.xml",
+					"--dbtype", "mongo",
+					"--target-databases", "regex:papilio_tenant_\\d+"
+				});
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getTargetTrackers().size(), 2);
+			Assert.assertEquals(tracker.getExecutedCount(), 0);
+			Assert.assertEquals(tracker.getSkipCount(), 4);
+		} finally
+		{
+			dropTenantDatabases();
+		}
+	}
+
+	/**
+	 * Ensures run report is generated with the metrics of changesets and their changes.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	@SuppressWarnings("unchecked")
+	public void testRunReport() throws Exception
+	{
+		File reportFile = File.createTempFile("papilio-report", ".json");
+		
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/report-exec.xml",
+				"--dbtype", "mongo",
+				"--report-file", reportFile.getPath()
+			};
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(args);
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			
+			Map<String, Object> report = (Map<String, Object>) PapilioUtils.parseJson(FileUtils.readFileToString(reportFile, Charset.forName("utf8")));
+			Assert.assertEquals(report.get("exitCode"), 0);
+			Assert.assertEquals(report.get("executedCount"), 2);
+			
+			List<Map<String, Object>> changeSets = (List<Map<String, Object>>) report.get("changeSets");
+			Assert.assertEquals(changeSets.size(), 2);
+			
+			Map<String, Object> insertChangeSet = changeSets.get(0);
+			Assert.assertEquals(insertChangeSet.get("id"), "Adding records to report table");
+			Assert.assertEquals(insertChangeSet.get("status"), "EXECUTED");
+			
+			List<Map<String, Object>> insertChanges = (List<Map<String, Object>>) insertChangeSet.get("changes");
+			Assert.assertEquals(insertChanges.size(), 2);
+			
+			for(int i = 0; i < insertChanges.size(); i++)
+			{
+				Assert.assertEquals(insertChanges.get(i).get("index"), i);
+				Assert.assertEquals(insertChanges.get(i).get("type"), "InsertChange");
+				Assert.assertEquals(((Number) insertChanges.get(i).get("insertedCount")).longValue(), 1L);
+			}
+			
+			Map<String, Object> updateChangeSet = changeSets.get(1);
+			Map<String, Object> updateChange = ((List<Map<String, Object>>) updateChangeSet.get("changes")).get(0);
+			
+			Assert.assertEquals(updateChangeSet.get("status"), "EXECUTED");
+			Assert.assertEquals(updateChange.get("type"), "UpdateChange");
+			Assert.assertEquals(((Number) updateChange.get("matchedCount")).longValue(), 2L);
+			Assert.assertEquals(((Number) updateChange.get("modifiedCount")).longValue(), 2L);
+			
+			//on re-execution, changesets should be reported as skipped without change metrics
+			Main.execute(args);
+			
+			report = (Map<String, Object>) PapilioUtils.parseJson(FileUtils.readFileToString(reportFile, Charset.forName("utf8")));
+			changeSets = (List<Map<String, Object>>) report.get("changeSets");
+			
+			Assert.assertEquals(report.get("skipCount"), 2);
+			Assert.assertEquals(changeSets.size(), 2);
+			
+			for(Map<String, Object> changeSet : changeSets)
+			{
+				Assert.assertEquals(changeSet.get("status"), "SKIPPED");
+				Assert.assertEquals(((List<Object>) changeSet.get("changes")).size(), 0);
+			}
+		} finally
+		{
+			reportFile.delete();
+		}
+	}
+
+	/**
+	 * Ensures checksums evaluated by streaming engine match with the checksums recorded by older versions
+	 * (which were evaluated using json round trips), and md5 entries are migrated on switching to SHA-256.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testChecksumCompatibility()
+	{
+		MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+		DatabaseChangeLog changeLog = DatabaseChangeLogFactory.load(new File("./src/test/resources/mongo/basic-working.xml"));
+		
+		for(ChangeSet changeSet : changeLog.getChangeSets())
+		{
+			String legacyChecksum = evaluateLegacyChecksum(changeSet);
+			Assert.assertEquals(ChecksumEvaluator.evaluateChecksum(changeSet, ChecksumEvaluator.MD5), legacyChecksum);
+			
+			Document entry = changeLogCol.find(new Document("CHANGE_SET_ID", changeSet.getId())).first();
+			Assert.assertEquals(entry.getString("CHECKSUM"), legacyChecksum);
+		}
+		
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/basic-working.xml",
+				"--dbtype", "mongo",
+				"--checksum-algorithm", "SHA-256"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 0);
+		Assert.assertEquals(tracker.getSkipCount(), tracker.getTotalCount());
+		
+		//ensure md5 entries are migrated, retaining md5 checksum
+		for(ChangeSet changeSet : changeLog.getChangeSets())
+		{
+			Document entry = changeLogCol.find(new Document("CHANGE_SET_ID", changeSet.getId())).first();
+			
+			Assert.assertEquals(entry.getString("CHECKSUM"), evaluateLegacyChecksum(changeSet));
+			Assert.assertEquals(entry.getString("CHECKSUM_SHA256"), ChecksumEvaluator.evaluateChecksum(changeSet, ChecksumEvaluator.SHA_256));
+		}
+	}
+
+	/**
+	 * Evaluates md5 checksum the way older versions did, by converting the object to json and
+	 * replacing whitespaces of its string values.
+	 */
+	private String evaluateLegacyChecksum(Object object)
+	{
+		Object jsonObj = PapilioUtils.parseJson(PapilioUtils.toJson(object));
+		Object converted = replaceWhitespaces(jsonObj);
+		
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("MD5").digest(PapilioUtils.toJson(converted).getBytes());
+			return String.format("%032x", new BigInteger(1, digest));
+		}catch(Exception ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object replaceWhitespaces(Object obj)
+	{
+		if(obj instanceof Map)
+		{
+			Map<Object, Object> newMap = new LinkedHashMap<>();
+			((Map<Object, Object>) obj).forEach((key, val) -> newMap.put(key, replaceWhitespaces(val)));
+			return newMap;
+		}
+		
+		if(obj instanceof List)
+		{
+			List<Object> newLst = new ArrayList<>();
+			((List<Object>) obj).forEach(val -> newLst.add(replaceWhitespaces(val)));
+			return newLst;
+		}
+		
+		if(obj instanceof String)
+		{
+			return ((String) obj).replaceAll("\\s+", " ");
+		}
+		
+		return obj;
+	}
+
+	/**
+	 * Ensures changesets are loaded from generated manifest and executed with manifest checksums, and
+	 * changelog is parsed fully when a file is modified after manifest generation.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testManifest() throws Exception
+	{
+		//files are copied, so that included file can be modified
+		File folder = new File(System.getProperty("java.io.tmpdir"), "papilio-manifest-" + System.currentTimeMillis());
+		FileUtils.copyDirectory(new File("./src/test/resources/mongo/manifest"), folder);
+		
+		File rootFile = new File(folder, "manifest-master.xml");
+		File manifestFile = new File(folder, "manifest.json");
+		
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", rootFile.getPath(),
+				"--dbtype", "mongo",
+				"--manifest", manifestFile.getPath()
+			};
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(new String[] {
+					"--host", "localhost",
+					"--port", "27017",
+					"--database", "test",
+					"--changelog", rootFile.getPath(),
+					"--dbtype", "mongo",
+					"--generate-manifest", manifestFile.getPath()
+				});
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getExecutedCount(), 0);
+			
+			//ensure manifest is generated with all files and changesets in order
+			ChangeLogManifest manifest = ChangeLogManifest.read(manifestFile);
+			List<String> manifestIds = new ArrayList<>();
+			
+			for(ChangeLogManifest.Entry entry : manifest.getChangeSets())
+			{
+				manifestIds.add(entry.getId());
+			}
+			
+			Assert.assertEquals(manifest.getAlgorithm(), "MD5");
+			Assert.assertEquals(manifest.getFileDigests().keySet(), CommonUtils.toSet("manifest-master.xml", "manifest-child.xml"));
+			Assert.assertEquals(manifestIds, Arrays.asList("Creation of manifest table", "Adding records to manifest table"));
+			Assert.assertEquals(manifest.getChangeSets().get(1).getFile(), "manifest-child.xml");
+			Assert.assertNotNull(DatabaseChangeLogFactory.loadFromManifest(rootFile, manifestFile, "MD5"));
+			
+			tracker = Main.execute(args);
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getExecutedCount(), 2);
+			
+			//changesets should be recorded with manifest checksums
+			MongoCollection<Document> changeLogCol =  database.getCollection("DATABASE_CHANGE_LOG");
+			
+			for(ChangeLogManifest.Entry entry : manifest.getChangeSets())
+			{
+				Assert.assertEquals(changeLogCol.find(new Document("CHANGE_SET_ID", entry.getId())).first().getString("CHECKSUM"), entry.getChecksum());
+			}
+			
+			//on modification of included file, manifest should be ignored and changelog should be parsed
+			File childFile = new File(folder, "manifest-child.xml");
+			String content = FileUtils.readFileToString(childFile, Charset.forName("utf8"));
+			
+			content = content.replace("</databaseChangeLog>", 
+					"	<changeSet author=\"akiran\" id=\"Adding records to manifest table after modification\">\n"
+					+ "		<insert tableName=\"TEST_MANIFEST_COL\">\n"
+					+ "			<column-value name=\"name\" value=\"manifest2\"/>\n"
+					+ "		</insert>\n"
+					+ "	</changeSet>\n"
+					+ "</databaseChangeLog>");
+			
+			FileUtils.write(childFile, content, Charset.forName("utf8"));
+			Assert.assertNull(DatabaseChangeLogFactory.loadFromManifest(rootFile, manifestFile, "MD5"));
+			
+			tracker = Main.execute(args);
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getTotalCount(), 3);
+			Assert.assertEquals(tracker.getExecutedCount(), 1);
+			Assert.assertEquals(tracker.getSkipCount(), 2);
+			Assert.assertEquals(database.getCollection("TEST_MANIFEST_COL").countDocuments(new Document("name", "manifest2")), 1);
+		} finally
+		{
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	/**
+	 * Ensures applied included files are not parsed again while their digests match, and modification of
+	 * external files referred by them is still detected.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFileDigestSkipping() throws Exception
+	{
+		//files are copied, so that external file can be modified
+		File folder = new File(System.getProperty("java.io.tmpdir"), "papilio-digest-" + System.currentTimeMillis());
+		FileUtils.copyDirectory(new File("./src/test/resources/mongo/digest"), folder);
+		
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", new File(folder, "digest-master.xml").getPath(),
+				"--dbtype", "mongo"
+			};
+		
+		try
+		{
+			ChangeTracker tracker = Main.execute(args);
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getExecutedCount(), 2);
+			
+			//digest of included file is recorded along with its external files
+			Document fileRecord = database.getCollection("DATABASE_CHANGE_LOG_FILES").find(new Document("FILE", "digest-child.xml")).first();
+			Assert.assertNotNull(fileRecord);
+			Assert.assertEquals(fileRecord.get("CHANGE_SET_IDS"), Arrays.asList("Adding records to digest table"));
+			Assert.assertEquals(fileRecord.get("EXTERNAL_FILES"), Arrays.asList("digest-value.txt"));
+			
+			tracker = Main.execute(args);
+			
+			Assert.assertEquals(tracker.getExitCode(), 0);
+			Assert.assertEquals(tracker.getTotalCount(), 2);
+			Assert.assertEquals(tracker.getExecutedCount(), 0);
+			Assert.assertEquals(tracker.getSkipCount(), 2);
+			
+			//modification of external file should make the included file to be parsed and its change detected
+			FileUtils.write(new File(folder, "digest-value.txt"), "Modified content of digest value file.", Charset.forName("utf8"));
+			tracker = Main.execute(args);
+			
+			Assert.assertEquals(tracker.getExitCode(), -1);
+			Assert.assertEquals(tracker.getErroredChangesetId(), "Adding records to digest table");
+			Assert.assertTrue(tracker.getErrorMessage().contains("Old checksum"));
+		} finally
+		{
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	/**
+	 * Ensures changesets of concurrently parsed included files are ordered the same way as serial
+	 * parsing, with repeated includes being ignored.
+	 */
+	@Test
+	public void testIncludeOrder()
+	{
+		List<String> expectedIds = Arrays.asList(
+				"Include master changeset 1",
+				"Include a changeset 1",
+				"Include c changeset 1",
+				"Include a changeset 2",
+				"Include master changeset 2",
+				"Include b changeset 1"
+			);
+		
+		List<String> expectedFiles = Arrays.asList("include-master.xml", "include-a.xml", "include-c.xml", 
+				"include-a.xml", "include-master.xml", "include-b.xml");
+		
+		//order should be same irrespective of completion order of included files
+		for(int i = 0; i < 10; i++)
+		{
+			DatabaseChangeLog changeLog = DatabaseChangeLogFactory.load(new File("./src/test/resources/mongo/include/include-master.xml"));
+			List<String> ids = new ArrayList<>();
+			List<String> files = new ArrayList<>();
+			
+			for(ChangeSet changeSet : changeLog.getChangeSets())
+			{
+				ids.add(changeSet.getId());
+				files.add(changeSet.getFileName());
+			}
+			
+			Assert.assertEquals(ids, expectedIds);
+			Assert.assertEquals(files, expectedFiles);
+		}
+	}
+
+	/**
+	 * Fetches the ids and file names of changesets read by streaming reader from specified changelog.
+	 * @param file changelog file to read
+	 * @return changesets as id and file name pairs, in order
+	 */
+	private List<String> readStreaming(File file)
+	{
+		List<String> changeSets = new ArrayList<>();
+		
+		try(StreamingChangeLogReader reader = new StreamingChangeLogReader(file))
+		{
+			while(reader.hasNext())
+			{
+				ChangeSet changeSet = reader.next();
+				changeSets.add(changeSet.getId() + "@" + changeSet.getFileName());
+			}
+		}
+		
+		return changeSets;
+	}
+	
+	/**
+	 * Ensures streaming reader reads same changesets, in same order, as the changelog loaded fully, with
+	 * repeated and cyclic includes being ignored.
+	 */
+	@Test
+	public void testStreamingIncludes()
+	{
+		File files[] = {
+				new File("./src/test/resources/mongo/include/include-master.xml"),
+				new File("./src/test/resources/mongo/include-cycle/cycle-master.xml")
+			};
+		
+		for(File file : files)
+		{
+			List<String> loadedChangeSets = new ArrayList<>();
+			
+			for(ChangeSet changeSet : DatabaseChangeLogFactory.load(file).getChangeSets())
+			{
+				loadedChangeSets.add(changeSet.getId() + "@" + changeSet.getFileName());
+			}
+			
+			Assert.assertEquals(readStreaming(file), loadedChangeSets);
+		}
+		
+		Assert.assertEquals(readStreaming(files[1]), 
+				Arrays.asList("Cycle master changeset 1@cycle-master.xml", "Cycle child changeset 1@cycle-child.xml"));
+	}
+
+	/**
+	 * Loads the ids and checksums of the changesets of specified changelog using specified snapshot cache.
+	 * @param file changelog file to load
+	 * @param snapshotCache cache to use
+	 * @return changeset id to checksum mapping, in order
+	 */
+	private Map<String, String> loadWithSnapshots(File file, ChangeLogSnapshotCache snapshotCache)
+	{
+		Map<String, String> checksums = new LinkedHashMap<>();
+		
+		for(ChangeSet changeSet : DatabaseChangeLogFactory.load(file, null, snapshotCache).getChangeSets())
+		{
+			checksums.put(changeSet.getId(), changeSet.getChecksum());
+		}
+		
+		return checksums;
+	}
+
+	/**
+	 * Ensures parsed changelog files are restored from snapshots, and snapshots are verified and rebuilt
+	 * as per cache mode.
+	 */
+	@Test
+	public void testSnapshotCache() throws Exception
+	{
+		File cacheDir = new File(System.getProperty("java.io.tmpdir"), "papilio-snapshots-" + System.currentTimeMillis());
+		File folder = new File(System.getProperty("java.io.tmpdir"), "papilio-snapshot-files-" + System.currentTimeMillis());
+		
+		FileUtils.copyDirectory(new File("./src/test/resources/mongo/include"), folder);
+		FileUtils.copyDirectory(new File("./src/test/resources/mongo/ext-files"), folder);
+		
+		File rootFile = new File(folder, "include-master.xml");
+		
+		try
+		{
+			//on first load, snapshots are created for all parsed files
+			ChangeLogSnapshotCache snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			Map<String, String> parsedChecksums = loadWithSnapshots(rootFile, snapshotCache);
+			
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 0);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 4);
+			
+			//on next load, files should be restored with same changesets and checksums
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			
+			Assert.assertEquals(loadWithSnapshots(rootFile, snapshotCache), parsedChecksums);
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 4);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 0);
+			
+			//in verify mode, files are parsed and only mismatching snapshots are rewritten
+			File snapshotFiles[] = cacheDir.listFiles((dir, name) -> name.endsWith(".snapshot"));
+			Assert.assertEquals(snapshotFiles.length, 4);
+			FileUtils.write(snapshotFiles[0], "corrupted snapshot", Charset.forName("utf8"));
+			
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "VERIFY");
+			
+			Assert.assertEquals(loadWithSnapshots(rootFile, snapshotCache), parsedChecksums);
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 0);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 1);
+			
+			//in rebuild mode, all files are parsed and all snapshots are rewritten
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "REBUILD");
+			
+			Assert.assertEquals(loadWithSnapshots(rootFile, snapshotCache), parsedChecksums);
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 0);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 4);
+			
+			//snapshot of a file should not be used, once the external file referred by it is modified
+			File extRootFile = new File(folder, "ext-file-working.xml");
+			Map<String, String> oldChecksums = loadWithSnapshots(extRootFile, new ChangeLogSnapshotCache(cacheDir, "MD5", "USE"));
+			
+			FileUtils.write(new File(folder, "file1.txt"), "Modified content from file1", Charset.forName("utf8"));
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			
+			Map<String, String> newChecksums = loadWithSnapshots(extRootFile, snapshotCache);
+			
+			Assert.assertEquals(newChecksums.get("Creation of doc table"), oldChecksums.get("Creation of doc table"));
+			Assert.assertNotEquals(newChecksums.get("Adding records to doc table"), oldChecksums.get("Adding records to doc table"));
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 0);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 1);
+		} finally
+		{
+			FileUtils.deleteDirectory(cacheDir);
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	/**
+	 * Comparator which records its invocation, used to detect deserialization of classes not allowed in snapshots.
+	 */
+	private static class TrackingComparator implements Comparator<Object>, Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private static volatile boolean invoked = false;
+		
+		@Override
+		public int compare(Object o1, Object o2)
+		{
+			invoked = true;
+			return 0;
+		}
+	}
+	
+	/**
+	 * Ensures snapshots having classes which are not allowed in snapshots are rejected without deserializing
+	 * them, and the file is parsed and its snapshot rewritten.
+	 */
+	@Test
+	public void testSnapshotClassRestriction() throws Exception
+	{
+		File cacheDir = new File(System.getProperty("java.io.tmpdir"), "papilio-snapshots-" + System.currentTimeMillis());
+		File folder = new File(System.getProperty("java.io.tmpdir"), "papilio-snapshot-files-" + System.currentTimeMillis());
+		
+		FileUtils.copyDirectory(new File("./src/test/resources/mongo/include"), folder);
+		
+		File file = new File(folder, "include-c.xml");
+		
+		try
+		{
+			ChangeLogSnapshotCache snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			Map<String, String> parsedChecksums = loadWithSnapshots(file, snapshotCache);
+			
+			Assert.assertEquals(snapshotCache.getStoredCount(), 1);
+			
+			//replace the snapshot with an object whose deserialization invokes the comparator
+			File snapshotFiles[] = cacheDir.listFiles((dir, name) -> name.endsWith(".snapshot"));
+			Assert.assertEquals(snapshotFiles.length, 1);
+			
+			PriorityQueue<Object> queue = new PriorityQueue<>(new TrackingComparator());
+			queue.add("first");
+			queue.add("second");
+			TrackingComparator.invoked = false;
+			
+			try(ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(snapshotFiles[0])))
+			{
+				oos.writeUTF(folder.getCanonicalPath());
+				oos.writeObject(queue);
+			}
+			
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			
+			Assert.assertEquals(loadWithSnapshots(file, snapshotCache), parsedChecksums);
+			Assert.assertFalse(TrackingComparator.invoked, "Disallowed class was deserialized from snapshot");
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 0);
+			Assert.assertEquals(snapshotCache.getStoredCount(), 1);
+			
+			//rewritten snapshot should be used on next load
+			snapshotCache = new ChangeLogSnapshotCache(cacheDir, "MD5", "USE");
+			
+			Assert.assertEquals(loadWithSnapshots(file, snapshotCache), parsedChecksums);
+			Assert.assertEquals(snapshotCache.getRestoredCount(), 1);
+		} finally
+		{
+			FileUtils.deleteDirectory(cacheDir);
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	/**
+	 * Ensures external file cache serves repeated requests from cache with independent copies, and
+	 * reloads modified files.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testExternalFileCache() throws Exception
+	{
+		File jsonFile = File.createTempFile("papilio-cache", ".json");
+		
+		try
+		{
+			FileUtils.write(jsonFile, "{\"name\": \"cache\", \"items\": [1, 2]}", Charset.forName("utf8"));
+			ExternalFileCache cache = new ExternalFileCache(1024 * 1024);
+			
+			Map<String, Object> content = (Map<String, Object>) cache.getContent(jsonFile, ExternalFile.Format.JSON);
+			
+			Assert.assertEquals(cache.getHitCount(), 0);
+			Assert.assertEquals(cache.getMissCount(), 1);
+			
+			//modifications to returned content should not affect the cached content
+			content.put("name", "modified");
+			((List<Object>) content.get("items")).add(3);
+			
+			Map<String, Object> cachedContent = (Map<String, Object>) cache.getContent(jsonFile, ExternalFile.Format.JSON);
+			
+			Assert.assertEquals(cache.getHitCount(), 1);
+			Assert.assertEquals(cache.getMissCount(), 1);
+			Assert.assertNotSame(cachedContent, content);
+			Assert.assertEquals(cachedContent.get("name"), "cache");
+			Assert.assertEquals(cachedContent.get("items"), Arrays.asList(1, 2));
+			
+			//same file in different format is cached separately
+			Assert.assertEquals(cache.getContent(jsonFile, ExternalFile.Format.TEXT), "{\"name\": \"cache\", \"items\": [1, 2]}");
+			Assert.assertEquals(cache.getMissCount(), 2);
+			
+			//modified file should be reloaded
+			FileUtils.write(jsonFile, "{\"name\": \"modified-cache\"}", Charset.forName("utf8"));
+			jsonFile.setLastModified(System.currentTimeMillis() + 10000);
+			
+			cachedContent = (Map<String, Object>) cache.getContent(jsonFile, ExternalFile.Format.JSON);
+			
+			Assert.assertEquals(cache.getHitCount(), 1);
+			Assert.assertEquals(cache.getMissCount(), 3);
+			Assert.assertEquals(cachedContent.get("name"), "modified-cache");
+			
+			//files bigger than cache size are not cached
+			ExternalFileCache smallCache = new ExternalFileCache(5);
+			smallCache.getContent(jsonFile, ExternalFile.Format.JSON);
+			smallCache.getContent(jsonFile, ExternalFile.Format.JSON);
+			
+			Assert.assertEquals(smallCache.getHitCount(), 0);
+			Assert.assertEquals(smallCache.getMissCount(), 2);
+		} finally
+		{
+			jsonFile.delete();
+		}
+	}
+
+	/**
+	 * Evaluates digest of specified file by reading it as a stream.
+	 * @param file file whose digest needs to be evaluated
+	 * @param algorithm algorithm to use
+	 * @return digest in hex format
+	 */
+	private String evaluateStreamedDigest(File file, String algorithm) throws Exception
+	{
+		MessageDigest digest = MessageDigest.getInstance(algorithm);
+		byte buffer[] = new byte[8192];
+		
+		try(InputStream is = new FileInputStream(file))
+		{
+			int read = 0;
+			
+			while((read = is.read(buffer)) > 0)
+			{
+				digest.update(buffer, 0, read);
+			}
+		}
+		
+		byte result[] = digest.digest();
+		return String.format("%0" + (result.length * 2) + "x", new BigInteger(1, result));
+	}
+
+	/**
+	 * Ensures digest of file mapped in multiple chunks matches with the digest evaluated by streaming
+	 * the file content.
+	 */
+	@Test
+	public void testLargeFileDigest() throws Exception
+	{
+		File largeFile = File.createTempFile("papilio-large", ".dat");
+		File emptyFile = File.createTempFile("papilio-empty", ".dat");
+		
+		try
+		{
+			//file bigger than one map chunk (64 MB), whose last chunk is partial
+			byte block[] = new byte[1024 * 1024];
+			
+			for(int i = 0; i < block.length; i++)
+			{
+				block[i] = (byte) ((i * 31) % 251);
+			}
+			
+			try(OutputStream os = new FileOutputStream(largeFile))
+			{
+				for(int i = 0; i < 65; i++)
+				{
+					block[0] = (byte) i;
+					os.write(block);
+				}
+				
+				os.write(block, 0, 123);
+			}
+			
+			Assert.assertEquals(largeFile.length(), 65L * 1024 * 1024 + 123);
+			
+			for(String algorithm : Arrays.asList(ChecksumEvaluator.MD5, ChecksumEvaluator.SHA_256))
+			{
+				Assert.assertEquals(ChecksumEvaluator.evaluateFileChecksum(largeFile, algorithm), evaluateStreamedDigest(largeFile, algorithm));
+				Assert.assertEquals(ChecksumEvaluator.evaluateFileChecksum(emptyFile, algorithm), evaluateStreamedDigest(emptyFile, algorithm));
+			}
+		} finally
+		{
+			largeFile.delete();
+			emptyFile.delete();
+		}
+	}
+
+	/**
+	 * Recreates find-update test collection with specified number of documents, in _id order.
+	 * @param count number of documents
+	 * @return ids of the documents, in order
+	 */
+	private List<ObjectId> populateFindUpdateCollection(int count)
+	{
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		collection.drop();
+		
+		List<Document> docs = new ArrayList<>();
+		List<ObjectId> ids = new ArrayList<>();
+		
+		for(int i = 0; i < count; i++)
+		{
+			ObjectId id = new ObjectId();
+			
+			ids.add(id);
+			docs.add(new Document("_id", id).append("name", "name-" + i));
+		}
+		
+		collection.insertMany(docs);
+		return ids;
+	}
+
+	/**
+	 * Ensures find-and-update processes all the documents of finder, across multiple cursor batches.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateCursorDraining()
+	{
+		populateFindUpdateCollection(250);
+		
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-cursor.xml",
+				"--dbtype", "mongo"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		Assert.assertEquals(collection.countDocuments(new Document("upperName", new Document("$exists", true))), 250);
+		
+		for(Document doc : collection.find())
+		{
+			Assert.assertEquals(doc.getString("upperName"), doc.getString("name").toUpperCase());
+		}
+	}
+
+	/**
+	 * Ensures rendered updates of find-and-update are applied in batches, including the last partial batch.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateBatching()
+	{
+		populateFindUpdateCollection(250);
+		
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-batched.xml",
+				"--dbtype", "mongo"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		Assert.assertEquals(collection.countDocuments(new Document("batched", "yes")), 250);
+		
+		for(Document doc : collection.find())
+		{
+			Assert.assertEquals(doc.getString("lowerName"), doc.getString("name").toLowerCase());
+		}
+	}
+
+	/**
+	 * Ensures find-and-update executed using parallel partitions processes every document exactly once.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateParallel()
+	{
+		populateFindUpdateCollection(1000);
+		
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-parallel.xml",
+				"--dbtype", "mongo"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		Assert.assertEquals(collection.countDocuments(new Document("updateCount", 1)), 1000);
+		
+		for(Document doc : collection.find())
+		{
+			Assert.assertEquals(doc.getString("parallelName"), doc.getString("name"));
+		}
+	}
+
+	/**
+	 * Ensures failure of a parallel find-and-update partition is reported only after the remaining partition
+	 * workers are stopped, and executions with different max workers can run within same process.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateParallelFailure() throws Exception
+	{
+		List<ObjectId> ids = populateFindUpdateCollection(1000);
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		
+		//non-numeric counter fails the update of the document
+		Document failingDoc = new Document("_id", ids.get(500));
+		collection.updateOne(failingDoc, new Document("$set", new Document("updateCount", "invalid")));
+		
+		executeWithFailure(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-parallel-failure.xml",
+				"--dbtype", "mongo",
+				"--max-find-update-workers", "2"
+			});
+		
+		//no worker should be updating the collection, once failure is reported
+		long updatedCount = collection.countDocuments(new Document("updateCount", 1));
+		Thread.sleep(1000);
+		
+		Assert.assertEquals(collection.countDocuments(new Document("updateCount", 1)), updatedCount);
+		
+		//rerun with different max workers, after fixing the failing document
+		collection.updateMany(new Document(), new Document("$set", new Document("updateCount", 0)));
+		
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-parallel-failure.xml",
+				"--dbtype", "mongo",
+				"--max-find-update-workers", "3"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		Assert.assertEquals(collection.countDocuments(new Document("updateCount", 1)), 1000);
+	}
+
+	/**
+	 * Ensures failed resumable find-and-update is resumed from its last checkpoint, without reprocessing
+	 * the documents before the checkpoint.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateResume()
+	{
+		List<ObjectId> ids = populateFindUpdateCollection(2000);
+		MongoCollection<Document> collection = database.getCollection("TEST_FU_COL");
+		
+		//non-numeric counter fails the update of the document, after first checkpoint is saved
+		Document failingDoc = new Document("_id", ids.get(1500));
+		collection.updateOne(failingDoc, new Document("$set", new Document("updateCount", "invalid")));
+		
+		String args[] = {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-resumable.xml",
+				"--dbtype", "mongo"
+			};
+		
+		executeWithFailure(args);
+		
+		collection.updateOne(failingDoc, new Document("$unset", new Document("updateCount", "")));
+		ChangeTracker tracker = Main.execute(args);
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getExecutedCount(), 1);
+		
+		//documents till checkpoint are not reprocessed, while others are processed at least once
+		Assert.assertEquals(collection.countDocuments(new Document("_id", new Document("$lte", ids.get(999))).append("updateCount", 1)), 1000);
+		Assert.assertEquals(collection.countDocuments(new Document("updateCount", new Document("$gte", 1))), 2000);
+		
+		for(Document doc : collection.find())
+		{
+			Assert.assertEquals(doc.getString("resumedName"), doc.getString("name").toUpperCase());
+		}
+	}
+
+	/**
+	 * Ensures "${_id}" strings of update templates are bound with object ids, both for
+	 * compiled templates and processed templates.
+	 */
+	@Test(dependsOnMethods = "testBasicWorking")
+	public void testFindAndUpdateById()
+	{
+		ChangeTracker tracker = Main.execute(new String[] {
+				"--host", "localhost",
+				"--port", "27017",
+				"--database", "test",
+				"--changelog", "./src/test/resources/mongo/find-n-update-id.xml",
+				"--dbtype", "mongo"
+			});
+		
+		Assert.assertEquals(tracker.getExitCode(), 0);
+		Assert.assertEquals(tracker.getTotalCount(), 2);
+		Assert.assertEquals(tracker.getExecutedCount(), 2);
+		Assert.assertEquals(tracker.getSkipCount(), 0);
+
+		//updates match only when _id is bound as object id
+		MongoCollection<Document> testCol =  database.getCollection("TEST_COL");
+		int count = 0;
+		
+		for(Document doc : testCol.find())
+		{
+			Assert.assertEquals(doc.getString("compiledIdMatch"), doc.getString("name"));
+			Assert.assertEquals(doc.getString("templateIdMatch"), doc.getString("name"));
+			count ++;
+		}
+		
+		Assert.assertTrue(count > 0);
+	}
+
 	@AfterClass
 	public void cleanup()
 	{